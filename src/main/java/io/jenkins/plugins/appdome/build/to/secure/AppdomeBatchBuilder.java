@@ -0,0 +1,292 @@
+package io.jenkins.plugins.appdome.build.to.secure;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import hudson.util.StreamTaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.download.InputDownloader;
+import io.jenkins.plugins.appdome.build.to.secure.platform.Platform;
+import io.jenkins.plugins.appdome.build.to.secure.throttle.AppdomeCircuitBreaker;
+import io.jenkins.plugins.appdome.build.to.secure.timing.AppdomeTimingsAction;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageRecorder;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilderConstants.APPDOME_BUILDE2SECURE_VERSION;
+
+/**
+ * Protects several apps in one step, each with its own fusion set and signing configuration, on
+ * the agent of the build. Up to {@link #getConcurrency()} apps are protected at a time with one
+ * engine checkout and one downloader. Each app gets its own directory under the output location,
+ * and its own result, so that one failure doesn't hide the others.
+ */
+public class AppdomeBatchBuilder extends Builder implements SimpleBuildStep {
+
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    private final Secret token;
+    private Secret additionalTokens;
+    private final String teamId;
+    private final List<Platform> platforms;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private String outputLocation;
+    private Boolean buildWithLogs;
+
+    @DataBoundConstructor
+    public AppdomeBatchBuilder(Secret token, String teamId, List<Platform> platforms) {
+        this.token = token;
+        this.teamId = teamId;
+        this.platforms = platforms == null ? new ArrayList<>() : new ArrayList<>(platforms);
+    }
+
+    public Secret getToken() {
+        return token;
+    }
+
+    /**
+     * @return more API keys of the team, one per line, that the apps are spread over, or null
+     */
+    public Secret getAdditionalTokens() {
+        return additionalTokens;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTokens(Secret additionalTokens) {
+        this.additionalTokens = Util.fixEmptyAndTrim(Secret.toString(additionalTokens)) == null ? null : additionalTokens;
+    }
+
+    public String getTeamId() {
+        return teamId;
+    }
+
+    public List<Platform> getPlatforms() {
+        return platforms;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public String getOutputLocation() {
+        return outputLocation;
+    }
+
+    @DataBoundSetter
+    public void setOutputLocation(String outputLocation) {
+        this.outputLocation = outputLocation;
+    }
+
+    public Boolean getBuildWithLogs() {
+        return buildWithLogs;
+    }
+
+    @DataBoundSetter
+    public void setBuildWithLogs(Boolean buildWithLogs) {
+        this.buildWithLogs = buildWithLogs;
+    }
+
+    @Override
+    public void perform(@NonNull Run<?, ?> run, @NonNull FilePath workspace, @NonNull EnvVars env, @NonNull Launcher launcher, @NonNull TaskListener listener) throws InterruptedException, IOException {
+        listener.getLogger().println("Appdome Build2Secure " + APPDOME_BUILDE2SECURE_VERSION);
+        if (platforms.isEmpty()) {
+            listener.error("No apps to protect.");
+            run.setResult(Result.FAILURE);
+            return;
+        }
+        AppdomeCircuitBreaker.Permit permit;
+        try {
+            permit = AppdomeCircuitBreaker.get().admit(listener);
+        } catch (AbortException e) {
+            listener.error(e.getMessage());
+            run.setResult(Result.FAILURE);
+            return;
+        }
+        try (permit) {
+            FilePath appdomeWorkspace = workspace.createTempDir("AppdomeBuild", "Batch");
+            try {
+                boolean nativeClient = AppdomeGlobalConfiguration.get().isNativeClientEnabled();
+                AppdomeTimingsAction timings = AppdomeTimingsAction.of(run);
+                long start = System.nanoTime();
+                FilePath engineDirectory = nativeClient ? workspace
+                        : StageTimer.time(timings, "Engine setup",
+                        () -> AppdomeBuilder.ProvisionAppdomeEngine(listener, appdomeWorkspace, workspace, launcher));
+                if (engineDirectory == null) {
+                    listener.error("Couldn't Update Appdome engine, read logs for more information.");
+                    run.setResult(Result.FAILURE);
+                    return;
+                }
+                InputDownloader downloads = InputDownloader.forBuild(appdomeWorkspace, workspace, env, listener);
+                FilePath outputDirectory = Util.fixEmptyAndTrim(outputLocation) == null
+                        ? workspace.child("output") : workspace.child(outputLocation);
+                List<String> names = EntryNames();
+
+                List<String> failures = ProtectAll(run, names, outputDirectory, engineDirectory, workspace, env, launcher,
+                        listener, downloads, nativeClient, timings);
+                timings.addTotal(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                listener.getLogger().println("Appdome batch: " + (names.size() - failures.size()) + " of "
+                        + names.size() + " apps protected");
+                for (String failure : failures) {
+                    listener.error(failure);
+                }
+                if (!failures.isEmpty()) {
+                    run.setResult(Result.FAILURE);
+                }
+            } finally {
+                AppdomeBuilder.deleteAppdomeWorkspacce(listener, appdomeWorkspace);
+            }
+        }
+    }
+
+    /**
+     * Protects the apps with up to {@link #getConcurrency()} at a time. The log of each app is
+     * kept aside and printed as a whole when the app is done, so that logs don't interleave. The
+     * stages of each app are recorded under its name.
+     *
+     * @return a message for each app that wasn't protected
+     */
+    private List<String> ProtectAll(Run<?, ?> run, List<String> names, FilePath outputDirectory, FilePath engineDirectory, FilePath workspace, EnvVars env, Launcher launcher, TaskListener listener, InputDownloader downloads, boolean nativeClient, StageRecorder recorder) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, platforms.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Appdome batch"));
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < platforms.size(); i++) {
+                AppdomeBuilder builder = new AppdomeBuilder(token, teamId, platforms.get(i), null);
+                builder.setAdditionalTokens(additionalTokens);
+                builder.setBuildWithLogs(buildWithLogs);
+                builder.setOutputLocation(outputDirectory.child(names.get(i)).getRemote() + "/");
+                String name = names.get(i);
+                results.add(pool.submit(() -> {
+                    ByteArrayOutputStream log = new ByteArrayOutputStream();
+                    StreamTaskListener entryListener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+                    String failure = null;
+                    try {
+                        int exitCode = builder.Protect(run, entryListener, engineDirectory, workspace, new EnvVars(env),
+                                launcher, downloads, nativeClient, StageRecorder.scoped(recorder, name));
+                        if (exitCode != 0) {
+                            failure = name + ": exitcode " + exitCode;
+                        }
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        failure = name + ": " + e;
+                    }
+                    entryListener.getLogger().flush();
+                    synchronized (listener) {
+                        listener.getLogger().println("[" + name + "] " + (failure == null ? "protected" : "failed"));
+                        listener.getLogger().write(log.toByteArray());
+                    }
+                    return failure;
+                }));
+            }
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    String failure = results.get(i).get();
+                    if (failure != null) {
+                        failures.add(failure);
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(names.get(i) + ": " + e.getCause());
+                }
+            }
+            return failures;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a name for each app, from its file name, used for its output directory
+     */
+    private List<String> EntryNames() {
+        List<String> names = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < platforms.size(); i++) {
+            String appPath = Util.fixEmptyAndTrim(platforms.get(i).getAppPath());
+            String name = appPath == null ? "app-" + (i + 1) : new File(appPath.replaceAll("[?#].*$", "")).getName();
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                name = name.substring(0, dot);
+            }
+            if (!used.add(name)) {
+                name = name + "-" + (i + 1);
+                used.add(name);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    @Symbol("AppdomeBatchBuilder")
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @POST
+        public FormValidation doCheckToken(@QueryParameter Secret token) {
+            return Jenkins.get().getDescriptorByType(AppdomeBuilder.DescriptorImpl.class).doCheckToken(token);
+        }
+
+        @POST
+        public FormValidation doCheckTeamId(@QueryParameter String teamId) {
+            return Jenkins.get().getDescriptorByType(AppdomeBuilder.DescriptorImpl.class).doCheckTeamId(teamId);
+        }
+
+        @POST
+        public FormValidation doCheckConcurrency(@QueryParameter int concurrency) {
+            Jenkins.get().checkPermission(Jenkins.READ);
+            if (concurrency < 1) {
+                return FormValidation.error("At least one app has to be protected at a time.");
+            }
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Appdome Build-2secure batch";
+        }
+    }
+}
@@ -3,21 +3,42 @@ package io.jenkins.plugins.appdome.build.to.secure;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.*;
 import hudson.model.*;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import io.jenkins.plugins.appdome.build.to.secure.api.NativeAppdomeBuild;
+import io.jenkins.plugins.appdome.build.to.secure.api.TaskOutput;
+import io.jenkins.plugins.appdome.build.to.secure.cache.ProtectionResultCache;
+import io.jenkins.plugins.appdome.build.to.secure.download.InputDownloader;
+import io.jenkins.plugins.appdome.build.to.secure.download.ProxyEnvironment;
+import io.jenkins.plugins.appdome.build.to.secure.engine.AppdomeEngineCache;
+import io.jenkins.plugins.appdome.build.to.secure.engine.EngineOutputParser;
+import io.jenkins.plugins.appdome.build.to.secure.metrics.AppdomeMetrics;
 import io.jenkins.plugins.appdome.build.to.secure.platform.Platform;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
 import io.jenkins.plugins.appdome.build.to.secure.platform.android.AndroidPlatform;
 import io.jenkins.plugins.appdome.build.to.secure.platform.ios.IosPlatform;
 import io.jenkins.plugins.appdome.build.to.secure.platform.ios.certificate.method.AutoDevSign;
 import io.jenkins.plugins.appdome.build.to.secure.platform.ios.certificate.method.AutoSign;
 import io.jenkins.plugins.appdome.build.to.secure.platform.ios.certificate.method.PrivateSign;
+import io.jenkins.plugins.appdome.build.to.secure.preflight.AppdomePreflight;
+import io.jenkins.plugins.appdome.build.to.secure.throttle.AppdomeCircuitBreaker;
+import io.jenkins.plugins.appdome.build.to.secure.throttle.AppdomeThrottle;
+import io.jenkins.plugins.appdome.build.to.secure.throttle.AppdomeTokenPool;
+import io.jenkins.plugins.appdome.build.to.secure.timing.AppdomeTimingsAction;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageRecorder;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -25,15 +46,24 @@ import org.kohsuke.stapler.verb.POST;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.InputMismatchException;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilderConstants.*;
 
 public class AppdomeBuilder extends Builder implements SimpleBuildStep {
 
+    private static final String ENGINE_COMMAND = "./appdome_api.sh";
+
     private final Secret token;
     private final String teamId;
     private final Platform platform;
@@ -41,6 +71,8 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
     private StringWarp secondOutput;
     private Boolean buildWithLogs;
     private BuildToTest buildToTest;
+    private String additionalFusionSetIds;
+    private Secret additionalTokens;
 
     private boolean isAutoDevPrivateSign = false;
 
@@ -69,10 +101,42 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
         return null;
     }
 
+    /**
+     * @return more fusion sets to build the app with, comma separated, or null
+     */
+    public String getAdditionalFusionSetIds() {
+        return additionalFusionSetIds;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalFusionSetIds(String additionalFusionSetIds) {
+        this.additionalFusionSetIds = Util.fixEmptyAndTrim(additionalFusionSetIds);
+    }
+
     public Secret getToken() {
         return token;
     }
 
+    /**
+     * @return more API keys of the team, one per line, that protections are spread over, or null
+     */
+    public Secret getAdditionalTokens() {
+        return additionalTokens;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTokens(Secret additionalTokens) {
+        this.additionalTokens = Util.fixEmptyAndTrim(Secret.toString(additionalTokens)) == null ? null : additionalTokens;
+    }
+
+    /**
+     * @return the API keys protections may use, see {@link AppdomeTokenPool}
+     */
+    @Restricted(NoExternalUse.class)
+    public List<Secret> getTokenPool() {
+        return AppdomeTokenPool.tokens(token, additionalTokens);
+    }
+
     public String getTeamId() {
         return teamId;
     }
@@ -96,45 +160,408 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
     }
 
     public void perform(@NonNull Run<?, ?> run, FilePath workspace, EnvVars env, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
-        int exitCode;
+        AppdomeCircuitBreaker.Permit permit;
+        try {
+            permit = AppdomeCircuitBreaker.get().admit(listener);
+        } catch (AbortException e) {
+            listener.error(e.getMessage());
+            run.setResult(Result.FAILURE);
+            return;
+        }
+        try (permit) {
+            Perform(run, workspace, env, launcher, listener);
+        }
+    }
+
+    private void Perform(Run<?, ?> run, FilePath workspace, EnvVars env, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
         FilePath appdomeWorkspace = workspace.createTempDir("AppdomeBuild", "Build");
         listener.getLogger().println("Appdome Build2Secure " + APPDOME_BUILDE2SECURE_VERSION);
-        exitCode = CloneAppdomeApi(listener, appdomeWorkspace, launcher);
-        if (exitCode == 0) {
-            listener
-                    .getLogger()
-                    .println("Appdome engine updated successfully");
+        AppdomeTimingsAction timings = AppdomeTimingsAction.of(run);
+        long start = System.nanoTime();
+        try {
+            InputDownloader downloads = InputDownloader.forBuild(appdomeWorkspace, workspace, env, listener);
+            boolean nativeClient = AppdomeGlobalConfiguration.get().isNativeClientEnabled();
+            FilePath engineDirectory = PrepareAppdomeBuild(listener, appdomeWorkspace, workspace, env, launcher, downloads, !nativeClient, timings);
+            if (engineDirectory == null) {
+                listener.error("Couldn't Update Appdome engine, read logs for more information.");
+                run.setResult(Result.FAILURE);
+                return;
+            }
+            if (!nativeClient) {
+                listener
+                        .getLogger()
+                        .println("Appdome engine updated successfully");
+            }
+            int exitCode;
             try {
-                exitCode = ExecuteAppdomeApi(listener, appdomeWorkspace, workspace, env, launcher);
+                exitCode = Protect(run, listener, engineDirectory, workspace, env, launcher, downloads, nativeClient, timings);
             } catch (Exception e) {
                 listener.error("Couldn't run Appdome Builder, read logs for more information. error:" + e);
                 run.setResult(Result.FAILURE);
-                deleteAppdomeWorkspacce(listener, appdomeWorkspace);
+                return;
             }
             if (exitCode == 0) {
                 listener
                         .getLogger()
                         .println("Executed Build successfully");
             } else {
-
                 listener.error("Couldn't run Appdome Builder, exitcode " + exitCode + ".\nCouldn't run Appdome Builder, read logs for more information.");
                 run.setResult(Result.FAILURE);
-                deleteAppdomeWorkspacce(listener, appdomeWorkspace);
             }
-        } else {
-            listener.error("Couldn't Update Appdome engine, read logs for more information.");
-            run.setResult(Result.FAILURE);
+        } finally {
+            timings.addTotal(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
             deleteAppdomeWorkspacce(listener, appdomeWorkspace);
         }
-        deleteAppdomeWorkspacce(listener, appdomeWorkspace);
     }
 
-    private int ExecuteAppdomeApi(TaskListener listener, FilePath appdomeWorkspace, FilePath agentWorkspace, EnvVars env, Launcher launcher) throws Exception {
-        FilePath scriptPath = appdomeWorkspace.child("appdome-api-bash");
-        String command = ComposeAppdomeCommand(appdomeWorkspace, agentWorkspace, env, launcher, listener);
-        List<String> filteredCommandList = Stream.of(command.split("\\s+(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)"))
-                .filter(s -> !s.isEmpty()).map(s -> s.replaceAll("\"", ""))
-                .collect(Collectors.toList());
+    /**
+     * Runs the stages that precede the engine launch concurrently: engine setup, the app download
+     * and the signing materials download. The downloads are only prefetched into the build's
+     * {@link InputDownloader}; failures are reported when the command is composed, where the
+     * resolved paths are taken from the downloader.
+     *
+     * @param listener         the TaskListener to use for logging
+     * @param appdomeWorkspace the working directory of the build
+     * @param agentWorkspace   the workspace of the build
+     * @param env              environment variables of the build
+     * @param launcher         used to launch commands.
+     * @param downloads        the downloader of the build
+     * @param provisionEngine  whether the bash engine is needed, rather than the native client
+     * @param recorder         where to record the time each stage takes
+     * @return the directory containing appdome_api.sh (the workspace with the native client), or
+     * null if the engine couldn't be provided
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the process is interrupted
+     */
+    private FilePath PrepareAppdomeBuild(TaskListener listener, FilePath appdomeWorkspace, FilePath agentWorkspace, EnvVars env, Launcher launcher, InputDownloader downloads, boolean provisionEngine, StageRecorder recorder) throws IOException, InterruptedException {
+        Future<FilePath> engineSetup = provisionEngine
+                ? StartStage("Engine setup", listener, recorder, () -> ProvisionAppdomeEngine(listener, appdomeWorkspace, agentWorkspace, launcher))
+                : CompletableFuture.completedFuture(agentWorkspace);
+        Future<?> appDownload = StartStage("App download", listener, recorder,
+                () -> PrefetchFiles(downloads, CollectAppPaths(env)));
+        Future<?> signingDownload = StartStage("Signing materials download", listener, recorder,
+                () -> PrefetchFiles(downloads, CollectSigningPaths(env)));
+        FilePath engineDirectory;
+        try {
+            engineDirectory = engineSetup.get();
+        } catch (InterruptedException e) {
+            engineSetup.cancel(true);
+            appDownload.cancel(true);
+            signingDownload.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            appDownload.cancel(true);
+            signingDownload.cancel(true);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        if (engineDirectory == null) {
+            appDownload.cancel(true);
+            signingDownload.cancel(true);
+            return null;
+        }
+        try {
+            appDownload.get();
+            signingDownload.get();
+        } catch (InterruptedException e) {
+            appDownload.cancel(true);
+            signingDownload.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            // Reported again when the command is composed
+        }
+        return engineDirectory;
+    }
+
+    /**
+     * Starts a pre-launch stage in the background, then prints and records how long it took once it's done.
+     */
+    private static <T> Future<T> StartStage(String name, TaskListener listener, StageRecorder recorder, Callable<T> stage) {
+        return Computer.threadPoolForRemoting.submit(() -> {
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                T result = stage.call();
+                succeeded = true;
+                return result;
+            } finally {
+                listener.getLogger().println(name + " took "
+                        + String.format(Locale.ROOT, "%.1f", (System.nanoTime() - start) / 1e9) + " s");
+                StageTimer.record(recorder, name, start, succeeded);
+            }
+        });
+    }
+
+    /**
+     * Resolves path lists ahead of time, leaving failures to be reported when the command is composed.
+     */
+    private static Void PrefetchFiles(InputDownloader downloads, List<String> paths) throws InterruptedException {
+        for (String path : paths) {
+            try {
+                downloads.resolve(path);
+            } catch (IOException | RuntimeException e) {
+                // Reported again when the command is composed
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the app path list exactly as {@link #ComposeBuildRequest} resolves it, if it is set
+     */
+    private List<String> CollectAppPaths(EnvVars env) {
+        List<String> paths = new ArrayList<>();
+        if (!(Util.fixEmptyAndTrim(this.platform.getAppPath()) == null)) {
+            paths.add(this.platform.getAppPath());
+        } else if (!(Util.fixEmptyAndTrim(env.get(APP_PATH)) == null)) {
+            paths.add(env.get(APP_PATH));
+        }
+        return paths;
+    }
+
+    /**
+     * @return the keystore, provisioning profiles and entitlements path lists exactly as the
+     * platform specific compose methods resolve them, for those that are set
+     */
+    private List<String> CollectSigningPaths(EnvVars env) {
+        List<String> paths = new ArrayList<>();
+        if (platform instanceof AndroidPlatform) {
+            io.jenkins.plugins.appdome.build.to.secure.platform.android.certificate.method.CertificateMethod certificateMethod =
+                    ((AndroidPlatform) platform).getCertificateMethod();
+            if (certificateMethod instanceof io.jenkins.plugins.appdome.build.to.secure.platform
+                    .android.certificate.method.AutoSign) {
+                AddPathOrEnvironmentVariable(paths, env, ((io.jenkins.plugins.appdome.build.to.secure.platform
+                        .android.certificate.method.AutoSign) certificateMethod).getKeystorePath(), KEYSTORE_PATH_ENV);
+            }
+        } else if (platform instanceof IosPlatform) {
+            io.jenkins.plugins.appdome.build.to.secure.platform.ios.certificate.method.CertificateMethod certificateMethod =
+                    ((IosPlatform) platform).getCertificateMethod();
+            if (certificateMethod instanceof AutoSign) {
+                AutoSign autoSign = (AutoSign) certificateMethod;
+                AddPathOrEnvironmentVariable(paths, env, autoSign.getKeystorePath(), KEYSTORE_PATH_ENV);
+                AddPathOrEnvironmentVariable(paths, env, autoSign.getProvisioningProfilesPath(), MOBILE_PROVISION_PROFILE_PATHS_ENV);
+                AddPathOrEnvironmentVariable(paths, env, autoSign.getEntitlementsPath(), ENTITLEMENTS_PATHS_ENV);
+            } else if (certificateMethod instanceof PrivateSign) {
+                AddPathOrEnvironmentVariable(paths, env, ((PrivateSign) certificateMethod).getProvisioningProfilesPath(),
+                        MOBILE_PROVISION_PROFILE_PATHS_ENV);
+            } else if (certificateMethod instanceof AutoDevSign) {
+                AutoDevSign autoDevSign = (AutoDevSign) certificateMethod;
+                AddPathOrEnvironmentVariable(paths, env, autoDevSign.getProvisioningProfilesPath(), MOBILE_PROVISION_PROFILE_PATHS_ENV);
+                AddPathOrEnvironmentVariable(paths, env, autoDevSign.getEntitlementsPath(), ENTITLEMENTS_PATHS_ENV);
+            }
+        }
+        return paths;
+    }
+
+    private static void AddPathOrEnvironmentVariable(List<String> paths, EnvVars env, String fieldValue, String envName) {
+        if (fieldValue != null && !fieldValue.isEmpty()) {
+            paths.add(fieldValue);
+        } else if (!(Util.fixEmptyAndTrim(env.get(envName)) == null)) {
+            paths.add(env.get(envName));
+        }
+    }
+
+    /**
+     * Runs the build once its inputs and engine are prepared. The batch builder calls it for each
+     * of its apps, with one engine and one downloader for all of them. The app is checked by
+     * {@link AppdomePreflight} before anything is sent to Appdome. With the result cache enabled,
+     * outputs of an identical earlier protection are restored instead, without taking an API key
+     * or a slot, and counted as a cache hit in {@link AppdomeMetrics}.
+     *
+     * @param run             the build to keep what the preflight read with
+     * @param engineDirectory the directory containing appdome_api.sh, unused with the native client
+     * @param nativeClient    whether to run the native client rather than the bash engine
+     * @param recorder        where to record the time each stage takes
+     * @return the exit code of the engine, 0 with the native client whose failures are thrown
+     */
+    int Protect(Run<?, ?> run, TaskListener listener, FilePath engineDirectory, FilePath agentWorkspace, EnvVars env, Launcher launcher, InputDownloader downloads, boolean nativeClient, StageRecorder recorder) throws Exception {
+        if (additionalFusionSetIds != null && !nativeClient) {
+            throw new IOException("Building with several fusion sets needs the native Appdome client, "
+                    + "enable it in the global configuration");
+        }
+        // The API key is added once the protection leased one, see ProtectApp
+        AppdomeBuildRequest request = ComposeBuildRequest(agentWorkspace, env, downloads);
+        StageTimer.time(recorder, "Preflight", () -> {
+            AppdomePreflight.check(run, agentWorkspace, request, platform.getPlatformType(), listener);
+            return null;
+        });
+
+        ProtectionResultCache cache = additionalFusionSetIds == null ? ProtectionResultCache.get() : null;
+        Map<TaskOutput, String> outputs = NativeAppdomeBuild.outputs(request);
+        String key = null;
+        if (cache != null) {
+            long lookup = System.nanoTime();
+            try {
+                key = cache.key(request, agentWorkspace);
+                if (cache.restore(key, outputs, agentWorkspace)) {
+                    StageTimer.record(recorder, "Result cache restore", lookup, true);
+                    listener.getLogger().println("Appdome result cache hit (" + key.substring(0, 12)
+                            + "), restored the outputs of an identical protection");
+                    AppdomeMetrics.get().recordCacheHit(MetricLabels(agentWorkspace));
+                    RecordSizes(recorder, request, agentWorkspace);
+                    return 0;
+                }
+                StageTimer.record(recorder, "Result cache lookup", lookup, true);
+                listener.getLogger().println("Appdome result cache miss (" + key.substring(0, 12) + ")");
+            } catch (IOException e) {
+                key = null;
+                StageTimer.record(recorder, "Result cache lookup", lookup, false);
+                listener.getLogger().println("Appdome result cache is unavailable (" + e.getMessage() + ")");
+            }
+        }
+
+        int exitCode = ProtectApp(run, listener, engineDirectory, agentWorkspace, env, launcher, request, nativeClient, recorder);
+        if (exitCode == 0) {
+            if (key != null) {
+                try {
+                    cache.store(key, outputs, agentWorkspace);
+                } catch (IOException e) {
+                    listener.getLogger().println("Couldn't store the outputs in the Appdome result cache (" + e.getMessage() + ")");
+                }
+            }
+            RecordSizes(recorder, request, agentWorkspace);
+        }
+        return exitCode;
+    }
+
+    private AppdomeMetrics.Labels MetricLabels(FilePath agentWorkspace) {
+        SignType signType = null;
+        if (platform instanceof AndroidPlatform && ((AndroidPlatform) platform).getCertificateMethod() != null) {
+            signType = ((AndroidPlatform) platform).getCertificateMethod().getSignType();
+        } else if (platform instanceof IosPlatform && ((IosPlatform) platform).getCertificateMethod() != null) {
+            signType = ((IosPlatform) platform).getCertificateMethod().getSignType();
+        }
+        Computer computer = agentWorkspace.toComputer();
+        String agent = computer == null ? null : computer.getName().isEmpty() ? "built-in" : computer.getName();
+        return new AppdomeMetrics.Labels(platform.getPlatformType() == null ? null : platform.getPlatformType().name(),
+                signType == null ? null : signType.name(), platform.getFusionSetId(), agent);
+    }
+
+    /**
+     * Runs the protection with an API key from {@link AppdomeTokenPool}, once {@link AppdomeThrottle}
+     * gave it a slot, and counts it in {@link AppdomeMetrics}.
+     *
+     * @param request the request without an API key
+     */
+    private int ProtectApp(Run<?, ?> run, TaskListener listener, FilePath engineDirectory, FilePath agentWorkspace, EnvVars env, Launcher launcher, AppdomeBuildRequest request, boolean nativeClient, StageRecorder recorder) throws Exception {
+        long queued = System.nanoTime();
+        // Take the key the queue reserved a slot for, see AppdomeQueueThrottle
+        String reserved = AppdomeThrottle.get().getReservation(run.getQueueId());
+        try (AppdomeTokenPool.Lease lease = AppdomeTokenPool.get().lease(getTokenPool(),
+                token -> AppdomeThrottle.key(teamId, token).equals(reserved), listener);
+             AppdomeThrottle.Slot slot = AppdomeThrottle.get().acquire(AppdomeThrottle.key(teamId, lease.getToken()), run.getQueueId(), listener)) {
+            if (slot.hasWaited()) {
+                StageTimer.record(recorder, "Throttled", queued, true);
+            }
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                int exitCode = Execute(listener, engineDirectory, agentWorkspace, env, launcher,
+                        request.withApiKey(lease.getToken().getPlainText()), nativeClient, lease, recorder);
+                succeeded = exitCode == 0;
+                if (succeeded) {
+                    lease.succeeded();
+                }
+                return exitCode;
+            } catch (Exception e) {
+                if (AppdomeTokenPool.isThrottling(e)) {
+                    lease.throttled();
+                }
+                throw e;
+            } finally {
+                AppdomeMetrics.get().record(MetricLabels(agentWorkspace),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), succeeded);
+            }
+        }
+    }
+
+    /**
+     * Records the size of the app and of the protected app, or the sum of the protected apps with
+     * additional fusion sets. Sizes are informational, files that can't be read are left out.
+     */
+    private void RecordSizes(StageRecorder recorder, AppdomeBuildRequest request, FilePath agentWorkspace) throws InterruptedException {
+        try {
+            long protectedAppSize = 0;
+            for (AppdomeBuildRequest fusionSetRequest : FusionSetRequests(request)) {
+                protectedAppSize += agentWorkspace.child(fusionSetRequest.getOutput()).length();
+            }
+            recorder.recordSizes(agentWorkspace.child(request.getAppPath()).length(), protectedAppSize);
+        } catch (IOException e) {
+            // Not worth failing a protected build for
+        }
+    }
+
+    /**
+     * @return the request for each fusion set the app is built with, or the request itself
+     * without additional fusion sets
+     */
+    private List<AppdomeBuildRequest> FusionSetRequests(AppdomeBuildRequest request) {
+        if (additionalFusionSetIds == null) {
+            return List.of(request);
+        }
+        // One upload, built with each fusion set into a directory of its own
+        List<AppdomeBuildRequest> requests = new ArrayList<>();
+        requests.add(request.forFusionSet(request.getFusionSetId()));
+        for (String fusionSetId : additionalFusionSetIds.split(",")) {
+            if (!fusionSetId.trim().isEmpty()) {
+                requests.add(request.forFusionSet(fusionSetId.trim()));
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Runs the engine with the leased API key and tells {@link AppdomeCircuitBreaker} whether
+     * Appdome was available.
+     *
+     * @param request the request with the API key of the lease
+     * @param lease   told when the bash engine printed that Appdome throttled its key, native client
+     *                failures are looked at by the caller
+     */
+    private int Execute(TaskListener listener, FilePath engineDirectory, FilePath agentWorkspace, EnvVars env, Launcher launcher, AppdomeBuildRequest request, boolean nativeClient, AppdomeTokenPool.Lease lease, StageRecorder recorder) throws Exception {
+        if (nativeClient) {
+            try {
+                int exitCode = ExecuteNativeClient(listener, agentWorkspace, env, request, recorder);
+                AppdomeCircuitBreaker.get().succeeded();
+                return exitCode;
+            } catch (Exception e) {
+                if (AppdomeCircuitBreaker.isServiceFailure(e)) {
+                    AppdomeCircuitBreaker.get().failed();
+                }
+                throw e;
+            }
+        }
+        // appdome_api.sh runs all the remote stages in one process, they are told apart by its output
+        EngineOutputParser output = new EngineOutputParser(listener.getLogger(), recorder);
+        int exitCode = -1;
+        try {
+            exitCode = ExecuteAppdomeApi(listener, output, engineDirectory, env, launcher, request);
+            return exitCode;
+        } finally {
+            output.finish(exitCode == 0);
+            if (exitCode != 0 && output.isThrottled()) {
+                lease.throttled();
+            }
+            if (exitCode == 0) {
+                AppdomeCircuitBreaker.get().succeeded();
+            } else if (output.isServiceFailed()) {
+                AppdomeCircuitBreaker.get().failed();
+            }
+        }
+    }
+
+    /**
+     * Launches appdome_api.sh with the arguments of the request, each passed to the script as is.
+     *
+     * @param output  where the engine output goes, stderr is merged into it
+     * @param request the request with the API key
+     */
+    private int ExecuteAppdomeApi(TaskListener listener, OutputStream output, FilePath engineDirectory, EnvVars env, Launcher launcher, AppdomeBuildRequest request) throws Exception {
+        ArgumentListBuilder command = new ArgumentListBuilder(ENGINE_COMMAND)
+                .add(KEY_FLAG.trim()).addMasked(request.getApiKey())
+                .add(request.toArguments());
         // Add the APPDOME_CLIENT_HEADER environment variable to the subprocess
         env.put(APPDOME_HEADER_ENV_NAME, APPDOME_BUILDE2SECURE_VERSION);
         String debugMode = env.get("ACTIONS_STEP_DEBUG");
@@ -143,80 +570,120 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
         }
         listener.getLogger().println("Launching Appdome engine");
         return launcher.launch()
-                .cmds(filteredCommandList)
-                .pwd(scriptPath)
+                .cmds(command)
+                .pwd(engineDirectory)
                 .envs(env)
-                .stdout(listener.getLogger())
-                .stderr(listener.getLogger())
+                .stdout(output)
                 .quiet(true)
                 .join();
     }
 
-    private String ComposeAppdomeCommand(FilePath appdomeWorkspace, FilePath agentWorkspace, EnvVars env, Launcher launcher, TaskListener listener) throws Exception {
+    /**
+     * Runs the build through the native Appdome client on the agent, from the same request the
+     * bash engine would be launched with. Appdome is reached through the proxy the build's
+     * environment names, as curl in the bash engine would, see {@link ProxyEnvironment}. With
+     * additional fusion sets the app is uploaded once and built with each of them in parallel. The
+     * stages are timed on the agent and recorded through a proxy of the recorder. Transient
+     * failures are retried from the stage they happened at.
+     *
+     * @return 0, failures are thrown
+     */
+    private int ExecuteNativeClient(TaskListener listener, FilePath agentWorkspace, EnvVars env, AppdomeBuildRequest request, StageRecorder recorder) throws Exception {
+        AppdomeApiClient client = new AppdomeApiClient(AppdomeGlobalConfiguration.get().getServerUrl(),
+                request.getApiKey(), request.getTeamId(), APPDOME_BUILDE2SECURE_VERSION, ProxyEnvironment.of(env));
+        listener.getLogger().println("Running Appdome build with the native client");
+        VirtualChannel channel = agentWorkspace.getChannel();
+        StageRecorder remoteRecorder = channel == null ? null : channel.export(StageRecorder.class, recorder);
+        return agentWorkspace.act(new NativeAppdomeBuild(client, FusionSetRequests(request), listener, remoteRecorder,
+                AppdomeGlobalConfiguration.get().getTransientRetries()));
+    }
+
+    /**
+     * Resolves the inputs of the build and composes the request the native client would run,
+     * without running it. Remote inputs are downloaded into the given working directory, which the
+     * caller deletes once the request is done with.
+     *
+     * @param appdomeWorkspace the working directory of the build
+     * @param agentWorkspace   the workspace of the build
+     * @param env              environment variables of the build
+     * @param launcher         used to launch commands.
+     * @param listener         the TaskListener to use for logging
+     * @param recorder         where to record the time the input downloads take
+     * @return the request, with paths on the agent that holds the workspace
+     * @throws Exception if an input can't be resolved
+     */
+    @Restricted(NoExternalUse.class)
+    public AppdomeBuildRequest composeBuildRequest(FilePath appdomeWorkspace, FilePath agentWorkspace, EnvVars env, Launcher launcher, TaskListener listener, StageRecorder recorder) throws Exception {
+        InputDownloader downloads = InputDownloader.forBuild(appdomeWorkspace, agentWorkspace, env, listener);
+        PrepareAppdomeBuild(listener, appdomeWorkspace, agentWorkspace, env, launcher, downloads, false, recorder);
+        // The protection runs on past the step, so the key only counts as in flight while it's picked
+        try (AppdomeTokenPool.Lease lease = AppdomeTokenPool.get().lease(getTokenPool(), listener)) {
+            return ComposeBuildRequest(agentWorkspace, env, downloads).withApiKey(lease.getToken().getPlainText());
+        }
+    }
+
+    /**
+     * Composes the request from the configuration of the builder, with its inputs resolved to
+     * paths on the agent.
+     *
+     * @return the request, without the API key, see {@link AppdomeBuildRequest#withApiKey(String)}
+     */
+    private AppdomeBuildRequest ComposeBuildRequest(FilePath agentWorkspace, EnvVars env, InputDownloader downloads) throws Exception {
         //common:
-        StringBuilder command = new StringBuilder("./appdome_api.sh");
-        command.append(KEY_FLAG)
-                .append(this.token).
-                append(FUSION_SET_ID_FLAG)
-                .append(platform.getFusionSetId());
+        AppdomeBuildRequest request = new AppdomeBuildRequest();
+        request.setFusionSetId(platform.getFusionSetId());
 
-        //concatenate the team id if it is not empty:
+        //set the team id if it is not empty:
         if (!(Util.fixEmptyAndTrim(this.teamId) == null)) {
-            command.append(TEAM_ID_FLAG)
-                    .append(this.teamId);
+            request.setTeamId(this.teamId);
         }
 
         String appPath = "";
-        //concatenate the app path if it is not empty:
+        //resolve the app path if it is not empty:
         if (!(Util.fixEmptyAndTrim(this.platform.getAppPath()) == null)) {
-            appPath = DownloadFilesOrContinue(this.platform.getAppPath(), appdomeWorkspace, launcher);
+            appPath = downloads.resolve(this.platform.getAppPath());
         } else {
-            appPath = DownloadFilesOrContinue(UseEnvironmentVariable(env, APP_PATH,
-                    appPath, APP_FLAG.trim().substring(2)), appdomeWorkspace, launcher);
+            appPath = downloads.resolve(UseEnvironmentVariable(env, APP_PATH,
+                    appPath, APP_FLAG.trim().substring(2)));
         }
         switch (platform.getPlatformType()) {
             case ANDROID:
-                ComposeAndroidCommand(command, env, appdomeWorkspace, launcher);
+                ComposeAndroidRequest(request, env, downloads);
                 break;
             case IOS:
-                ComposeIosCommand(command, env, appdomeWorkspace, launcher);
+                ComposeIosRequest(request, env, downloads);
                 break;
             default:
                 return null;
         }
+        downloads.printCacheStatistics();
 
         if (appPath.isEmpty()) {
             throw new RuntimeException("App path was not provided.");
         } else {
-            command.append(APP_FLAG)
-                    .append("\"" + appPath + "\"");
+            request.setAppPath(appPath);
         }
 
         if (this.buildWithLogs != null && this.buildWithLogs) {
-            command.append(BUILD_WITH_LOGS);
+            request.setBuildWithLogs(true);
         }
 
         if (this.buildToTest != null) {
-            command.append(BUILD_TO_TEST)
-                    .append(this.buildToTest.getSelectedVendor());
+            request.setBuildToTestVendor(this.buildToTest.getSelectedVendor());
         }
 
         String basename = new File(appPath).getName();
-        ArgumentListBuilder args;
         FilePath output_location;
 
 
         if (!(Util.fixEmptyAndTrim(this.outputLocation) == null)) {
             setOutputLocation(checkExtension(this.outputLocation, basename, this.isAutoDevPrivateSign, false));
+            // The engine runs from the build's copy of it, relative outputs go to the workspace as with the native client
+            String output = agentWorkspace.child(getOutputLocation()).getRemote();
 
-            command.append(OUTPUT_FLAG)
-                    .append(getOutputLocation());
-            command.append(CERTIFIED_SECURE_FLAG)
-                    .append(getOutputLocation().substring(0, this.outputLocation.lastIndexOf("/") + 1))
-                    .append("Certified_Secure.pdf");
-            command.append(DEOBFUSCATION_OUTPUT)
-                    .append(getOutputLocation().substring(0, this.outputLocation.lastIndexOf("/") + 1))
-                    .append("Deobfuscation_Mapping_Files.zip");
+            request.setOutput(output);
+            request.setCertificateOutput(output.substring(0, output.lastIndexOf("/") + 1) + "Certified_Secure.pdf");
+            request.setDeobfuscationOutput(output.substring(0, output.lastIndexOf("/") + 1) + "Deobfuscation_Mapping_Files.zip");
 
         } else {
 
@@ -227,28 +694,19 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
             setOutputLocation(checkExtension(String.valueOf(output_location + "/"), "Appdome_Protected_" + basename, this.isAutoDevPrivateSign, false));
 
 
-            command.append(OUTPUT_FLAG)
-                    .append(getOutputLocation());
-
-            command.append(CERTIFIED_SECURE_FLAG)
-                    .append(output_location.getRemote())
-                    .append(File.separator)
-                    .append("Certified_Secure.pdf");
-
-            command.append(DEOBFUSCATION_OUTPUT)
-                    .append(output_location.getRemote())
-                    .append(File.separator)
-                    .append("Deobfuscation_Mapping_Files.zip");
+            request.setOutput(getOutputLocation());
+            request.setCertificateOutput(output_location.getRemote() + File.separator + "Certified_Secure.pdf");
+            request.setDeobfuscationOutput(output_location.getRemote() + File.separator + "Deobfuscation_Mapping_Files.zip");
         }
 
         if (!(Util.fixEmptyAndTrim(this.getSecondOutput()) == null)) {
             String secondOutputVar = this.getSecondOutput();
             secondOutputVar = checkExtension(secondOutputVar, new File(secondOutputVar).getName(), false, true);
-            command.append(SECOND_OUTPUT).append(secondOutputVar);
+            request.setSecondOutput(agentWorkspace.child(secondOutputVar).getRemote());
 
         }
 
-        return command.toString();
+        return request;
     }
 
     private String checkExtension(String outputLocation, String basename, Boolean isThisAutoDevPrivate, Boolean isThisSecondOutput) {
@@ -306,62 +764,57 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
     }
 
 
-    private void ComposeIosCommand(StringBuilder command, EnvVars env, FilePath appdomeWorkspace, Launcher launcher) throws Exception {
+    private void ComposeIosRequest(AppdomeBuildRequest request, EnvVars env, InputDownloader downloads) throws Exception {
         IosPlatform iosPlatform = ((IosPlatform) platform);
 
 
         switch (iosPlatform.getCertificateMethod().getSignType()) {
             case AUTO:
                 AutoSign autoSign = (AutoSign) iosPlatform.getCertificateMethod();
-                command.append(SIGN_ON_APPDOME_FLAG)
-                        .append(KEYSTORE_FLAG)
-                        .append(autoSign.getKeystorePath() == null
-                                || autoSign.getKeystorePath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, KEYSTORE_PATH_ENV, autoSign.getKeystorePath(),
-                                KEYSTORE_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(autoSign.getKeystorePath(), appdomeWorkspace, launcher))
-                        .append(KEYSTORE_PASS_FLAG)
-                        .append(autoSign.getKeystorePassword())
-                        .append(PROVISION_PROFILES_FLAG)
-                        .append(autoSign.getProvisioningProfilesPath() == null
-                                || autoSign.getProvisioningProfilesPath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, MOBILE_PROVISION_PROFILE_PATHS_ENV,
-                                autoSign.getProvisioningProfilesPath(),
-                                PROVISION_PROFILES_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(autoSign.getProvisioningProfilesPath(), appdomeWorkspace, launcher))
-                        .append(ENTITLEMENTS_FLAG)
-                        .append(autoSign.getEntitlementsPath() == null
-                                || autoSign.getEntitlementsPath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, ENTITLEMENTS_PATHS_ENV, autoSign.getEntitlementsPath(),
-                                ENTITLEMENTS_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(autoSign.getEntitlementsPath(), appdomeWorkspace, launcher));
+                request.setSignType(SignType.AUTO);
+                request.setKeystorePath(autoSign.getKeystorePath() == null
+                        || autoSign.getKeystorePath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, KEYSTORE_PATH_ENV, autoSign.getKeystorePath(),
+                        KEYSTORE_FLAG.trim().substring(2)))
+                        : downloads.resolve(autoSign.getKeystorePath()));
+                request.setKeystorePassword(Secret.toString(autoSign.getKeystorePassword()));
+                request.setProvisioningProfiles(autoSign.getProvisioningProfilesPath() == null
+                        || autoSign.getProvisioningProfilesPath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, MOBILE_PROVISION_PROFILE_PATHS_ENV,
+                        autoSign.getProvisioningProfilesPath(),
+                        PROVISION_PROFILES_FLAG.trim().substring(2)))
+                        : downloads.resolve(autoSign.getProvisioningProfilesPath()));
+                request.setEntitlements(autoSign.getEntitlementsPath() == null
+                        || autoSign.getEntitlementsPath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, ENTITLEMENTS_PATHS_ENV, autoSign.getEntitlementsPath(),
+                        ENTITLEMENTS_FLAG.trim().substring(2)))
+                        : downloads.resolve(autoSign.getEntitlementsPath()));
                 break;
             case PRIVATE:
                 PrivateSign privateSign = (PrivateSign) iosPlatform.getCertificateMethod();
-                command.append(PRIVATE_SIGN_FLAG)
-                        .append(PROVISION_PROFILES_FLAG)
-                        .append(privateSign.getProvisioningProfilesPath() == null
-                                || privateSign.getProvisioningProfilesPath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, MOBILE_PROVISION_PROFILE_PATHS_ENV,
-                                privateSign.getProvisioningProfilesPath(),
-                                PROVISION_PROFILES_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(privateSign.getProvisioningProfilesPath(), appdomeWorkspace, launcher));
+                request.setSignType(SignType.PRIVATE);
+                request.setProvisioningProfiles(privateSign.getProvisioningProfilesPath() == null
+                        || privateSign.getProvisioningProfilesPath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, MOBILE_PROVISION_PROFILE_PATHS_ENV,
+                        privateSign.getProvisioningProfilesPath(),
+                        PROVISION_PROFILES_FLAG.trim().substring(2)))
+                        : downloads.resolve(privateSign.getProvisioningProfilesPath()));
                 break;
             case AUTODEV:
                 isAutoDevPrivateSign = true;
                 AutoDevSign autoDevSign = (AutoDevSign) iosPlatform.getCertificateMethod();
-                command.append(AUTO_DEV_PRIVATE_SIGN_FLAG)
-                        .append(PROVISION_PROFILES_FLAG).append(autoDevSign.getProvisioningProfilesPath() == null
-                                || autoDevSign.getProvisioningProfilesPath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, MOBILE_PROVISION_PROFILE_PATHS_ENV,
-                                autoDevSign.getProvisioningProfilesPath(),
-                                PROVISION_PROFILES_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(autoDevSign.getProvisioningProfilesPath(), appdomeWorkspace, launcher))
-                        .append(ENTITLEMENTS_FLAG).append(autoDevSign.getEntitlementsPath() == null
-                                || autoDevSign.getEntitlementsPath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, ENTITLEMENTS_PATHS_ENV, autoDevSign.getEntitlementsPath(),
-                                ENTITLEMENTS_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(autoDevSign.getEntitlementsPath(), appdomeWorkspace, launcher));
+                request.setSignType(SignType.AUTODEV);
+                request.setProvisioningProfiles(autoDevSign.getProvisioningProfilesPath() == null
+                        || autoDevSign.getProvisioningProfilesPath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, MOBILE_PROVISION_PROFILE_PATHS_ENV,
+                        autoDevSign.getProvisioningProfilesPath(),
+                        PROVISION_PROFILES_FLAG.trim().substring(2)))
+                        : downloads.resolve(autoDevSign.getProvisioningProfilesPath()));
+                request.setEntitlements(autoDevSign.getEntitlementsPath() == null
+                        || autoDevSign.getEntitlementsPath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, ENTITLEMENTS_PATHS_ENV, autoDevSign.getEntitlementsPath(),
+                        ENTITLEMENTS_FLAG.trim().substring(2)))
+                        : downloads.resolve(autoDevSign.getEntitlementsPath()));
                 break;
             case NONE:
             default:
@@ -369,7 +822,7 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
         }
     }
 
-    private void ComposeAndroidCommand(StringBuilder command, EnvVars env, FilePath appdomeWorkspace, Launcher launcher) throws Exception {
+    private void ComposeAndroidRequest(AppdomeBuildRequest request, EnvVars env, InputDownloader downloads) throws Exception {
         AndroidPlatform androidPlatform = ((AndroidPlatform) platform);
 
         switch (androidPlatform.getCertificateMethod().getSignType()) {
@@ -380,23 +833,18 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
                                 .android.certificate.method.AutoSign)
                                 androidPlatform.getCertificateMethod();
 
-                command.append(SIGN_ON_APPDOME_FLAG)
-                        .append(KEYSTORE_FLAG)
-                        .append(autoSign.getKeystorePath() == null || autoSign.getKeystorePath().isEmpty()
-                                ? DownloadFilesOrContinue(UseEnvironmentVariable(env, KEYSTORE_PATH_ENV, autoSign.getKeystorePath(),
-                                KEYSTORE_FLAG.trim().substring(2)), appdomeWorkspace, launcher)
-                                : DownloadFilesOrContinue(autoSign.getKeystorePath(), appdomeWorkspace, launcher))
-                        .append(KEYSTORE_PASS_FLAG)
-                        .append(autoSign.getKeystorePassword())
-                        .append(KEYSOTRE_ALIAS_FLAG)
-                        .append(autoSign.getKeystoreAlias())
-                        .append(KEY_PASS_FLAG)
-                        .append(autoSign.getKeyPass());
+                request.setSignType(SignType.AUTO);
+                request.setKeystorePath(autoSign.getKeystorePath() == null || autoSign.getKeystorePath().isEmpty()
+                        ? downloads.resolve(UseEnvironmentVariable(env, KEYSTORE_PATH_ENV, autoSign.getKeystorePath(),
+                        KEYSTORE_FLAG.trim().substring(2)))
+                        : downloads.resolve(autoSign.getKeystorePath()));
+                request.setKeystorePassword(Secret.toString(autoSign.getKeystorePassword()));
+                request.setKeystoreAlias(Secret.toString(autoSign.getKeystoreAlias()));
+                request.setKeyPassword(Secret.toString(autoSign.getKeyPass()));
 
                 if (autoSign.getIsEnableGoogleSign()) {
-                    command.append(GOOGLE_PLAY_SIGN_FLAG);
-                    command.append(FINGERPRINT_FLAG)
-                            .append(autoSign.getGoogleSignFingerPrint());
+                    request.setGooglePlaySigning(true);
+                    request.setSigningFingerprint(autoSign.getGoogleSignFingerPrint());
                 }
                 break;
             case PRIVATE:
@@ -405,11 +853,10 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
                         (io.jenkins.plugins.appdome.build.to.secure.platform
                                 .android.certificate.method.PrivateSign)
                                 androidPlatform.getCertificateMethod();
-                command.append(PRIVATE_SIGN_FLAG)
-                        .append(FINGERPRINT_FLAG)
-                        .append(privateSign.getFingerprint());
+                request.setSignType(SignType.PRIVATE);
+                request.setSigningFingerprint(privateSign.getFingerprint());
                 if (privateSign.getGoogleSigning()) {
-                    command.append(GOOGLE_PLAY_SIGN_FLAG);
+                    request.setGooglePlaySigning(true);
                 }
                 break;
             case AUTODEV:
@@ -419,11 +866,10 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
                         (io.jenkins.plugins.appdome.build.to.secure.platform
                                 .android.certificate.method.AutoDevSign)
                                 androidPlatform.getCertificateMethod();
-                command.append(AUTO_DEV_PRIVATE_SIGN_FLAG)
-                        .append(FINGERPRINT_FLAG)
-                        .append(autoDev.getFingerprint());
+                request.setSignType(SignType.AUTODEV);
+                request.setSigningFingerprint(autoDev.getFingerprint());
                 if (autoDev.getGoogleSigning()) {
-                    command.append(GOOGLE_PLAY_SIGN_FLAG);
+                    request.setGooglePlaySigning(true);
                 }
                 break;
             case NONE:
@@ -437,58 +883,38 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
         return urlString.matches(regex);
     }
 
-    private static String DownloadFilesOrContinue(String paths, FilePath agentWorkspace, Launcher launcher) throws Exception {
-        ArgumentListBuilder args;
-        FilePath userFilesPath;
-        StringBuilder pathsToFilesOnAgent = new StringBuilder();
-        String[] splitPathFiles = paths.split(",");
-
-        for (String singlePath : splitPathFiles) {
-            if (!isHttpUrl(singlePath)) {
-                pathsToFilesOnAgent.append(singlePath).append(',');
-            } else {
-
-                try {
-                    userFilesPath = agentWorkspace.child("user_files");
-                    userFilesPath.mkdirs();
-                    pathsToFilesOnAgent.append(DownloadFiles(userFilesPath, launcher, singlePath)).append(',');
-
-                } catch (IOException | InterruptedException e) {
-                    // Handle exceptions
-                    throw new RuntimeException("Could not create or process files in the 'user_files' folder", e);
-                }
+    /**
+     * Provides the Appdome engine checkout to run the build from, in the temporary Appdome
+     * workspace. The engine is copied from the agent's engine cache, falling back to a fresh clone
+     * if the node has no usable cache.
+     *
+     * @param listener         the TaskListener to use for logging
+     * @param appdomeWorkspace the working directory of the build
+     * @param agentWorkspace   the workspace of the build, used to locate the node
+     * @param launcher         used to launch commands.
+     * @return the directory containing appdome_api.sh, or null if the engine couldn't be provided
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the process is interrupted
+     */
+    static FilePath ProvisionAppdomeEngine(TaskListener listener, FilePath appdomeWorkspace, FilePath agentWorkspace, Launcher launcher) throws IOException, InterruptedException {
+        AppdomeEngineCache engineCache = AppdomeEngineCache.forWorkspace(agentWorkspace);
+        if (engineCache != null) {
+            try {
+                return engineCache.provisionInto(launcher, listener, appdomeWorkspace.child(AppdomeEngineCache.ENGINE_DIRECTORY));
+            } catch (IOException e) {
+                listener.getLogger().println("Appdome engine cache is unavailable (" + e.getMessage() + "), cloning the engine instead.");
+                appdomeWorkspace.child(AppdomeEngineCache.ENGINE_DIRECTORY).deleteRecursive();
             }
         }
-        return pathsToFilesOnAgent.substring(0, pathsToFilesOnAgent.length() - 1).trim();
-    }
-
-    private static String DownloadFiles(FilePath userFilesPath, Launcher launcher, String url) throws IOException, InterruptedException {
-        String fileName = getFileNameFromUrl(url);
-        FilePath outputPath = userFilesPath.child(fileName);
-        if (!userFilesPath.exists()) {
-            userFilesPath.mkdirs();
+        if (CloneAppdomeApi(listener, appdomeWorkspace, launcher) == 0) {
+            return appdomeWorkspace.child(AppdomeEngineCache.ENGINE_DIRECTORY);
         }
-        System.out.println("Output Path: " + outputPath.getRemote());
-        ArgumentListBuilder args = new ArgumentListBuilder("curl", "-LO", url);
-        launcher.launch()
-                .cmds(args)
-                .pwd(userFilesPath)
-                .quiet(true)
-                .join();
-
-
-        return outputPath.getRemote();
-    }
-
-    private static String getFileNameFromUrl(String url) {
-        String decodedUrl = url.split("\\?")[0];
-        int lastSlashIndex = decodedUrl.lastIndexOf('/');
-        return decodedUrl.substring(lastSlashIndex + 1);
+        return null;
     }
 
     /**
-     * Clones the Appdome API repository.
-     * https://github.com/Appdome/appdome-api-bash.git
+     * Clones the Appdome API repository configured in {@link AppdomeGlobalConfiguration}.
+     * Default: https://github.com/Appdome/appdome-api-bash.git
      *
      * @param listener         the TaskListener to use for logging
      * @param appdomeWorkspace the working directory of the build
@@ -497,12 +923,13 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
      * @throws IOException          if an I/O error occurs
      * @throws InterruptedException if the process is interrupted
      */
-    private int CloneAppdomeApi(TaskListener listener, FilePath appdomeWorkspace, Launcher launcher) throws IOException, InterruptedException {
+    private static int CloneAppdomeApi(TaskListener listener, FilePath appdomeWorkspace, Launcher launcher) throws IOException, InterruptedException {
         listener
                 .getLogger()
                 .println("Updating Appdome Engine...");
 
-        ArgumentListBuilder gitCloneCommand = new ArgumentListBuilder("git", "clone", "https://github.com/Appdome/appdome-api-bash.git");
+        ArgumentListBuilder gitCloneCommand = new ArgumentListBuilder("git", "clone",
+                AppdomeGlobalConfiguration.get().getEngineRepository(), AppdomeEngineCache.ENGINE_DIRECTORY);
         return launcher.launch()
                 .cmds(gitCloneCommand)
                 .pwd(appdomeWorkspace)
@@ -519,7 +946,7 @@ public class AppdomeBuilder extends Builder implements SimpleBuildStep {
      * @throws InterruptedException if the current thread is interrupted by another thread while
      *                              it is waiting for the workspace deletion to complete.
      */
-    private static void deleteAppdomeWorkspacce(TaskListener listener, FilePath appdomeWorkspace) throws
+    static void deleteAppdomeWorkspacce(TaskListener listener, FilePath appdomeWorkspace) throws
             IOException, InterruptedException {
         listener
                 .getLogger()
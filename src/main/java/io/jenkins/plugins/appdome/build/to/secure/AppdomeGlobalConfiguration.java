@@ -0,0 +1,254 @@
+package io.jenkins.plugins.appdome.build.to.secure;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.engine.AppdomeEngineCache;
+import io.jenkins.plugins.appdome.build.to.secure.preflight.AppdomePreflight;
+import io.jenkins.plugins.appdome.build.to.secure.throttle.AppdomeCircuitBreaker;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Controller wide settings of Appdome Build-2secure.
+ */
+@Extension
+@Symbol("appdome")
+public class AppdomeGlobalConfiguration extends GlobalConfiguration {
+
+    static final int DEFAULT_DOWNLOAD_CACHE_SIZE_MB = 2048;
+    static final int DEFAULT_RESULT_CACHE_SIZE_MB = 4096;
+    static final int DEFAULT_RESULT_CACHE_MAX_AGE_DAYS = 30;
+    static final int DEFAULT_TRANSIENT_RETRIES = 3;
+
+    private String engineRepository;
+    private String engineRevision;
+    private boolean distributeEngineFromController;
+    private boolean prepareAgentsOnline;
+    private boolean downloadCacheEnabled;
+    private int downloadCacheSizeMb = DEFAULT_DOWNLOAD_CACHE_SIZE_MB;
+    private boolean nativeClientEnabled;
+    private String serverUrl;
+    private int transientRetries = DEFAULT_TRANSIENT_RETRIES;
+    private boolean resultCacheEnabled;
+    private int resultCacheSizeMb = DEFAULT_RESULT_CACHE_SIZE_MB;
+    private int resultCacheMaxAgeDays = DEFAULT_RESULT_CACHE_MAX_AGE_DAYS;
+    private int maxConcurrentProtections;
+    private boolean circuitBreakerEnabled;
+    private boolean waitWhileUnavailable;
+    private boolean preflightEnabled;
+
+    public AppdomeGlobalConfiguration() {
+        load();
+    }
+
+    public static AppdomeGlobalConfiguration get() {
+        return ExtensionList.lookupSingleton(AppdomeGlobalConfiguration.class);
+    }
+
+    /**
+     * @return the repository the Appdome engine is fetched from, defaults to appdome-api-bash on GitHub
+     */
+    public String getEngineRepository() {
+        String repository = Util.fixEmptyAndTrim(engineRepository);
+        return repository == null ? AppdomeEngineCache.ENGINE_REPOSITORY : repository;
+    }
+
+    @DataBoundSetter
+    public void setEngineRepository(String engineRepository) {
+        this.engineRepository = Util.fixEmptyAndTrim(engineRepository);
+        save();
+    }
+
+    /**
+     * @return the branch, tag or commit of the engine to use, defaults to the repository's HEAD
+     */
+    public String getEngineRevision() {
+        String revision = Util.fixEmptyAndTrim(engineRevision);
+        return revision == null ? "HEAD" : revision;
+    }
+
+    @DataBoundSetter
+    public void setEngineRevision(String engineRevision) {
+        this.engineRevision = Util.fixEmptyAndTrim(engineRevision);
+        save();
+    }
+
+    public boolean isDistributeEngineFromController() {
+        return distributeEngineFromController;
+    }
+
+    @DataBoundSetter
+    public void setDistributeEngineFromController(boolean distributeEngineFromController) {
+        this.distributeEngineFromController = distributeEngineFromController;
+        save();
+    }
+
+    public boolean isPrepareAgentsOnline() {
+        return prepareAgentsOnline;
+    }
+
+    @DataBoundSetter
+    public void setPrepareAgentsOnline(boolean prepareAgentsOnline) {
+        this.prepareAgentsOnline = prepareAgentsOnline;
+        save();
+    }
+
+    public boolean isDownloadCacheEnabled() {
+        return downloadCacheEnabled;
+    }
+
+    @DataBoundSetter
+    public void setDownloadCacheEnabled(boolean downloadCacheEnabled) {
+        this.downloadCacheEnabled = downloadCacheEnabled;
+        save();
+    }
+
+    /**
+     * @return the size each agent's download cache is trimmed to, in megabytes
+     */
+    public int getDownloadCacheSizeMb() {
+        return downloadCacheSizeMb > 0 ? downloadCacheSizeMb : DEFAULT_DOWNLOAD_CACHE_SIZE_MB;
+    }
+
+    @DataBoundSetter
+    public void setDownloadCacheSizeMb(int downloadCacheSizeMb) {
+        this.downloadCacheSizeMb = downloadCacheSizeMb;
+        save();
+    }
+
+    /**
+     * @return whether builds call the Appdome API from Java instead of running appdome_api.sh
+     */
+    public boolean isNativeClientEnabled() {
+        return nativeClientEnabled;
+    }
+
+    @DataBoundSetter
+    public void setNativeClientEnabled(boolean nativeClientEnabled) {
+        this.nativeClientEnabled = nativeClientEnabled;
+        save();
+    }
+
+    /**
+     * @return the Appdome server the native client talks to, defaults to https://fusion.appdome.com
+     */
+    public String getServerUrl() {
+        String url = Util.fixEmptyAndTrim(serverUrl);
+        return url == null ? AppdomeApiClient.DEFAULT_SERVER_URL : url;
+    }
+
+    @DataBoundSetter
+    public void setServerUrl(String serverUrl) {
+        this.serverUrl = Util.fixEmptyAndTrim(serverUrl);
+        save();
+    }
+
+    /**
+     * @return how many calls of a protection that failed for a transient reason the native client
+     * retries, 0 not to retry
+     */
+    public int getTransientRetries() {
+        return Math.max(0, transientRetries);
+    }
+
+    @DataBoundSetter
+    public void setTransientRetries(int transientRetries) {
+        this.transientRetries = transientRetries;
+        save();
+    }
+
+    /**
+     * @return whether the outputs of protections are kept on the controller and reused for identical inputs
+     */
+    public boolean isResultCacheEnabled() {
+        return resultCacheEnabled;
+    }
+
+    @DataBoundSetter
+    public void setResultCacheEnabled(boolean resultCacheEnabled) {
+        this.resultCacheEnabled = resultCacheEnabled;
+        save();
+    }
+
+    /**
+     * @return the size the result cache is trimmed to, in megabytes
+     */
+    public int getResultCacheSizeMb() {
+        return resultCacheSizeMb > 0 ? resultCacheSizeMb : DEFAULT_RESULT_CACHE_SIZE_MB;
+    }
+
+    @DataBoundSetter
+    public void setResultCacheSizeMb(int resultCacheSizeMb) {
+        this.resultCacheSizeMb = resultCacheSizeMb;
+        save();
+    }
+
+    /**
+     * @return how long a cached result is kept, in days
+     */
+    public int getResultCacheMaxAgeDays() {
+        return resultCacheMaxAgeDays > 0 ? resultCacheMaxAgeDays : DEFAULT_RESULT_CACHE_MAX_AGE_DAYS;
+    }
+
+    @DataBoundSetter
+    public void setResultCacheMaxAgeDays(int resultCacheMaxAgeDays) {
+        this.resultCacheMaxAgeDays = resultCacheMaxAgeDays;
+        save();
+    }
+
+    /**
+     * @return how many protections may run at the same time for a team, or for an API key
+     * without a team, 0 for no limit
+     */
+    public int getMaxConcurrentProtections() {
+        return Math.max(0, maxConcurrentProtections);
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentProtections(int maxConcurrentProtections) {
+        this.maxConcurrentProtections = maxConcurrentProtections;
+        save();
+    }
+
+    /**
+     * @return whether protections are stopped while Appdome is failing, see {@link AppdomeCircuitBreaker}
+     */
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+        save();
+    }
+
+    /**
+     * @return whether protections wait for Appdome to recover, rather than fail, while it is failing
+     */
+    public boolean isWaitWhileUnavailable() {
+        return waitWhileUnavailable;
+    }
+
+    @DataBoundSetter
+    public void setWaitWhileUnavailable(boolean waitWhileUnavailable) {
+        this.waitWhileUnavailable = waitWhileUnavailable;
+        save();
+    }
+
+    /**
+     * @return whether apps are checked on the agent before they are uploaded, see {@link AppdomePreflight}
+     */
+    public boolean isPreflightEnabled() {
+        return preflightEnabled;
+    }
+
+    @DataBoundSetter
+    public void setPreflightEnabled(boolean preflightEnabled) {
+        this.preflightEnabled = preflightEnabled;
+        save();
+    }
+}
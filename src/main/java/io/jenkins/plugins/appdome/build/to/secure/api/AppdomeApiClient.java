@@ -0,0 +1,340 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.download.ProxyEnvironment;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of the Appdome REST API (v1), covering what appdome_api.sh does: upload the app, build it
+ * with a fusion set, apply the context, sign it, and download the protected app, the Certified
+ * Secure certificate and the deobfuscation mapping files.
+ * <p>
+ * Requests go through one {@link HttpClient} per JVM and proxy settings, which keeps connections
+ * to the server open between calls. The server is reached through the proxy of the
+ * {@link ProxyEnvironment} the client is given, only http proxies can be used. Task status is polled with a growing interval instead of a fixed sleep.
+ * The client is serializable so that it can be sent to the agent that holds the files.
+ */
+public class AppdomeApiClient implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String DEFAULT_SERVER_URL = "https://fusion.appdome.com";
+
+    static final String UPLOAD_PATH = "/api/v1/upload";
+    static final String TASKS_PATH = "/api/v1/tasks";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(2);
+    /**
+     * Interval before the second status poll of a task, doubled on each poll up to {@link #POLL_MAX_INTERVAL}.
+     */
+    public static final long POLL_INITIAL_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    public static final long POLL_MAX_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    /**
+     * How long a task may run before waiting for it fails, in milliseconds.
+     */
+    public static final long TASK_TIMEOUT = TimeUnit.MINUTES.toMillis(
+            Long.getLong(AppdomeApiClient.class.getName() + ".taskTimeoutMinutes", 60));
+    private static final int MAX_REDIRECTS = 10;
+
+    private static final ConcurrentMap<ProxyEnvironment, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private final String serverUrl;
+    private final String apiKey;
+    private final String teamId;
+    private final String clientHeader;
+    private final ProxyEnvironment proxies;
+
+    /**
+     * Creates a client that uses the proxy settings of the JVM it runs in.
+     *
+     * @param serverUrl    the Appdome server, e.g. {@link #DEFAULT_SERVER_URL}
+     * @param apiKey       the Appdome API token
+     * @param teamId       the team to work in, or null for the personal workspace
+     * @param clientHeader identifies this client to Appdome, sent as {@code X-Appdome-Client}
+     */
+    public AppdomeApiClient(String serverUrl, String apiKey, @CheckForNull String teamId, String clientHeader) {
+        this(serverUrl, apiKey, teamId, clientHeader, ProxyEnvironment.NONE);
+    }
+
+    /**
+     * @param proxies the proxy settings of the build's environment
+     */
+    public AppdomeApiClient(String serverUrl, String apiKey, @CheckForNull String teamId, String clientHeader, ProxyEnvironment proxies) {
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.apiKey = apiKey;
+        this.teamId = Util.fixEmptyAndTrim(teamId);
+        this.clientHeader = clientHeader;
+        this.proxies = proxies;
+    }
+
+    /**
+     * Checks whether an Appdome server answers, without an API key. Any answer but a 5xx status
+     * will do, the request isn't authorized.
+     *
+     * @return false if the server can't be reached or fails
+     */
+    public static boolean isAvailable(String serverUrl) throws InterruptedException {
+        try {
+            HttpResponse<Void> response = http(ProxyEnvironment.NONE).send(HttpRequest.newBuilder(URI.create(serverUrl))
+                    .timeout(CONNECT_TIMEOUT).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() < 500;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Uploads an app.
+     *
+     * @return the id of the uploaded app
+     */
+    public String upload(File app) throws IOException, InterruptedException {
+        MultipartBody body = new MultipartBody().file("file", app);
+        return string(send(post(UPLOAD_PATH, body)), "id");
+    }
+
+    /**
+     * Starts building an uploaded app with a fusion set.
+     *
+     * @param overrides build overrides, e.g. build logs or the build-to-test vendor
+     * @return the id of the build task
+     */
+    public String build(String appId, String fusionSetId, JSONObject overrides) throws IOException, InterruptedException {
+        MultipartBody body = new MultipartBody()
+                .field("action", "fuse")
+                .field("fusion_set_id", fusionSetId)
+                .field("app_id", appId)
+                .field("overrides", overrides.toString());
+        return string(send(post(TASKS_PATH, body)), "task_id");
+    }
+
+    /**
+     * Starts applying the context (branding and other fusion set settings) to a built app.
+     *
+     * @return the id of the context task
+     */
+    public String context(String buildTaskId) throws IOException, InterruptedException {
+        MultipartBody body = new MultipartBody()
+                .field("action", "context")
+                .field("parent_task_id", buildTaskId);
+        return string(send(post(TASKS_PATH, body)), "task_id");
+    }
+
+    /**
+     * Starts signing an app.
+     *
+     * @param action       "sign" to sign on Appdome, "seal" for private signing or "sign_script" for
+     *                     auto-dev private signing
+     * @param parentTaskId the task whose output is signed
+     * @param overrides    signing overrides, e.g. keystore password and alias
+     * @param files        signing files by form field, e.g. the keystore and provisioning profiles
+     * @return the id of the signing task
+     */
+    public String sign(String action, String parentTaskId, JSONObject overrides, Map<String, List<File>> files) throws IOException, InterruptedException {
+        MultipartBody body = signBody(action, parentTaskId, overrides);
+        files.forEach((name, list) -> list.forEach(file -> body.file(name, file)));
+        return string(send(post(TASKS_PATH, body)), "task_id");
+    }
+
+    /**
+     * Starts signing an app with signing files held in memory, see
+     * {@link #sign(String, String, JSONObject, Map)}.
+     *
+     * @param files the contents of the signing files by form field and file name
+     * @return the id of the signing task
+     */
+    public String signContents(String action, String parentTaskId, JSONObject overrides, Map<String, Map<String, byte[]>> files) throws IOException, InterruptedException {
+        MultipartBody body = signBody(action, parentTaskId, overrides);
+        files.forEach((name, contents) -> contents.forEach((fileName, content) -> body.file(name, fileName, content)));
+        return string(send(post(TASKS_PATH, body)), "task_id");
+    }
+
+    private static MultipartBody signBody(String action, String parentTaskId, JSONObject overrides) {
+        return new MultipartBody()
+                .field("action", action)
+                .field("parent_task_id", parentTaskId)
+                .field("overrides", overrides.toString());
+    }
+
+    /**
+     * @return the status of a task, with at least a "status" of "progress", "completed" or "error"
+     */
+    public JSONObject status(String taskId) throws IOException, InterruptedException {
+        return send(get(TASKS_PATH + "/" + taskId + "/status"));
+    }
+
+    /**
+     * Waits for a task to complete, polling its status at growing intervals.
+     *
+     * @param operation what the task does, for the log
+     * @throws AppdomeApiException if the task failed or didn't complete in time
+     */
+    public void waitForTask(String taskId, String operation, TaskListener listener) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TASK_TIMEOUT;
+        long interval = POLL_INITIAL_INTERVAL;
+        while (true) {
+            JSONObject status = status(taskId);
+            String state = status.optString("status");
+            if ("completed".equals(state)) {
+                listener.getLogger().println(operation + " completed (task " + taskId + ")");
+                return;
+            }
+            if ("error".equals(state)) {
+                throw new AppdomeApiException(0, operation + " failed: " + status.optString("message", status.toString()));
+            }
+            if (System.currentTimeMillis() + interval > deadline) {
+                throw new AppdomeApiException(0, operation + " did not complete within "
+                        + TimeUnit.MILLISECONDS.toMinutes(TASK_TIMEOUT) + " minutes (task " + taskId + ")");
+            }
+            Thread.sleep(interval);
+            interval = Math.min(interval * 2, POLL_MAX_INTERVAL);
+        }
+    }
+
+    /**
+     * Downloads an output of a completed task.
+     *
+     * @return false if the task has no such output
+     */
+    public boolean download(String taskId, TaskOutput output, File target) throws IOException, InterruptedException {
+        URI location = uri(TASKS_PATH + "/" + taskId + "/" + output.getPath());
+        boolean authenticated = true;
+        for (int redirects = 0; ; redirects++) {
+            HttpRequest.Builder request = HttpRequest.newBuilder(location).GET();
+            if (authenticated) {
+                authenticate(request);
+            }
+            HttpResponse<InputStream> response = http(location).send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            int status = response.statusCode();
+            if (status >= 300 && status < 400 && response.headers().firstValue("Location").isPresent()) {
+                if (redirects >= MAX_REDIRECTS) {
+                    response.body().close();
+                    throw new AppdomeApiException(status, "Downloading " + output + " failed: too many redirects");
+                }
+                URI next = location.resolve(response.headers().firstValue("Location").get());
+                // Outputs are served from storage that rejects the Appdome token, which is only sent to its own origin
+                authenticated &= Objects.equals(next.getScheme(), location.getScheme())
+                        && Objects.equals(next.getAuthority(), location.getAuthority());
+                location = next;
+                response.body().close();
+                continue;
+            }
+            if (status == 404) {
+                response.body().close();
+                return false;
+            }
+            if (status < 200 || status >= 300) {
+                throw error(status, response.body());
+            }
+            File parent = target.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+            try (InputStream body = response.body()) {
+                Files.copy(body, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        }
+    }
+
+    private HttpRequest post(String path, MultipartBody body) throws IOException {
+        // Uploads may take long, only JSON requests are bounded
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", body.contentType())
+                .POST(body.publisher());
+        return authenticate(request).build();
+    }
+
+    private HttpRequest get(String path) {
+        return authenticate(HttpRequest.newBuilder(uri(path)).timeout(REQUEST_TIMEOUT).GET()).build();
+    }
+
+    private HttpRequest.Builder authenticate(HttpRequest.Builder request) {
+        return request.header("Authorization", apiKey)
+                .header("X-Appdome-Client", clientHeader);
+    }
+
+    private URI uri(String path) {
+        return URI.create(serverUrl + path + (teamId == null ? "" : "?team_id=" + URLEncoder.encode(teamId, StandardCharsets.UTF_8)));
+    }
+
+    private JSONObject send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = http(request.uri()).send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw error(response.statusCode(), response.body());
+        }
+        try (InputStream body = response.body()) {
+            return JSONObject.fromObject(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new AppdomeApiException(response.statusCode(), "Unexpected response from " + request.uri().getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private static AppdomeApiException error(int status, InputStream body) throws IOException {
+        String text;
+        try (InputStream in = body) {
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+        String message = text;
+        try {
+            JSONObject json = JSONObject.fromObject(text);
+            message = json.optString("message", text);
+        } catch (JSONException e) {
+            // Not JSON, report the body as is
+        }
+        return new AppdomeApiException(status, "HTTP " + status + (message.isEmpty() ? "" : ": " + message));
+    }
+
+    private static String string(JSONObject response, String key) throws AppdomeApiException {
+        String value = response.optString(key, null);
+        if (Util.fixEmptyAndTrim(value) == null) {
+            throw new AppdomeApiException(0, "Unexpected response from Appdome, missing '" + key + "': " + response);
+        }
+        return value;
+    }
+
+    /**
+     * @throws IOException if the URI would be reached through a proxy the http client can't use
+     */
+    private HttpClient http(URI uri) throws IOException {
+        Proxy proxy = proxies.select(uri.toURL());
+        if (proxy != null && proxy.type() == Proxy.Type.SOCKS) {
+            throw new IOException("The SOCKS proxy " + proxy.address() + " can't be used to reach Appdome, only http proxies can");
+        }
+        return http(proxies);
+    }
+
+    static HttpClient http(ProxyEnvironment proxies) {
+        return CLIENTS.computeIfAbsent(proxies, p -> HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .proxy(p.toProxySelector())
+                .build());
+    }
+}
@@ -0,0 +1,29 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import java.io.IOException;
+
+/**
+ * Failure reported by the Appdome API, either as an HTTP error status or as a failed task.
+ */
+public class AppdomeApiException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * @param statusCode the HTTP status of the response, or 0 for a task that failed
+     * @param message    the error reported by Appdome
+     */
+    public AppdomeApiException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return the HTTP status of the response, or 0 for a task that failed
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,378 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilderConstants.*;
+
+/**
+ * Inputs of an Appdome build. The builder composes the request from its configuration, and the
+ * bash engine is launched with the arguments of the request, see {@link #toArguments()}, so that
+ * the native client and the bash engine are driven by the same inputs.
+ */
+public class AppdomeBuildRequest implements Serializable, Cloneable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String apiKey;
+    private String fusionSetId;
+    private String teamId;
+    private String appPath;
+    private String output;
+    private String certificateOutput;
+    private String deobfuscationOutput;
+    private String secondOutput;
+    private SignType signType = SignType.NONE;
+    private String keystorePath;
+    private String keystorePassword;
+    private String keystoreAlias;
+    private String keyPassword;
+    private String signingFingerprint;
+    private boolean googlePlaySigning;
+    private List<String> provisioningProfiles = Collections.emptyList();
+    private List<String> entitlements = Collections.emptyList();
+    private boolean buildWithLogs;
+    private String buildToTestVendor;
+
+    /**
+     * Reads the arguments of an appdome_api.sh command, without the script itself.
+     *
+     * @param arguments the flags and their values
+     * @return the request the arguments describe
+     * @throws IllegalArgumentException if a flag is unknown or misses its value
+     */
+    public static AppdomeBuildRequest parse(List<String> arguments) {
+        AppdomeBuildRequest request = new AppdomeBuildRequest();
+        Iterator<String> it = arguments.iterator();
+        while (it.hasNext()) {
+            String flag = " " + it.next().trim() + " ";
+            if (flag.equals(KEY_FLAG)) {
+                request.apiKey = value(flag, it);
+            } else if (flag.equals(FUSION_SET_ID_FLAG)) {
+                request.fusionSetId = value(flag, it);
+            } else if (flag.equals(TEAM_ID_FLAG)) {
+                request.teamId = value(flag, it);
+            } else if (flag.equals(APP_FLAG)) {
+                request.appPath = value(flag, it);
+            } else if (flag.equals(OUTPUT_FLAG)) {
+                request.output = value(flag, it);
+            } else if (flag.equals(CERTIFIED_SECURE_FLAG)) {
+                request.certificateOutput = value(flag, it);
+            } else if (flag.equals(DEOBFUSCATION_OUTPUT)) {
+                request.deobfuscationOutput = value(flag, it);
+            } else if (flag.equals(SECOND_OUTPUT)) {
+                request.secondOutput = value(flag, it);
+            } else if (flag.equals(SIGN_ON_APPDOME_FLAG)) {
+                request.signType = SignType.AUTO;
+            } else if (flag.equals(PRIVATE_SIGN_FLAG)) {
+                request.signType = SignType.PRIVATE;
+            } else if (flag.equals(AUTO_DEV_PRIVATE_SIGN_FLAG)) {
+                request.signType = SignType.AUTODEV;
+            } else if (flag.equals(KEYSTORE_FLAG)) {
+                request.keystorePath = value(flag, it);
+            } else if (flag.equals(KEYSTORE_PASS_FLAG)) {
+                request.keystorePassword = value(flag, it);
+            } else if (flag.equals(KEYSOTRE_ALIAS_FLAG)) {
+                request.keystoreAlias = value(flag, it);
+            } else if (flag.equals(KEY_PASS_FLAG)) {
+                request.keyPassword = value(flag, it);
+            } else if (flag.equals(FINGERPRINT_FLAG)) {
+                request.signingFingerprint = value(flag, it);
+            } else if (flag.equals(GOOGLE_PLAY_SIGN_FLAG)) {
+                request.googlePlaySigning = true;
+            } else if (flag.equals(PROVISION_PROFILES_FLAG)) {
+                request.provisioningProfiles = list(value(flag, it));
+            } else if (flag.equals(ENTITLEMENTS_FLAG)) {
+                request.entitlements = list(value(flag, it));
+            } else if (flag.equals(BUILD_WITH_LOGS)) {
+                request.buildWithLogs = true;
+            } else if (flag.equals(BUILD_TO_TEST)) {
+                request.buildToTestVendor = value(flag, it);
+            } else {
+                throw new IllegalArgumentException("Unknown Appdome engine argument '" + flag.trim() + "'");
+            }
+        }
+        if (request.apiKey == null || request.fusionSetId == null || request.appPath == null || request.output == null) {
+            throw new IllegalArgumentException("The Appdome engine arguments are missing the token, fusion set, app or output");
+        }
+        return request;
+    }
+
+    /**
+     * @return the arguments of appdome_api.sh for the request, without the script itself and
+     * without the API key, which is passed to the script first
+     */
+    public List<String> toArguments() {
+        List<String> arguments = new ArrayList<>();
+        add(arguments, FUSION_SET_ID_FLAG, fusionSetId);
+        add(arguments, TEAM_ID_FLAG, teamId);
+        switch (signType) {
+            case AUTO:
+                arguments.add(SIGN_ON_APPDOME_FLAG.trim());
+                break;
+            case PRIVATE:
+                arguments.add(PRIVATE_SIGN_FLAG.trim());
+                break;
+            case AUTODEV:
+                arguments.add(AUTO_DEV_PRIVATE_SIGN_FLAG.trim());
+                break;
+            default:
+                break;
+        }
+        add(arguments, KEYSTORE_FLAG, keystorePath);
+        add(arguments, KEYSTORE_PASS_FLAG, keystorePassword);
+        add(arguments, KEYSOTRE_ALIAS_FLAG, keystoreAlias);
+        add(arguments, KEY_PASS_FLAG, keyPassword);
+        if (googlePlaySigning) {
+            arguments.add(GOOGLE_PLAY_SIGN_FLAG.trim());
+        }
+        add(arguments, FINGERPRINT_FLAG, signingFingerprint);
+        if (!provisioningProfiles.isEmpty()) {
+            add(arguments, PROVISION_PROFILES_FLAG, String.join(",", provisioningProfiles));
+        }
+        if (!entitlements.isEmpty()) {
+            add(arguments, ENTITLEMENTS_FLAG, String.join(",", entitlements));
+        }
+        add(arguments, APP_FLAG, appPath);
+        if (buildWithLogs) {
+            arguments.add(BUILD_WITH_LOGS.trim());
+        }
+        add(arguments, BUILD_TO_TEST, buildToTestVendor);
+        add(arguments, OUTPUT_FLAG, output);
+        add(arguments, CERTIFIED_SECURE_FLAG, certificateOutput);
+        add(arguments, DEOBFUSCATION_OUTPUT, deobfuscationOutput);
+        add(arguments, SECOND_OUTPUT, secondOutput);
+        return arguments;
+    }
+
+    private static void add(List<String> arguments, String flag, @CheckForNull String value) {
+        if (value != null) {
+            arguments.add(flag.trim());
+            arguments.add(value);
+        }
+    }
+
+    /**
+     * @return a copy of the request that runs with the given API key
+     */
+    public AppdomeBuildRequest withApiKey(String apiKey) {
+        AppdomeBuildRequest copy = copy();
+        copy.apiKey = apiKey;
+        return copy;
+    }
+
+    /**
+     * @return a copy of the request that builds with another fusion set, with each output in a
+     * directory named after the fusion set, next to where the output would otherwise be
+     */
+    public AppdomeBuildRequest forFusionSet(String fusionSetId) {
+        AppdomeBuildRequest copy = copy();
+        copy.fusionSetId = fusionSetId;
+        copy.output = inDirectory(output, fusionSetId);
+        copy.certificateOutput = inDirectory(certificateOutput, fusionSetId);
+        copy.deobfuscationOutput = inDirectory(deobfuscationOutput, fusionSetId);
+        copy.secondOutput = inDirectory(secondOutput, fusionSetId);
+        return copy;
+    }
+
+    private AppdomeBuildRequest copy() {
+        try {
+            return (AppdomeBuildRequest) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String inDirectory(@CheckForNull String path, String directory) {
+        if (path == null) {
+            return null;
+        }
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        String separator = slash < 0 ? "/" : String.valueOf(path.charAt(slash));
+        return path.substring(0, slash + 1) + directory + separator + path.substring(slash + 1);
+    }
+
+    private static String value(String flag, Iterator<String> it) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("The Appdome engine argument '" + flag.trim() + "' is missing its value");
+        }
+        return it.next();
+    }
+
+    private static List<String> list(String paths) {
+        return Arrays.stream(paths.split(",")).map(String::trim).filter(s -> !s.isEmpty())
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getFusionSetId() {
+        return fusionSetId;
+    }
+
+    public void setFusionSetId(String fusionSetId) {
+        this.fusionSetId = fusionSetId;
+    }
+
+    @CheckForNull
+    public String getTeamId() {
+        return teamId;
+    }
+
+    public void setTeamId(@CheckForNull String teamId) {
+        this.teamId = teamId;
+    }
+
+    public String getAppPath() {
+        return appPath;
+    }
+
+    public void setAppPath(String appPath) {
+        this.appPath = appPath;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    @CheckForNull
+    public String getCertificateOutput() {
+        return certificateOutput;
+    }
+
+    public void setCertificateOutput(@CheckForNull String certificateOutput) {
+        this.certificateOutput = certificateOutput;
+    }
+
+    @CheckForNull
+    public String getDeobfuscationOutput() {
+        return deobfuscationOutput;
+    }
+
+    public void setDeobfuscationOutput(@CheckForNull String deobfuscationOutput) {
+        this.deobfuscationOutput = deobfuscationOutput;
+    }
+
+    @CheckForNull
+    public String getSecondOutput() {
+        return secondOutput;
+    }
+
+    public void setSecondOutput(@CheckForNull String secondOutput) {
+        this.secondOutput = secondOutput;
+    }
+
+    public SignType getSignType() {
+        return signType;
+    }
+
+    public void setSignType(SignType signType) {
+        this.signType = signType;
+    }
+
+    @CheckForNull
+    public String getKeystorePath() {
+        return keystorePath;
+    }
+
+    public void setKeystorePath(@CheckForNull String keystorePath) {
+        this.keystorePath = keystorePath;
+    }
+
+    @CheckForNull
+    public String getKeystorePassword() {
+        return keystorePassword;
+    }
+
+    public void setKeystorePassword(@CheckForNull String keystorePassword) {
+        this.keystorePassword = keystorePassword;
+    }
+
+    @CheckForNull
+    public String getKeystoreAlias() {
+        return keystoreAlias;
+    }
+
+    public void setKeystoreAlias(@CheckForNull String keystoreAlias) {
+        this.keystoreAlias = keystoreAlias;
+    }
+
+    @CheckForNull
+    public String getKeyPassword() {
+        return keyPassword;
+    }
+
+    public void setKeyPassword(@CheckForNull String keyPassword) {
+        this.keyPassword = keyPassword;
+    }
+
+    @CheckForNull
+    public String getSigningFingerprint() {
+        return signingFingerprint;
+    }
+
+    public void setSigningFingerprint(@CheckForNull String signingFingerprint) {
+        this.signingFingerprint = signingFingerprint;
+    }
+
+    public boolean isGooglePlaySigning() {
+        return googlePlaySigning;
+    }
+
+    public void setGooglePlaySigning(boolean googlePlaySigning) {
+        this.googlePlaySigning = googlePlaySigning;
+    }
+
+    public List<String> getProvisioningProfiles() {
+        return provisioningProfiles;
+    }
+
+    /**
+     * @param paths comma separated paths
+     */
+    public void setProvisioningProfiles(String paths) {
+        this.provisioningProfiles = list(paths);
+    }
+
+    public List<String> getEntitlements() {
+        return entitlements;
+    }
+
+    /**
+     * @param paths comma separated paths
+     */
+    public void setEntitlements(String paths) {
+        this.entitlements = list(paths);
+    }
+
+    public boolean isBuildWithLogs() {
+        return buildWithLogs;
+    }
+
+    public void setBuildWithLogs(boolean buildWithLogs) {
+        this.buildWithLogs = buildWithLogs;
+    }
+
+    @CheckForNull
+    public String getBuildToTestVendor() {
+        return buildToTestVendor;
+    }
+
+    public void setBuildToTestVendor(@CheckForNull String buildToTestVendor) {
+        this.buildToTestVendor = buildToTestVendor;
+    }
+}
@@ -0,0 +1,108 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A multipart/form-data request body whose files are streamed from disk as the request is sent,
+ * never buffered in memory. The length of the body is known up front, so the request carries a
+ * {@code Content-Length} instead of being chunked.
+ */
+class MultipartBody {
+
+    private static final String CRLF = "\r\n";
+
+    private final String boundary = "AppdomeBoundary" + UUID.randomUUID().toString().replace("-", "");
+    /**
+     * Parts of the body in order: byte arrays for the framing and fields, files for the content.
+     */
+    private final List<Object> chunks = new ArrayList<>();
+
+    MultipartBody field(String name, String value) {
+        chunks.add(("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + name + "\"" + CRLF + CRLF
+                + value + CRLF).getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    MultipartBody file(String name, File file) {
+        chunks.add(("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + file.getName().replace("\"", "") + "\"" + CRLF
+                + "Content-Type: application/octet-stream" + CRLF + CRLF).getBytes(StandardCharsets.UTF_8));
+        chunks.add(file);
+        chunks.add(CRLF.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Adds a file held in memory.
+     */
+    MultipartBody file(String name, String fileName, byte[] content) {
+        chunks.add(("--" + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName.replace("\"", "") + "\"" + CRLF
+                + "Content-Type: application/octet-stream" + CRLF + CRLF).getBytes(StandardCharsets.UTF_8));
+        chunks.add(content);
+        chunks.add(CRLF.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    HttpRequest.BodyPublisher publisher() throws IOException {
+        List<Object> body = new ArrayList<>(chunks);
+        body.add(("--" + boundary + "--" + CRLF).getBytes(StandardCharsets.UTF_8));
+        long length = 0;
+        for (Object chunk : body) {
+            if (chunk instanceof File) {
+                File file = (File) chunk;
+                if (!file.isFile()) {
+                    throw new IOException("File not found: " + file);
+                }
+                length += file.length();
+            } else {
+                length += ((byte[]) chunk).length;
+            }
+        }
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> open(body)), length);
+    }
+
+    /**
+     * Opens the body, opening each file only once the stream reaches it.
+     */
+    private static InputStream open(List<Object> body) {
+        Iterator<Object> it = body.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Object chunk = it.next();
+                if (chunk instanceof byte[]) {
+                    return new ByteArrayInputStream((byte[]) chunk);
+                }
+                try {
+                    return Files.newInputStream(((File) chunk).toPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+}
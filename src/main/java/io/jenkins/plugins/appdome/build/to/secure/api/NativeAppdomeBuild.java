@@ -0,0 +1,288 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageRecorder;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+import jenkins.MasterToSlaveFileCallable;
+import net.sf.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs an Appdome build through {@link AppdomeApiClient} on the agent that holds the workspace,
+ * so that the app and signing files are streamed to Appdome straight from the agent's disk and the
+ * outputs are written there. Relative paths are resolved against the workspace.
+ * <p>
+ * Several requests for the same app, each with its own fusion set, share one upload and are then
+ * built in parallel.
+ * <p>
+ * Each stage is timed on the agent and recorded through the given {@link StageRecorder}, which is
+ * expected to be a proxy exported from the controller.
+ * <p>
+ * Calls that fail for a transient reason are retried with a {@link RetryBudget} shared by all the
+ * stages and fusion sets, from the upload or task they failed at. Calls that start a task are only
+ * retried when Appdome can't have started it, see {@link RetryBudget#start}.
+ */
+public class NativeAppdomeBuild extends MasterToSlaveFileCallable<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AppdomeApiClient client;
+    private final List<AppdomeBuildRequest> requests;
+    private final TaskListener listener;
+    @CheckForNull
+    private final StageRecorder recorder;
+    private final int retries;
+
+    public NativeAppdomeBuild(AppdomeApiClient client, AppdomeBuildRequest request, TaskListener listener) {
+        this(client, List.of(request), listener, null, 0);
+    }
+
+    /**
+     * @param requests requests for the same app, see {@link AppdomeBuildRequest#forFusionSet}
+     * @param recorder where to record the time each stage takes, or null not to
+     * @param retries  how many calls that failed for a transient reason may be retried
+     */
+    public NativeAppdomeBuild(AppdomeApiClient client, List<AppdomeBuildRequest> requests, TaskListener listener, @CheckForNull StageRecorder recorder, int retries) {
+        this.client = client;
+        this.requests = new ArrayList<>(requests);
+        this.listener = listener;
+        this.recorder = recorder;
+        this.retries = retries;
+    }
+
+    /**
+     * @return 0, failures are thrown
+     */
+    @Override
+    public Integer invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        RetryBudget budget = new RetryBudget(retries);
+        String appId = StageTimer.time(recorder, "Upload", () ->
+                budget.call("Upload", listener, () -> upload(client, requests.get(0), workspace, listener)));
+        if (requests.size() == 1) {
+            protect(client, requests.get(0), appId, workspace, listener, recorder, budget);
+            return 0;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(requests.size(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Appdome fusion sets"));
+        try {
+            List<Future<?>> builds = new ArrayList<>();
+            for (AppdomeBuildRequest request : requests) {
+                StageRecorder fusionSetRecorder = recorder == null ? null
+                        : StageRecorder.scoped(recorder, request.getFusionSetId());
+                builds.add(pool.submit(() -> {
+                    protect(client, request, appId, workspace, listener, fusionSetRecorder, budget);
+                    return null;
+                }));
+            }
+            List<String> failures = new ArrayList<>();
+            List<Throwable> causes = new ArrayList<>();
+            for (int i = 0; i < builds.size(); i++) {
+                try {
+                    builds.get(i).get();
+                } catch (ExecutionException e) {
+                    failures.add(requests.get(i).getFusionSetId() + ": " + e.getCause().getMessage());
+                    causes.add(e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                AppdomeApiException failure = new AppdomeApiException(0, "Building with " + failures.size() + " of "
+                        + requests.size() + " fusion sets failed: " + String.join("; ", failures));
+                // Kept so that a throttled key can be told apart
+                causes.forEach(failure::addSuppressed);
+                throw failure;
+            }
+            return 0;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds an uploaded app, applies the context, signs it and downloads the outputs. A task is
+     * started once, waiting for it is retried on its own.
+     */
+    private static void protect(AppdomeApiClient client, AppdomeBuildRequest request, String appId, File workspace, TaskListener listener, @CheckForNull StageRecorder recorder, RetryBudget budget) throws IOException, InterruptedException {
+        String buildTask = StageTimer.time(recorder, "Build", () -> {
+            String taskId = budget.start("Build", listener, () -> build(client, request, appId, listener));
+            return await(client, taskId, "Build", listener, budget);
+        });
+
+        String contextTask = StageTimer.time(recorder, "Context", () -> {
+            String taskId = budget.start("Context", listener, () -> client.context(buildTask));
+            return await(client, taskId, "Context", listener, budget);
+        });
+
+        String outputTask = request.getSignType() == SignType.NONE ? contextTask
+                : StageTimer.time(recorder, "Signing", () -> {
+                    String taskId = budget.start("Signing", listener, () -> client.sign(signAction(request.getSignType()),
+                            contextTask, signOverrides(request), signFiles(request, workspace)));
+                    return await(client, taskId, "Signing", listener, budget);
+                });
+
+        StageTimer.time(recorder, "Output download", () -> budget.call("Output download", listener, () -> {
+            downloadOutputs(client, outputTask, outputs(request), workspace, listener);
+            return null;
+        }));
+    }
+
+    private static String await(AppdomeApiClient client, String taskId, String operation, TaskListener listener, RetryBudget budget) throws IOException, InterruptedException {
+        budget.call(operation + " status", listener, () -> {
+            client.waitForTask(taskId, operation, listener);
+            return null;
+        });
+        return taskId;
+    }
+
+    /**
+     * Uploads the app of a request and starts building it.
+     *
+     * @return the id of the build task
+     */
+    public static String submit(AppdomeApiClient client, AppdomeBuildRequest request, File workspace, TaskListener listener) throws IOException, InterruptedException {
+        return build(client, request, upload(client, request, workspace, listener), listener);
+    }
+
+    private static String upload(AppdomeApiClient client, AppdomeBuildRequest request, File workspace, TaskListener listener) throws IOException, InterruptedException {
+        File app = resolve(workspace, request.getAppPath());
+        listener.getLogger().println("Uploading " + app.getName() + " to Appdome");
+        return client.upload(app);
+    }
+
+    private static String build(AppdomeApiClient client, AppdomeBuildRequest request, String appId, TaskListener listener) throws IOException, InterruptedException {
+        String taskId = client.build(appId, request.getFusionSetId(), buildOverrides(request));
+        listener.getLogger().println("Building with fusion set " + request.getFusionSetId() + " (task " + taskId + ")");
+        return taskId;
+    }
+
+    /**
+     * @return the files to download for a request, by output; outputs the request doesn't ask for are left out
+     */
+    public static Map<TaskOutput, String> outputs(AppdomeBuildRequest request) {
+        Map<TaskOutput, String> outputs = new LinkedHashMap<>();
+        outputs.put(TaskOutput.PROTECTED_APP, request.getOutput());
+        if (request.getCertificateOutput() != null) {
+            outputs.put(TaskOutput.CERTIFIED_SECURE, request.getCertificateOutput());
+        }
+        if (request.getDeobfuscationOutput() != null) {
+            outputs.put(TaskOutput.DEOBFUSCATION_SCRIPT, request.getDeobfuscationOutput());
+        }
+        if (request.getSecondOutput() != null) {
+            outputs.put(TaskOutput.SECOND_OUTPUT, request.getSecondOutput());
+        }
+        return outputs;
+    }
+
+    /**
+     * Downloads the outputs of a completed task. The protected app and the second output are
+     * required, the certificate and the deobfuscation mapping files only when Appdome has them.
+     *
+     * @param outputs the files to download, relative paths are resolved against the workspace
+     */
+    public static void downloadOutputs(AppdomeApiClient client, String taskId, Map<TaskOutput, String> outputs, File workspace, TaskListener listener) throws IOException, InterruptedException {
+        for (Map.Entry<TaskOutput, String> output : outputs.entrySet()) {
+            File target = resolve(workspace, output.getValue());
+            boolean required = output.getKey() == TaskOutput.PROTECTED_APP || output.getKey() == TaskOutput.SECOND_OUTPUT;
+            if (client.download(taskId, output.getKey(), target)) {
+                listener.getLogger().println("Saved " + target);
+            } else if (required) {
+                throw new AppdomeApiException(404, "Task " + taskId + " has no " + output.getKey() + " to download");
+            } else {
+                listener.getLogger().println("No " + output.getKey() + " for task " + taskId);
+            }
+        }
+    }
+
+    static JSONObject buildOverrides(AppdomeBuildRequest request) {
+        JSONObject overrides = new JSONObject();
+        if (request.isBuildWithLogs()) {
+            overrides.put("extended_logs", true);
+        }
+        if (request.getBuildToTestVendor() != null) {
+            overrides.put("build_to_test_vendor", request.getBuildToTestVendor());
+        }
+        return overrides;
+    }
+
+    /**
+     * @return the signing overrides of a request, including keystore passwords
+     */
+    public static JSONObject signOverrides(AppdomeBuildRequest request) {
+        JSONObject overrides = new JSONObject();
+        if (request.getSignType() == SignType.AUTO) {
+            putIfSet(overrides, "signing_keystore_password", request.getKeystorePassword());
+            putIfSet(overrides, "signing_keystore_alias", request.getKeystoreAlias());
+            putIfSet(overrides, "signing_keystore_key_password", request.getKeyPassword());
+        }
+        putIfSet(overrides, "signing_sha1_fingerprint", request.getSigningFingerprint());
+        if (request.isGooglePlaySigning()) {
+            overrides.put("google_play_signing", true);
+        }
+        return overrides;
+    }
+
+    /**
+     * @param base relative paths are resolved against it
+     * @return the signing files of a request by form field
+     */
+    public static Map<String, List<File>> signFiles(AppdomeBuildRequest request, File base) {
+        Map<String, List<File>> files = new LinkedHashMap<>();
+        if (request.getSignType() == SignType.AUTO && request.getKeystorePath() != null) {
+            files.put("signing_keystore", resolve(base, List.of(request.getKeystorePath())));
+        }
+        if (!request.getProvisioningProfiles().isEmpty()) {
+            files.put("provisioning_profile", resolve(base, request.getProvisioningProfiles()));
+        }
+        if (!request.getEntitlements().isEmpty()) {
+            files.put("entitlements", resolve(base, request.getEntitlements()));
+        }
+        return files;
+    }
+
+    public static String signAction(SignType signType) {
+        switch (signType) {
+            case AUTO:
+                return "sign";
+            case PRIVATE:
+                return "seal";
+            case AUTODEV:
+                return "sign_script";
+            default:
+                throw new IllegalArgumentException("No signing action for " + signType);
+        }
+    }
+
+    private static void putIfSet(JSONObject json, String key, @CheckForNull String value) {
+        if (value != null && !value.isEmpty()) {
+            json.put(key, value);
+        }
+    }
+
+    private static List<File> resolve(File workspace, List<String> paths) {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            files.add(resolve(workspace, path));
+        }
+        return files;
+    }
+
+    private static File resolve(File workspace, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(workspace, path);
+    }
+}
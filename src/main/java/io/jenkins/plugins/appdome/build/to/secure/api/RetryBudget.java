@@ -0,0 +1,132 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Retries the calls of one protection that fail for a transient reason: the connection failed or
+ * timed out, or Appdome answered with a 408, 429 or a 5xx status. Calls are retried after an
+ * exponential backoff with jitter, until the retries of the protection are used up. Each call is
+ * one step of a stage, e.g. starting a task or waiting for it, so that a retry picks up with the
+ * ids of the steps that succeeded rather than starting over.
+ * <p>
+ * Calls that start a task aren't idempotent, each one that reaches Appdome starts a task. They are
+ * only retried when Appdome can't have started it, see {@link #start}. Failed tasks aren't
+ * retried, Appdome reported why they failed.
+ */
+public final class RetryBudget {
+
+    static final long BASE_DELAY_MILLIS = Long.getLong(RetryBudget.class.getName() + ".baseDelayMillis", 2000);
+    static final long MAX_DELAY_MILLIS = Long.getLong(RetryBudget.class.getName() + ".maxDelayMillis", 60000);
+
+    private static final Set<Integer> TRANSIENT_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+    /**
+     * Statuses with which Appdome turns a request away before acting on it.
+     */
+    private static final Set<Integer> REJECTED_STATUSES = Set.of(429, 503);
+
+    private final AtomicInteger remaining;
+    private final long baseDelayMillis;
+
+    /**
+     * @param retries how many calls of the protection may be retried, all stages together
+     */
+    public RetryBudget(int retries) {
+        this(retries, BASE_DELAY_MILLIS);
+    }
+
+    RetryBudget(int retries, long baseDelayMillis) {
+        this.remaining = new AtomicInteger(Math.max(0, retries));
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    /**
+     * @return the retries left
+     */
+    public int getRemaining() {
+        return remaining.get();
+    }
+
+    /**
+     * Makes an idempotent call, e.g. an upload, a status poll or a download, retrying it while it
+     * fails for a transient reason and retries are left.
+     *
+     * @param operation what the call does, for the log
+     * @return what the call returned
+     */
+    public <T> T call(String operation, TaskListener listener, StageTimer.TimedStage<T> call) throws IOException, InterruptedException {
+        return call(operation, listener, call, RetryBudget::isTransient);
+    }
+
+    /**
+     * Makes a call that starts a task, retrying it only while it failed before reaching Appdome or
+     * was turned away, see {@link #isRejected}. A call that timed out or failed otherwise may have
+     * started the task, which a retry would start a second time.
+     *
+     * @param operation what the call does, for the log
+     * @return what the call returned
+     */
+    public <T> T start(String operation, TaskListener listener, StageTimer.TimedStage<T> call) throws IOException, InterruptedException {
+        return call(operation, listener, call, RetryBudget::isRejected);
+    }
+
+    private <T> T call(String operation, TaskListener listener, StageTimer.TimedStage<T> call, Predicate<IOException> retryable) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.run();
+            } catch (IOException e) {
+                if (!retryable.test(e) || remaining.getAndUpdate(left -> Math.max(0, left - 1)) == 0) {
+                    throw e;
+                }
+                long delay = delay(attempt);
+                listener.getLogger().println(operation + " failed (" + e.getMessage() + "), retrying in "
+                        + Math.max(1, delay / 1000) + " s, " + remaining.get() + " retries left");
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @return whether a call that failed this way may succeed if made again
+     */
+    public static boolean isTransient(IOException failure) {
+        if (failure instanceof AppdomeApiException) {
+            return TRANSIENT_STATUSES.contains(((AppdomeApiException) failure).getStatusCode());
+        }
+        return failure instanceof SocketException || failure instanceof SocketTimeoutException
+                || failure instanceof HttpTimeoutException || failure instanceof EOFException;
+    }
+
+    /**
+     * @return whether a call that failed this way can't have been acted on: the connection
+     * couldn't be made, or Appdome answered with a 429 or 503 status
+     */
+    public static boolean isRejected(IOException failure) {
+        if (failure instanceof AppdomeApiException) {
+            return REJECTED_STATUSES.contains(((AppdomeApiException) failure).getStatusCode());
+        }
+        return failure instanceof ConnectException || failure instanceof NoRouteToHostException
+                || failure instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * @return the backoff before the given retry of a call, between half and all of the exponential delay
+     */
+    long delay(int attempt) {
+        long exponential = Math.min(MAX_DELAY_MILLIS, baseDelayMillis << Math.min(attempt, 20));
+        return exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+    }
+}
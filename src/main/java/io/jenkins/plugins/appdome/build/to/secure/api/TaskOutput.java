@@ -0,0 +1,21 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+/**
+ * Files a completed Appdome task can be downloaded as, relative to the task's URL.
+ */
+public enum TaskOutput {
+    PROTECTED_APP("output"),
+    CERTIFIED_SECURE("certificate"),
+    DEOBFUSCATION_SCRIPT("output/deobfuscation_script"),
+    SECOND_OUTPUT("output/second_output");
+
+    private final String path;
+
+    TaskOutput(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,243 @@
+package io.jenkins.plugins.appdome.build.to.secure.cache;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.Sha256;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import io.jenkins.plugins.appdome.build.to.secure.api.NativeAppdomeBuild;
+import io.jenkins.plugins.appdome.build.to.secure.api.TaskOutput;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller side cache of protection results, so that protecting byte-identical inputs with the
+ * same configuration again restores the protected app, Certified_Secure.pdf and the deobfuscation
+ * mapping files without running the engine.
+ * <p>
+ * Entries live in {@code JENKINS_HOME/appdome-result-cache/<key>/}, one file per output. The key
+ * is a SHA-256 over the app, the fusion set, the team, the sign type, the signing materials and
+ * the other settings that change the result. Entries older than the maximum age are removed, and
+ * the least recently used ones once the cache grows above its size limit.
+ */
+public class ProtectionResultCache {
+
+    public static final String CACHE_DIRECTORY = "appdome-result-cache";
+
+    private static final String KEY_VERSION = "1";
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+    private static final long STALE_TEMPORARY_AGE = TimeUnit.DAYS.toMillis(1);
+    private static final Object LOCK = new Object();
+
+    private final File root;
+    private final long maxSize;
+    private final long maxAge;
+
+    ProtectionResultCache(File root, long maxSize, long maxAge) {
+        this.root = root;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the cache configured in {@link AppdomeGlobalConfiguration}, or null if it is disabled
+     */
+    @CheckForNull
+    public static ProtectionResultCache get() {
+        AppdomeGlobalConfiguration configuration = AppdomeGlobalConfiguration.get();
+        if (!configuration.isResultCacheEnabled()) {
+            return null;
+        }
+        return new ProtectionResultCache(new File(Jenkins.get().getRootDir(), CACHE_DIRECTORY),
+                configuration.getResultCacheSizeMb() * 1024L * 1024L,
+                TimeUnit.DAYS.toMillis(configuration.getResultCacheMaxAgeDays()));
+    }
+
+    /**
+     * Computes the key of a request. The app and the signing files are hashed on the agent.
+     *
+     * @param workspace relative paths of the request are resolved against it
+     * @return the key, as hex
+     */
+    public String key(AppdomeBuildRequest request, FilePath workspace) throws IOException, InterruptedException {
+        List<String> paths = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        paths.add(request.getAppPath());
+        names.add("app");
+        for (Map.Entry<String, List<File>> field : NativeAppdomeBuild.signFiles(request, new File(workspace.getRemote())).entrySet()) {
+            for (File file : field.getValue()) {
+                paths.add(file.getPath());
+                names.add(field.getKey());
+            }
+        }
+        List<String> digests = workspace.act(new HashFiles(paths));
+
+        StringBuilder key = new StringBuilder("version=").append(KEY_VERSION);
+        for (int i = 0; i < names.size(); i++) {
+            key.append('\n').append(names.get(i)).append('=').append(digests.get(i));
+        }
+        key.append("\nfusionSet=").append(request.getFusionSetId())
+                .append("\nteam=").append(Util.fixNull(request.getTeamId()))
+                .append("\nsignType=").append(request.getSignType())
+                .append("\nsignOverrides=").append(Sha256.hex(NativeAppdomeBuild.signOverrides(request).toString()))
+                .append("\nbuildWithLogs=").append(request.isBuildWithLogs())
+                .append("\nbuildToTest=").append(Util.fixNull(request.getBuildToTestVendor()))
+                .append("\nsecondOutput=").append(request.getSecondOutput() != null)
+                .append("\noutputType=").append(extension(request.getOutput()));
+        return Sha256.hex(key.toString());
+    }
+
+    /**
+     * Copies the outputs of a cached protection to where the request expects them.
+     *
+     * @param outputs where to place each output, relative paths are resolved against the base
+     * @return false if the cache has no protection for the key
+     */
+    public boolean restore(String key, Map<TaskOutput, String> outputs, FilePath base) throws IOException, InterruptedException {
+        File entry = new File(root, key);
+        synchronized (LOCK) {
+            if (!entry.isDirectory()) {
+                return false;
+            }
+            for (TaskOutput output : outputs.keySet()) {
+                if (isRequired(output) && !new File(entry, output.name()).isFile()) {
+                    return false;
+                }
+            }
+            // Last use of an entry, which the eviction order is based on
+            entry.setLastModified(System.currentTimeMillis());
+        }
+        for (Map.Entry<TaskOutput, String> output : outputs.entrySet()) {
+            File cached = new File(entry, output.getKey().name());
+            if (cached.isFile()) {
+                FilePath target = base.child(output.getValue());
+                FilePath parent = target.getParent();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                new FilePath(cached).copyTo(target);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the outputs of a completed protection, then trims the cache.
+     *
+     * @param outputs where each output was written, relative paths are resolved against the base
+     */
+    public void store(String key, Map<TaskOutput, String> outputs, FilePath base) throws IOException, InterruptedException {
+        File entry = new File(root, key);
+        if (entry.isDirectory()) {
+            return;
+        }
+        File temporary = new File(root, TEMPORARY_PREFIX + UUID.randomUUID());
+        Files.createDirectories(temporary.toPath());
+        try {
+            for (Map.Entry<TaskOutput, String> output : outputs.entrySet()) {
+                FilePath source = base.child(output.getValue());
+                if (source.exists()) {
+                    source.copyTo(new FilePath(new File(temporary, output.getKey().name())));
+                }
+            }
+            synchronized (LOCK) {
+                if (!entry.exists()) {
+                    Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                evict(entry);
+            }
+        } finally {
+            Util.deleteRecursive(temporary);
+        }
+    }
+
+    /**
+     * Removes entries older than the maximum age, then the least recently used ones until the
+     * cache fits its size limit. The entry that was just stored is always kept.
+     */
+    private void evict(File keep) throws IOException {
+        File[] entries = root.listFiles(File::isDirectory);
+        if (entries == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<File> kept = new ArrayList<>();
+        long size = 0;
+        for (File entry : entries) {
+            if (entry.getName().startsWith(TEMPORARY_PREFIX)) {
+                if (entry.lastModified() < now - STALE_TEMPORARY_AGE) {
+                    Util.deleteRecursive(entry);
+                }
+            } else if (!entry.equals(keep) && entry.lastModified() < now - maxAge) {
+                Util.deleteRecursive(entry);
+            } else {
+                kept.add(entry);
+                size += size(entry);
+            }
+        }
+        kept.sort(Comparator.comparingLong(File::lastModified));
+        for (File entry : kept) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (entry.equals(keep)) {
+                continue;
+            }
+            size -= size(entry);
+            Util.deleteRecursive(entry);
+        }
+    }
+
+    private static long size(File entry) {
+        File[] files = entry.listFiles(File::isFile);
+        return files == null ? 0 : Arrays.stream(files).mapToLong(File::length).sum();
+    }
+
+    private static boolean isRequired(TaskOutput output) {
+        return output == TaskOutput.PROTECTED_APP || output == TaskOutput.SECOND_OUTPUT;
+    }
+
+    private static String extension(String path) {
+        String name = new File(path).getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+
+    /**
+     * Hashes files on the agent, relative paths are resolved against the workspace.
+     */
+    private static final class HashFiles extends MasterToSlaveFileCallable<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+
+        HashFiles(List<String> paths) {
+            this.paths = new ArrayList<>(paths);
+        }
+
+        @Override
+        public List<String> invoke(File workspace, VirtualChannel channel) throws IOException {
+            List<String> digests = new ArrayList<>();
+            for (String path : paths) {
+                File file = new File(path).isAbsolute() ? new File(path) : new File(workspace, path);
+                digests.add(Sha256.hex(file));
+            }
+            return digests;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import io.jenkins.plugins.appdome.build.to.secure.Sha256;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content addressed cache of downloaded files, kept on the agent and shared by all of its builds.
+ * <pre>
+ * appdome-download-cache/
+ *     objects/&lt;sha256&gt;                 downloaded content, named after its SHA-256
+ *     entries/&lt;sha256 of url&gt;.properties  validators (ETag, Last-Modified), file name and object of a URL
+ *     tmp/                               downloads in progress, and interrupted ones to resume
+ * </pre>
+ * A cached URL is revalidated with a conditional request; on 304 the cached object is hard linked
+ * (or copied, where links aren't supported) into the build, otherwise the new content is stored.
+ * The least recently used objects are evicted once the cache grows above its size limit. Content
+ * that doesn't match the digest the URL expects (see {@link ExpectedDigest}) is never cached.
+ * <p>
+ * Runs on the agent.
+ */
+public class DownloadCache {
+
+    public static final String CACHE_DIRECTORY = "appdome-download-cache";
+
+    private static final String URL_KEY = "url";
+    private static final String ETAG_KEY = "etag";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+    private static final String SHA256_KEY = "sha256";
+    private static final String FILE_NAME_KEY = "fileName";
+
+    /**
+     * Downloads of one agent run concurrently, the cache metadata is updated by one at a time.
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+    /**
+     * Partial files of the URLs being downloaded on this agent.
+     */
+    private static final Set<String> ACTIVE_PARTS = ConcurrentHashMap.newKeySet();
+    /**
+     * Partial files that weren't resumed for this long are removed.
+     */
+    private static final long STALE_PART_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final File objects;
+    private final File entries;
+    private final File tmp;
+    private final long maxSize;
+    private final Object lock;
+
+    public DownloadCache(File root, long maxSize) {
+        this.objects = new File(root, "objects");
+        this.entries = new File(root, "entries");
+        this.tmp = new File(root, "tmp");
+        this.maxSize = maxSize;
+        this.lock = LOCKS.computeIfAbsent(root.getAbsolutePath(), k -> new Object());
+    }
+
+    /**
+     * Downloads a URL into a directory through the cache.
+     *
+     * @param url            the file to download
+     * @param proxies        the proxy settings to request the file with
+     * @param expectedDigest the digest the file must have, or null
+     * @param directory      the directory to place the file in
+     * @param start     {@link System#nanoTime()} at the start of the download
+     * @return the downloaded file, marked as cache hit or miss
+     */
+    DownloadResult download(String url, ProxyEnvironment proxies, @CheckForNull ExpectedDigest expectedDigest, File directory, long start) throws IOException, InterruptedException {
+        Files.createDirectories(objects.toPath());
+        Files.createDirectories(entries.toPath());
+        Files.createDirectories(tmp.toPath());
+
+        Properties entry = readEntry(url);
+        Map<String, String> validators = new HashMap<>();
+        if (entry != null) {
+            if (entry.getProperty(ETAG_KEY) != null) {
+                validators.put("If-None-Match", entry.getProperty(ETAG_KEY));
+            }
+            if (entry.getProperty(LAST_MODIFIED_KEY) != null) {
+                validators.put("If-Modified-Since", entry.getProperty(LAST_MODIFIED_KEY));
+            }
+        }
+
+        HttpURLConnection connection = RemoteFileDownloader.connect(url, proxies, validators);
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                synchronized (lock) {
+                    File object = object(entry.getProperty(SHA256_KEY));
+                    if (object.isFile()) {
+                        if (expectedDigest != null) {
+                            // Objects are named after their SHA-256, other digests are computed from the object
+                            expectedDigest.verify(url, expectedDigest.isSha256()
+                                    ? entry.getProperty(SHA256_KEY) : Util.toHexString(digest(object, expectedDigest.newDigest())));
+                        }
+                        File target = link(object, new File(directory, entry.getProperty(FILE_NAME_KEY)));
+                        touch(object);
+                        return new DownloadResult(target.getAbsolutePath(), target.length(), System.nanoTime() - start, true)
+                                .verified(expectedDigest);
+                    }
+                }
+                // Evicted since it was looked up
+                connection.disconnect();
+                connection = RemoteFileDownloader.connect(url, proxies, new HashMap<>());
+            }
+
+            String fileName = RemoteFileDownloader.fileName(connection, url);
+            String etag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            // A partial file left by an interrupted download of the URL is resumed, unless
+            // another build on this agent is downloading the URL right now
+            File resumablePart = new File(tmp, Sha256.hex(url) + ".part");
+            boolean owner = ACTIVE_PARTS.add(resumablePart.getAbsolutePath());
+            File part = owner ? resumablePart : File.createTempFile("download", ".part", tmp);
+            RangedDownload download = new RangedDownload(url, proxies, connection, part);
+            try {
+                MessageDigest sha256 = Sha256.newDigest();
+                MessageDigest expected = expectedDigest == null || expectedDigest.isSha256() ? null : expectedDigest.newDigest();
+                long bytes = expected == null ? download.transfer(connection, sha256) : download.transfer(connection, sha256, expected);
+                String hash = Util.toHexString(sha256.digest());
+                if (expectedDigest != null) {
+                    try {
+                        expectedDigest.verify(url, expected == null ? hash : Util.toHexString(expected.digest()));
+                    } catch (IOException e) {
+                        // Neither cached nor resumed
+                        download.delete();
+                        throw e;
+                    }
+                }
+                synchronized (lock) {
+                    File object = object(hash);
+                    if (!object.isFile()) {
+                        Files.move(part.toPath(), object.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    download.delete();
+                    touch(object);
+                    writeEntry(url, etag, lastModified, hash, fileName);
+                    File target = link(object, new File(directory, fileName));
+                    evict(object);
+                    return new DownloadResult(target.getAbsolutePath(), bytes, System.nanoTime() - start, false)
+                            .verified(expectedDigest);
+                }
+            } finally {
+                if (owner) {
+                    // Kept for the next download of the URL if this one failed
+                    ACTIVE_PARTS.remove(resumablePart.getAbsolutePath());
+                } else {
+                    download.delete();
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Removes the least recently used objects until the cache fits its size limit. The object
+     * that was just stored is always kept.
+     */
+    private void evict(File keep) throws IOException {
+        File[] cached = objects.listFiles(File::isFile);
+        if (cached == null) {
+            return;
+        }
+        long size = 0;
+        for (File object : cached) {
+            size += object.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Arrays.sort(cached, Comparator.comparingLong(File::lastModified));
+        for (File object : cached) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (object.equals(keep)) {
+                continue;
+            }
+            size -= object.length();
+            Files.deleteIfExists(object.toPath());
+        }
+        File[] parts = tmp.listFiles(file -> file.lastModified() < System.currentTimeMillis() - STALE_PART_AGE);
+        if (parts != null) {
+            for (File part : parts) {
+                Files.deleteIfExists(part.toPath());
+            }
+        }
+        File[] cachedEntries = entries.listFiles();
+        if (cachedEntries != null) {
+            for (File entryFile : cachedEntries) {
+                Properties entry = load(entryFile);
+                if (entry == null || !object(entry.getProperty(SHA256_KEY, "")).isFile()) {
+                    Files.deleteIfExists(entryFile.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Places a cached object at the target location, hard linked when the file system allows it.
+     */
+    private static File link(File object, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), object.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(object.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    private static void touch(File object) {
+        // Last use of an object, which the eviction order is based on
+        object.setLastModified(System.currentTimeMillis());
+    }
+
+    private File object(String sha256) {
+        return new File(objects, sha256);
+    }
+
+    private File entryFile(String url) {
+        return new File(entries, Sha256.hex(url) + ".properties");
+    }
+
+    @CheckForNull
+    private Properties readEntry(String url) throws IOException {
+        Properties entry = load(entryFile(url));
+        if (entry == null || !url.equals(entry.getProperty(URL_KEY)) || entry.getProperty(SHA256_KEY) == null
+                || entry.getProperty(FILE_NAME_KEY) == null) {
+            return null;
+        }
+        return entry;
+    }
+
+    private void writeEntry(String url, @CheckForNull String etag, @CheckForNull String lastModified, String sha256, String fileName) throws IOException {
+        Properties entry = new Properties();
+        entry.setProperty(URL_KEY, url);
+        entry.setProperty(SHA256_KEY, sha256);
+        entry.setProperty(FILE_NAME_KEY, fileName);
+        if (etag != null) {
+            entry.setProperty(ETAG_KEY, etag);
+        }
+        if (lastModified != null) {
+            entry.setProperty(LAST_MODIFIED_KEY, lastModified);
+        }
+        try (OutputStream out = Files.newOutputStream(entryFile(url).toPath())) {
+            entry.store(out, null);
+        }
+    }
+
+    @CheckForNull
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        }
+        return properties;
+    }
+
+    private static byte[] digest(File file, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+}
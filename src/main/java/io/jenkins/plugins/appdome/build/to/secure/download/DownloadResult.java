@@ -0,0 +1,92 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Functions;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * Outcome of a file download performed on an agent.
+ */
+public class DownloadResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final long bytes;
+    private final long nanos;
+    private final Boolean cacheHit;
+    private final String verifiedDigest;
+
+    public DownloadResult(String path, long bytes, long nanos) {
+        this(path, bytes, nanos, null);
+    }
+
+    /**
+     * @param cacheHit whether the file was served from the download cache, null if the cache wasn't used
+     */
+    public DownloadResult(String path, long bytes, long nanos, @CheckForNull Boolean cacheHit) {
+        this(path, bytes, nanos, cacheHit, null);
+    }
+
+    private DownloadResult(String path, long bytes, long nanos, @CheckForNull Boolean cacheHit, @CheckForNull String verifiedDigest) {
+        this.path = path;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.cacheHit = cacheHit;
+        this.verifiedDigest = verifiedDigest;
+    }
+
+    /**
+     * @param expectedDigest the digest the file was checked against, or null if it wasn't checked
+     * @return this result, marked as verified against the digest
+     */
+    public DownloadResult verified(@CheckForNull ExpectedDigest expectedDigest) {
+        return expectedDigest == null ? this : new DownloadResult(path, bytes, nanos, cacheHit, expectedDigest.getName());
+    }
+
+    /**
+     * @return the absolute path of the downloaded file on the agent
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @CheckForNull
+    public Boolean getCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * @return the algorithm of the digest the file was verified with, e.g. "sha256", or null
+     */
+    @CheckForNull
+    public String getVerifiedDigest() {
+        return verifiedDigest;
+    }
+
+    public long getBytesPerSecond() {
+        return nanos <= 0 ? bytes : (long) (bytes / (nanos / 1e9));
+    }
+
+    /**
+     * @return a short description of the transfer, e.g. "12 MB in 3.2 s, 3.75 MB/s"
+     */
+    public String getSummary() {
+        String verification = verifiedDigest == null ? "" : ", " + verifiedDigest + " verified";
+        if (Boolean.TRUE.equals(cacheHit)) {
+            return Functions.humanReadableByteSize(bytes) + ", cached" + verification;
+        }
+        return Functions.humanReadableByteSize(bytes) + " in " + String.format(Locale.ROOT, "%.1f", nanos / 1e9) + " s, "
+                + Functions.humanReadableByteSize(getBytesPerSecond()) + "/s" + verification;
+    }
+}
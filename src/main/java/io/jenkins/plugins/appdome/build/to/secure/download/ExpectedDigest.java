@@ -0,0 +1,97 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Digest a remote input is expected to have, given as the fragment of its URL, for example
+ * {@code https://example.com/app.aab#sha256=9f86d0...}. The fragment is never sent to the server;
+ * the digest is computed while the file is streamed to disk and checked before the file is used.
+ * Supported algorithms are {@code sha256} and {@code sha512}.
+ */
+public class ExpectedDigest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern FRAGMENT = Pattern.compile("#(sha256|sha512)=([^#&]*)$", Pattern.CASE_INSENSITIVE);
+
+    private final String name;
+    private final String hex;
+
+    private ExpectedDigest(String name, String hex) {
+        this.name = name;
+        this.hex = hex;
+    }
+
+    /**
+     * @param url a URL, possibly ending in a digest fragment
+     * @return the digest the URL expects, or null if it doesn't specify one
+     * @throws IOException if the fragment doesn't hold a digest of the named algorithm
+     */
+    @CheckForNull
+    public static ExpectedDigest parse(String url) throws IOException {
+        Matcher matcher = FRAGMENT.matcher(url);
+        if (!matcher.find()) {
+            return null;
+        }
+        String name = matcher.group(1).toLowerCase(Locale.ROOT);
+        String hex = matcher.group(2).toLowerCase(Locale.ROOT);
+        int hexLength = "sha256".equals(name) ? 64 : 128;
+        if (hex.length() != hexLength || !hex.matches("[0-9a-f]+")) {
+            throw new IOException("Invalid " + name + " digest '" + matcher.group(2) + "' in " + stripFragment(url)
+                    + ", expected " + hexLength + " hexadecimal characters");
+        }
+        return new ExpectedDigest(name, hex);
+    }
+
+    /**
+     * @return the URL without its digest fragment
+     */
+    public static String stripFragment(String url) {
+        Matcher matcher = FRAGMENT.matcher(url);
+        return matcher.find() ? url.substring(0, matcher.start()) : url;
+    }
+
+    /**
+     * @return the algorithm as written in the URL, e.g. "sha256"
+     */
+    public String getName() {
+        return name;
+    }
+
+    boolean isSha256() {
+        return "sha256".equals(name);
+    }
+
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(isSha256() ? "SHA-256" : "SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param url    the downloaded URL, for the error message
+     * @param actual the hexadecimal digest of the downloaded file
+     * @throws IOException if the digest differs from the expected one
+     */
+    void verify(String url, String actual) throws IOException {
+        if (!hex.equalsIgnoreCase(actual)) {
+            throw new IOException("Downloading " + url + " failed: " + name + " mismatch, expected " + hex
+                    + " but the file has " + actual.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    void verify(String url, MessageDigest actual) throws IOException {
+        verify(url, Util.toHexString(actual.digest()));
+    }
+}
@@ -0,0 +1,176 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilder;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the input paths of a build to paths on the agent, downloading remote (http/https)
+ * inputs into the build's 'user_files' folder, through the agent's {@link DownloadCache} when it
+ * is enabled, and through the proxy the build's environment names.
+ */
+public class InputDownloader {
+
+    private static final int MAX_PARALLEL_DOWNLOADS = Integer.getInteger(AppdomeBuilder.class.getName() + ".maxParallelDownloads", 4);
+
+    private final FilePath userFilesPath;
+    private final TaskListener listener;
+    private final String cacheDirectory;
+    private final long maxCacheSize;
+    private final ProxyEnvironment proxies;
+    /**
+     * Numbers the folders downloads go to, so that inputs with the same file name don't collide.
+     */
+    private final AtomicInteger downloadCount = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+    /**
+     * Path lists resolved so far, so that a list prefetched by one stage of the build is
+     * downloaded only once.
+     */
+    private final ConcurrentMap<String, CompletableFuture<String>> resolutions = new ConcurrentHashMap<>();
+
+    /**
+     * @param userFilesPath  the folder remote inputs are downloaded into
+     * @param listener       the TaskListener to use for logging
+     * @param cacheDirectory the agent's download cache, or null to download without caching
+     * @param maxCacheSize   the size the download cache is trimmed to, in bytes
+     * @param environment    the environment of the build, for its {@code http_proxy}, {@code https_proxy} and {@code no_proxy}
+     */
+    public InputDownloader(FilePath userFilesPath, TaskListener listener, @CheckForNull FilePath cacheDirectory, long maxCacheSize,
+                           Map<String, String> environment) {
+        this.userFilesPath = userFilesPath;
+        this.listener = listener;
+        this.cacheDirectory = cacheDirectory == null ? null : cacheDirectory.getRemote();
+        this.maxCacheSize = maxCacheSize;
+        this.proxies = ProxyEnvironment.of(environment);
+    }
+
+    /**
+     * Creates the downloader of a build, using the download cache of the build's node if it is enabled.
+     *
+     * @param appdomeWorkspace the temporary Appdome workspace of the build
+     * @param agentWorkspace   the workspace of the build
+     * @param environment      the environment of the build
+     * @param listener         the TaskListener to use for logging
+     */
+    public static InputDownloader forBuild(FilePath appdomeWorkspace, FilePath agentWorkspace, Map<String, String> environment, TaskListener listener) {
+        AppdomeGlobalConfiguration configuration = AppdomeGlobalConfiguration.get();
+        FilePath cacheDirectory = null;
+        if (configuration.isDownloadCacheEnabled()) {
+            Computer computer = agentWorkspace.toComputer();
+            Node node = computer == null ? null : computer.getNode();
+            FilePath nodeRoot = node == null ? null : node.getRootPath();
+            if (nodeRoot != null) {
+                cacheDirectory = nodeRoot.child(DownloadCache.CACHE_DIRECTORY);
+            }
+        }
+        return new InputDownloader(appdomeWorkspace.child("user_files"), listener, cacheDirectory,
+                configuration.getDownloadCacheSizeMb() * 1024L * 1024L, environment);
+    }
+
+    /**
+     * Resolves a comma separated list of paths to paths on the agent. Remote entries are
+     * downloaded concurrently, at most {@link #MAX_PARALLEL_DOWNLOADS} at a time, and the order
+     * of the list is preserved. A list that was already resolved, or is being resolved by another
+     * thread, isn't downloaded again.
+     *
+     * @param paths comma separated local paths and URLs
+     * @return comma separated paths on the agent
+     */
+    public String resolve(String paths) throws IOException, InterruptedException {
+        CompletableFuture<String> resolution = new CompletableFuture<>();
+        CompletableFuture<String> existing = resolutions.putIfAbsent(paths, resolution);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+        try {
+            String resolved = resolveAll(paths.split(","));
+            resolution.complete(resolved);
+            return resolved;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            resolution.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private String resolveAll(String[] pathsToFilesOnAgent) throws IOException, InterruptedException {
+        int remoteFiles = (int) Stream.of(pathsToFilesOnAgent).filter(AppdomeBuilder::isHttpUrl).count();
+        if (remoteFiles == 0) {
+            return String.join(",", pathsToFilesOnAgent).trim();
+        }
+
+        ExecutorService downloadPool = Executors.newFixedThreadPool(Math.min(remoteFiles, MAX_PARALLEL_DOWNLOADS),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Appdome download"));
+        try {
+            Future<?>[] downloads = new Future<?>[pathsToFilesOnAgent.length];
+            for (int i = 0; i < pathsToFilesOnAgent.length; i++) {
+                String singlePath = pathsToFilesOnAgent[i];
+                if (AppdomeBuilder.isHttpUrl(singlePath)) {
+                    downloads[i] = downloadPool.submit(() -> download(singlePath));
+                }
+            }
+            for (int i = 0; i < downloads.length; i++) {
+                if (downloads[i] != null) {
+                    pathsToFilesOnAgent[i] = (String) downloads[i].get();
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not create or process files in the 'user_files' folder: "
+                    + e.getCause().getMessage(), e.getCause());
+        } finally {
+            downloadPool.shutdownNow();
+        }
+        return String.join(",", pathsToFilesOnAgent).trim();
+    }
+
+    /**
+     * Downloads a single remote file into a folder of its own in the 'user_files' folder on the agent.
+     *
+     * @return the path of the downloaded file on the agent
+     */
+    public String download(String url) throws IOException, InterruptedException {
+        FilePath directory = userFilesPath.child(String.valueOf(downloadCount.incrementAndGet()));
+        DownloadResult result = directory.act(new RemoteFileDownloader(url, cacheDirectory, maxCacheSize, proxies));
+        if (result.getCacheHit() != null) {
+            (result.getCacheHit() ? cacheHits : cacheMisses).incrementAndGet();
+        }
+        listener.getLogger().println("Downloaded " + new File(result.getPath()).getName() + " (" + result.getSummary() + ")");
+        return result.getPath();
+    }
+
+    /**
+     * Prints how many downloads the download cache served, if it was used.
+     */
+    public void printCacheStatistics() {
+        if (cacheHits.get() + cacheMisses.get() > 0) {
+            listener.getLogger().println("Download cache: " + cacheHits.get() + " hit(s), " + cacheMisses.get() + " miss(es)");
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The proxy settings of a build's environment, read the way curl reads them, so that downloads
+ * go through the same proxy the engine's curl calls did: {@code http_proxy} for http URLs,
+ * {@code https_proxy} or {@code HTTPS_PROXY} for https URLs, and {@code all_proxy} or
+ * {@code ALL_PROXY} when those aren't set. {@code no_proxy} or {@code NO_PROXY} lists hosts and
+ * domains that are reached directly, separated by commas, or is {@code *} for all of them. As in
+ * curl, the upper case {@code HTTP_PROXY} is ignored.
+ * <p>
+ * A proxy is given as {@code [scheme://][user:password@]host[:port]}, where the scheme is
+ * {@code http} or one of the {@code socks} schemes, and the port defaults to 1080. Credentials
+ * aren't sent to the proxy. Without any of these variables, connections use the proxy settings of
+ * the agent's JVM.
+ */
+public final class ProxyEnvironment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final ProxyEnvironment NONE = new ProxyEnvironment(Collections.emptyMap());
+
+    private static final List<String> VARIABLES = Arrays.asList("http_proxy", "https_proxy", "HTTPS_PROXY",
+            "all_proxy", "ALL_PROXY", "no_proxy", "NO_PROXY");
+    private static final int DEFAULT_PORT = 1080;
+
+    private final HashMap<String, String> variables;
+
+    private ProxyEnvironment(Map<String, String> variables) {
+        this.variables = new HashMap<>(variables);
+    }
+
+    /**
+     * @param environment the environment of the build, variables are matched by their exact name
+     */
+    public static ProxyEnvironment of(Map<String, String> environment) {
+        Map<String, String> variables = new HashMap<>();
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            if (VARIABLES.contains(variable.getKey()) && variable.getValue() != null && !variable.getValue().trim().isEmpty()) {
+                variables.put(variable.getKey(), variable.getValue().trim());
+            }
+        }
+        return new ProxyEnvironment(variables);
+    }
+
+    /**
+     * @return the proxy to reach the URL through, {@link Proxy#NO_PROXY} if the URL is reached
+     * directly, or null to use the proxy settings of the JVM
+     * @throws IOException if the proxy variable can't be used
+     */
+    @CheckForNull
+    public Proxy select(URL url) throws IOException {
+        String proxy = "https".equalsIgnoreCase(url.getProtocol()) ? get("https_proxy", "HTTPS_PROXY") : get("http_proxy");
+        if (proxy == null) {
+            proxy = get("all_proxy", "ALL_PROXY");
+        }
+        if (proxy == null) {
+            return null;
+        }
+        if (bypasses(url.getHost())) {
+            return Proxy.NO_PROXY;
+        }
+        return parse(proxy);
+    }
+
+    /**
+     * @return a selector choosing proxies as {@link #select(URL)} does, falling back to the JVM's
+     * selector where the environment names no proxy. Proxies that can't be used are left out, call
+     * {@link #select(URL)} first to fail on them.
+     */
+    public ProxySelector toProxySelector() {
+        return new ProxySelector() {
+            @Override
+            public List<Proxy> select(URI uri) {
+                Proxy proxy;
+                try {
+                    proxy = ProxyEnvironment.this.select(uri.toURL());
+                } catch (MalformedURLException e) {
+                    throw new IllegalArgumentException(e);
+                } catch (IOException e) {
+                    proxy = Proxy.NO_PROXY;
+                }
+                if (proxy == null) {
+                    ProxySelector jvm = ProxySelector.getDefault();
+                    return jvm == null ? List.of(Proxy.NO_PROXY) : jvm.select(uri);
+                }
+                if (proxy.address() instanceof InetSocketAddress) {
+                    // The http client connects to the address as given, so it's resolved here
+                    InetSocketAddress address = (InetSocketAddress) proxy.address();
+                    proxy = new Proxy(proxy.type(), new InetSocketAddress(address.getHostString(), address.getPort()));
+                }
+                return List.of(proxy);
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress address, IOException e) {
+                // Nothing to fall back to, the request fails
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ProxyEnvironment && variables.equals(((ProxyEnvironment) o).variables);
+    }
+
+    @Override
+    public int hashCode() {
+        return variables.hashCode();
+    }
+
+    private boolean bypasses(String host) {
+        String noProxy = get("no_proxy", "NO_PROXY");
+        if (noProxy == null) {
+            return false;
+        }
+        String name = unbracket(host.toLowerCase(Locale.ROOT));
+        for (String entry : noProxy.split(",")) {
+            String domain = unbracket(entry.trim().toLowerCase(Locale.ROOT));
+            if (domain.equals("*")) {
+                return true;
+            }
+            if (domain.startsWith(".")) {
+                domain = domain.substring(1);
+            }
+            if (!domain.isEmpty() && (name.equals(domain) || name.endsWith("." + domain))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Proxy parse(String proxy) throws IOException {
+        String address = proxy;
+        Proxy.Type type = Proxy.Type.HTTP;
+        int schemeEnd = address.indexOf("://");
+        if (schemeEnd >= 0) {
+            String scheme = address.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            if (scheme.startsWith("socks")) {
+                type = Proxy.Type.SOCKS;
+            } else if (!scheme.equals("http")) {
+                throw new IOException("Unsupported proxy " + scheme + "://, only http and socks proxies can be used");
+            }
+            address = address.substring(schemeEnd + 3);
+        }
+        address = address.substring(address.lastIndexOf('@') + 1);
+        if (address.indexOf('/') >= 0) {
+            address = address.substring(0, address.indexOf('/'));
+        }
+        int port = DEFAULT_PORT;
+        int colon = address.lastIndexOf(':');
+        if (colon > address.lastIndexOf(']')) {
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid proxy port in " + address, e);
+            }
+            address = address.substring(0, colon);
+        }
+        if (address.isEmpty()) {
+            // The variable may hold credentials, which don't belong in the log
+            throw new IOException("Invalid proxy, no host in the proxy variable");
+        }
+        return new Proxy(type, InetSocketAddress.createUnresolved(unbracket(address), port));
+    }
+
+    @CheckForNull
+    private String get(String... names) {
+        for (String name : names) {
+            String value = variables.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static String unbracket(String host) {
+        return host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+    }
+}
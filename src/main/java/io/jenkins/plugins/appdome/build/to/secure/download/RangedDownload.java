@@ -0,0 +1,403 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transfers a remote file into a partial file, resuming with HTTP range requests when the
+ * connection drops, and fetching large files as several segments in parallel when the server
+ * advertises {@code Accept-Ranges: bytes}.
+ * <p>
+ * The validator (a strong ETag, or Last-Modified) and length of the file are recorded next to the
+ * partial file ({@code <part>.properties}), so that a later download of the same URL into the
+ * same partial file picks up where an interrupted one stopped, as long as the server still
+ * reports the same validator. Ranges are requested with {@code If-Range}, so a file that changed
+ * in the meantime is downloaded again from the start, taking its length and validator from the
+ * new version.
+ * <p>
+ * Runs on the agent.
+ */
+class RangedDownload {
+
+    /**
+     * Times a dropped transfer is resumed before the download fails.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "non-final for tests and the script console")
+    static int MAX_RESUMES = Integer.getInteger(RemoteFileDownloader.class.getName() + ".maxResumes", 5);
+    /**
+     * Files of at least this many bytes are downloaded in segments.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "non-final for tests and the script console")
+    static long SEGMENT_THRESHOLD = Long.getLong(RemoteFileDownloader.class.getName() + ".segmentThreshold", 64L * 1024 * 1024);
+    /**
+     * Number of segments fetched in parallel; 1 disables segmented downloads.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "non-final for tests and the script console")
+    static int SEGMENTS = Integer.getInteger(RemoteFileDownloader.class.getName() + ".segments", 4);
+
+    private static final long RESUME_DELAY = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)", Pattern.CASE_INSENSITIVE);
+
+    private static final String URL_KEY = "url";
+    private static final String VALIDATOR_KEY = "validator";
+    private static final String LENGTH_KEY = "length";
+
+    private final String url;
+    private final ProxyEnvironment proxies;
+    private final File part;
+    private final File state;
+    private long length;
+    @CheckForNull
+    private String validator;
+    private final boolean acceptsRanges;
+
+    /**
+     * @param url      the requested URL, requested again (following redirects) to resume
+     * @param proxies  the proxy settings the URL is requested again with
+     * @param response the response to the initial request
+     * @param part     the partial file
+     */
+    RangedDownload(String url, ProxyEnvironment proxies, HttpURLConnection response, File part) {
+        this.url = url;
+        this.proxies = proxies;
+        this.part = part;
+        this.state = new File(part.getPath() + ".properties");
+        this.length = response.getContentLengthLong();
+        this.validator = validator(response);
+        this.acceptsRanges = "bytes".equalsIgnoreCase(String.valueOf(response.getHeaderField("Accept-Ranges")).trim());
+    }
+
+    /**
+     * Transfers the file into the partial file.
+     *
+     * @param response the response to the initial request, disconnected by this method
+     * @param digests  updated with every byte of the file in order, while the file is being written
+     * @return the length of the file
+     */
+    long transfer(HttpURLConnection response, MessageDigest... digests) throws IOException, InterruptedException {
+        long offset = resumableOffset();
+        if (offset > 0) {
+            response.disconnect();
+            hash(offset, digests);
+            return sequential(null, offset, digests);
+        }
+        Files.deleteIfExists(part.toPath());
+        if (acceptsRanges && validator != null && SEGMENTS > 1 && length >= Math.max(SEGMENT_THRESHOLD, SEGMENTS)) {
+            response.disconnect();
+            Files.deleteIfExists(state.toPath());
+            if (segmented(digests)) {
+                return length;
+            }
+            // The server ignored the range requests after all
+            Files.deleteIfExists(part.toPath());
+            return sequential(null, 0, digests);
+        }
+        return sequential(response, 0, digests);
+    }
+
+    /**
+     * Removes the partial file and its recorded state.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(part.toPath());
+        Files.deleteIfExists(state.toPath());
+    }
+
+    private long sequential(@CheckForNull HttpURLConnection response, long offset, MessageDigest[] digests) throws IOException, InterruptedException {
+        if (validator != null) {
+            recordState();
+        }
+        Range range = new Range(0, length - 1);
+        range.position = offset;
+        try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(offset);
+            fetch(out, range, digests, response);
+        }
+        Files.deleteIfExists(state.toPath());
+        return range.position;
+    }
+
+    /**
+     * The first segment updates the digests as it is written. Every later segment is hashed as soon
+     * as it and all segments before it are complete, while the rest are still downloading, so the
+     * digests are done when the last segment is.
+     *
+     * @return false if the server answered the range requests with the whole file
+     */
+    private boolean segmented(MessageDigest[] digests) throws IOException, InterruptedException {
+        long segmentSize = (length + SEGMENTS - 1) / SEGMENTS;
+        ExecutorService pool = Executors.newFixedThreadPool(SEGMENTS,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Appdome segment download"));
+        try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<Range> ranges = new ArrayList<>();
+            List<Future<Boolean>> segments = new ArrayList<>();
+            for (long start = 0; start < length; start += segmentSize) {
+                Range range = new Range(start, Math.min(length, start + segmentSize) - 1);
+                MessageDigest[] segmentDigests = start == 0 ? digests : new MessageDigest[0];
+                ranges.add(range);
+                segments.add(pool.submit(() -> fetch(out, range, segmentDigests, null)));
+            }
+            boolean ranged = true;
+            for (int i = 0; i < segments.size(); i++) {
+                ranged &= segments.get(i).get();
+                if (ranged && i > 0) {
+                    hash(out, ranges.get(i).start, ranges.get(i).end + 1, digests);
+                }
+            }
+            return ranged;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches a range of the file, resuming from where it stopped when the connection drops.
+     *
+     * @param response a response already streaming the range, or null to request it
+     * @return false if the range is a segment and the server answered with the whole file
+     */
+    private boolean fetch(FileChannel out, Range range, MessageDigest[] digests, @CheckForNull HttpURLConnection response) throws IOException, InterruptedException {
+        HttpURLConnection connection = response;
+        for (int resumes = 0; ; resumes++) {
+            IOException failure;
+            try {
+                if (connection == null) {
+                    connection = request(range);
+                    if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                        if (range.isSegment()) {
+                            return false;
+                        }
+                        // The file changed or ranges aren't supported, start over with the file as it is now
+                        restart(connection, range);
+                        out.truncate(0);
+                        for (MessageDigest digest : digests) {
+                            digest.reset();
+                        }
+                    } else if (!startsAt(connection, range.position)) {
+                        throw new IOException("server answered with " + connection.getHeaderField("Content-Range")
+                                + " instead of bytes " + range.position + "-");
+                    }
+                }
+                try (InputStream body = connection.getInputStream()) {
+                    copy(body, out, range, digests);
+                }
+                if (range.isComplete()) {
+                    return true;
+                }
+                failure = new IOException("connection closed after " + range.position + " of " + length + " bytes");
+            } catch (IOException e) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                failure = e;
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                connection = null;
+            }
+            if (validator == null || resumes >= MAX_RESUMES) {
+                throw new IOException("Downloading " + url + " failed: " + failure.getMessage(), failure);
+            }
+            Thread.sleep(RESUME_DELAY * (resumes + 1));
+        }
+    }
+
+    /**
+     * Starts the file over from a response with the whole file, which may be another version of
+     * it than the one the download started with.
+     */
+    private void restart(HttpURLConnection response, Range range) throws IOException {
+        length = response.getContentLengthLong();
+        validator = validator(response);
+        range.position = 0;
+        range.end = length - 1;
+        if (validator != null) {
+            recordState();
+        } else {
+            Files.deleteIfExists(state.toPath());
+        }
+    }
+
+    private HttpURLConnection request(Range range) throws IOException {
+        Map<String, String> requestProperties = new HashMap<>();
+        if (range.position > 0 || range.isSegment()) {
+            requestProperties.put("Range", "bytes=" + range.position + "-" + (range.end >= 0 ? range.end : ""));
+            requestProperties.put("If-Range", validator);
+        }
+        return RemoteFileDownloader.connect(url, proxies, requestProperties);
+    }
+
+    private static void copy(InputStream body, FileChannel out, Range range, MessageDigest[] digests) throws IOException, InterruptedException {
+        ReadableByteChannel in = Channels.newChannel(body);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (!range.isFilled() && in.read(buffer) != -1) {
+            buffer.flip();
+            for (MessageDigest digest : digests) {
+                digest.update(buffer.duplicate());
+            }
+            // The position only advances over bytes that reached the file, resuming continues from there
+            while (buffer.hasRemaining()) {
+                range.position += out.write(buffer, range.position);
+            }
+            buffer.clear();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static boolean startsAt(HttpURLConnection connection, long position) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return false;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+        return matcher.find() && Long.parseLong(matcher.group(1)) == position;
+    }
+
+    /**
+     * @return the number of bytes of the partial file left by an earlier download of the same file
+     */
+    private long resumableOffset() throws IOException {
+        if (validator == null || !part.isFile()) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(state.toPath())) {
+            properties.load(in);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return 0;
+        }
+        if (!url.equals(properties.getProperty(URL_KEY)) || !validator.equals(properties.getProperty(VALIDATOR_KEY))
+                || !String.valueOf(length).equals(properties.getProperty(LENGTH_KEY))) {
+            return 0;
+        }
+        long offset = part.length();
+        return length >= 0 && offset >= length ? 0 : offset;
+    }
+
+    private void recordState() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(URL_KEY, url);
+        properties.setProperty(VALIDATOR_KEY, validator);
+        properties.setProperty(LENGTH_KEY, String.valueOf(length));
+        try (OutputStream out = Files.newOutputStream(state.toPath())) {
+            properties.store(out, null);
+        }
+    }
+
+    /**
+     * Updates the digests with the first bytes of the partial file.
+     */
+    private void hash(long bytes, MessageDigest... digests) throws IOException {
+        if (digests.length == 0) {
+            return;
+        }
+        try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+            hash(in, 0, bytes, digests);
+        }
+    }
+
+    /**
+     * Updates the digests with the bytes of the partial file from {@code from} up to, excluding, {@code to}.
+     */
+    private void hash(FileChannel in, long from, long to, MessageDigest[] digests) throws IOException {
+        if (digests.length == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Downloading " + url + " failed: " + part + " is shorter than expected");
+            }
+            position += read;
+            buffer.flip();
+            for (MessageDigest digest : digests) {
+                digest.update(buffer.duplicate());
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @return a validator that identifies this version of the file in {@code If-Range}, or null
+     */
+    @CheckForNull
+    private static String validator(HttpURLConnection response) {
+        String etag = response.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * A byte range of the file and how far it has been written.
+     */
+    private final class Range {
+
+        private final long start;
+        /**
+         * Last byte of the range, inclusive; negative if the length of the file is unknown.
+         */
+        private long end;
+        private long position;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        boolean isSegment() {
+            return start > 0 || (end >= 0 && end < length - 1);
+        }
+
+        boolean isFilled() {
+            return end >= 0 && position > end;
+        }
+
+        boolean isComplete() {
+            // Without a length, the end of the body is the end of the file
+            return end < 0 || position > end;
+        }
+    }
+}
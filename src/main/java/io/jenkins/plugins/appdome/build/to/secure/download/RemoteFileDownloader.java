@@ -0,0 +1,178 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilderConstants.APPDOME_BUILDE2SECURE_VERSION;
+
+/**
+ * Downloads a remote file into a directory on the agent, which is created if needed, streaming the
+ * response body straight to disk. Redirects are followed (including http to https), the file is named after the
+ * {@code Content-Disposition} header when the server sends one, and any non-2xx response fails the
+ * download. Dropped connections are resumed and large files are fetched in segments, see
+ * {@link RangedDownload}. A URL ending in a digest fragment, see {@link ExpectedDigest}, is
+ * verified against the digest computed while the file is written. Requests go through the proxy
+ * the build's environment names, see {@link ProxyEnvironment}.
+ */
+public class RemoteFileDownloader extends MasterToSlaveFileCallable<DownloadResult> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_REDIRECTS = 10;
+    private static final int CONNECT_TIMEOUT = 30_000;
+    private static final int READ_TIMEOUT = 120_000;
+
+    private static final Pattern FILENAME_EXTENDED = Pattern.compile("filename\\*\\s*=\\s*([^']*)'[^']*'([^;]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FILENAME = Pattern.compile("filename\\s*=\\s*(\"([^\"]*)\"|[^;]+)", Pattern.CASE_INSENSITIVE);
+
+    private final String url;
+    private final String cacheDirectory;
+    private final long maxCacheSize;
+    private final ProxyEnvironment proxies;
+
+    public RemoteFileDownloader(String url) {
+        this(url, null, 0);
+    }
+
+    /**
+     * @param url            the file to download
+     * @param cacheDirectory the agent's {@link DownloadCache} directory, or null to download without caching
+     * @param maxCacheSize   the size the cache is trimmed to, in bytes
+     */
+    public RemoteFileDownloader(String url, @CheckForNull String cacheDirectory, long maxCacheSize) {
+        this(url, cacheDirectory, maxCacheSize, ProxyEnvironment.NONE);
+    }
+
+    /**
+     * @param proxies the proxy settings of the build's environment
+     */
+    RemoteFileDownloader(String url, @CheckForNull String cacheDirectory, long maxCacheSize, ProxyEnvironment proxies) {
+        this.url = url;
+        this.cacheDirectory = cacheDirectory;
+        this.maxCacheSize = maxCacheSize;
+        this.proxies = proxies;
+    }
+
+    @Override
+    public DownloadResult invoke(File directory, VirtualChannel channel) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExpectedDigest expectedDigest = ExpectedDigest.parse(url);
+        String location = ExpectedDigest.stripFragment(url);
+        Files.createDirectories(directory.toPath());
+        if (cacheDirectory != null) {
+            return new DownloadCache(new File(cacheDirectory), maxCacheSize).download(location, proxies, expectedDigest, directory, start);
+        }
+        HttpURLConnection connection = connect(location, proxies, Collections.emptyMap());
+        File target = new File(directory, fileName(connection, location));
+        File part = new File(directory, target.getName() + ".part");
+        RangedDownload download = new RangedDownload(location, proxies, connection, part);
+        try {
+            MessageDigest[] digests = expectedDigest == null ? new MessageDigest[0] : new MessageDigest[]{expectedDigest.newDigest()};
+            long bytes = download.transfer(connection, digests);
+            if (expectedDigest != null) {
+                expectedDigest.verify(location, digests[0]);
+            }
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return new DownloadResult(target.getAbsolutePath(), bytes, System.nanoTime() - start)
+                    .verified(expectedDigest);
+        } finally {
+            download.delete();
+        }
+    }
+
+    /**
+     * Opens a connection to the given URL, following redirects, and checks for a 2xx response.
+     * A 304 response is accepted as well when the request is conditional.
+     *
+     * @param url                the URL to request
+     * @param proxies            the proxy settings, applied to every location the request is redirected to
+     * @param requestProperties  additional request headers, sent to every location the request is redirected to
+     */
+    static HttpURLConnection connect(String url, ProxyEnvironment proxies, Map<String, String> requestProperties) throws IOException {
+        URL current = new URL(url);
+        boolean conditional = requestProperties.containsKey("If-None-Match") || requestProperties.containsKey("If-Modified-Since");
+        for (int redirects = 0; ; redirects++) {
+            Proxy proxy = proxies.select(current);
+            HttpURLConnection connection = (HttpURLConnection) (proxy == null ? current.openConnection() : current.openConnection(proxy));
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setRequestProperty("User-Agent", APPDOME_BUILDE2SECURE_VERSION);
+            requestProperties.forEach(connection::setRequestProperty);
+            int status = connection.getResponseCode();
+            if (conditional && status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return connection;
+            }
+            if (status >= 300 && status < 400 && connection.getHeaderField("Location") != null) {
+                if (redirects >= MAX_REDIRECTS) {
+                    connection.disconnect();
+                    throw new IOException("Downloading " + url + " failed: too many redirects");
+                }
+                current = new URL(current, connection.getHeaderField("Location"));
+                connection.disconnect();
+                continue;
+            }
+            if (status < 200 || status >= 300) {
+                connection.disconnect();
+                throw new IOException("Downloading " + url + " failed: HTTP " + status
+                        + (connection.getResponseMessage() == null ? "" : " " + connection.getResponseMessage()));
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Names the downloaded file after the {@code Content-Disposition} header, or after the last
+     * path segment of the requested URL.
+     */
+    static String fileName(HttpURLConnection connection, String url) {
+        String name = null;
+        String disposition = connection.getHeaderField("Content-Disposition");
+        if (disposition != null) {
+            Matcher extended = FILENAME_EXTENDED.matcher(disposition);
+            Matcher plain = FILENAME.matcher(disposition);
+            if (extended.find()) {
+                String charset = extended.group(1).isEmpty() ? StandardCharsets.UTF_8.name() : extended.group(1);
+                try {
+                    name = URLDecoder.decode(extended.group(2).trim(), charset);
+                } catch (IOException | IllegalArgumentException e) {
+                    name = null;
+                }
+            }
+            if (name == null && plain.find()) {
+                name = plain.group(2) != null ? plain.group(2) : plain.group(1).trim();
+            }
+        }
+        if (name == null || name.isEmpty()) {
+            name = getFileNameFromUrl(url);
+        }
+        // Never let the server pick a location outside of the download directory
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            name = "download";
+        }
+        return name;
+    }
+
+    public static String getFileNameFromUrl(String url) {
+        String decodedUrl = url.split("[?#]")[0];
+        int lastSlashIndex = decodedUrl.lastIndexOf('/');
+        return decodedUrl.substring(lastSlashIndex + 1);
+    }
+}
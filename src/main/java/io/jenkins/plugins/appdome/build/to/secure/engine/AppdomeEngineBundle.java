@@ -0,0 +1,172 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engine snapshot held by the controller.
+ * <p>
+ * The controller fetches the configured engine revision once, archives it as
+ * {@code JENKINS_HOME/appdome-engine/<commit>.tar.gz} and streams that tarball over the remoting
+ * channel to every agent whose engine cache doesn't hold the same commit yet, so agents never
+ * have to reach the engine repository themselves.
+ */
+public class AppdomeEngineBundle {
+
+    static final String BUNDLE_DIRECTORY = "appdome-engine";
+    private static final String REPOSITORY_DIRECTORY = "repo.git";
+    private static final String STATE_FILE = "bundle.properties";
+    private static final String COMMIT_KEY = "commit";
+    private static final String CHECKED_KEY = "checked";
+    private static final String SOURCE_KEY = "source";
+
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(
+            Long.getLong(AppdomeEngineBundle.class.getName() + ".refreshIntervalMinutes", 60));
+
+    private static final Object LOCK = new Object();
+    /**
+     * Commits whose tarball is being extracted, with the number of extractions, guarded by
+     * {@link #LOCK}. Their tarballs aren't pruned.
+     */
+    private static final Map<String, Integer> EXTRACTING = new HashMap<>();
+
+    private final FilePath root;
+
+    AppdomeEngineBundle(File root) {
+        this.root = new FilePath(root);
+    }
+
+    public static AppdomeEngineBundle get() {
+        return new AppdomeEngineBundle(new File(Jenkins.get().getRootDir(), BUNDLE_DIRECTORY));
+    }
+
+    /**
+     * Returns the engine snapshot for the configured repository and revision, fetching a new one
+     * if the configuration changed or the current snapshot is older than the refresh interval.
+     *
+     * @param listener the TaskListener to use for logging
+     * @return the commit of the snapshot
+     * @throws IOException          if no snapshot could be produced
+     * @throws InterruptedException if the process is interrupted
+     */
+    public String snapshot(TaskListener listener) throws IOException, InterruptedException {
+        AppdomeGlobalConfiguration configuration = AppdomeGlobalConfiguration.get();
+        String source = configuration.getEngineRepository() + "#" + configuration.getEngineRevision();
+        synchronized (LOCK) {
+            root.mkdirs();
+            Properties state = readState();
+            String cachedCommit = state.getProperty(COMMIT_KEY);
+            boolean cached = cachedCommit != null && source.equals(state.getProperty(SOURCE_KEY))
+                    && tarball(cachedCommit).exists();
+            if (cached && (isPinnedCommit(configuration.getEngineRevision(), cachedCommit) || !isStale(state))) {
+                return cachedCommit;
+            }
+
+            Launcher launcher = new Launcher.LocalLauncher(listener);
+            EngineRepository repository = new EngineRepository(root.child(REPOSITORY_DIRECTORY));
+            String commit;
+            try {
+                commit = repository.fetch(launcher, listener, configuration.getEngineRepository(), configuration.getEngineRevision());
+            } catch (IOException e) {
+                if (!cached) {
+                    throw e;
+                }
+                listener.getLogger().println("Couldn't refresh the controller's Appdome engine (" + e.getMessage()
+                        + "), using engine " + AppdomeEngineCache.abbreviate(cachedCommit));
+                return cachedCommit;
+            }
+            if (!tarball(commit).exists()) {
+                FilePath staging = root.child(commit + ".tar.gz.tmp");
+                repository.archive(launcher, listener, commit, staging);
+                staging.renameTo(tarball(commit));
+            }
+            writeState(commit, source);
+            for (FilePath child : root.list("*.tar.gz")) {
+                String childCommit = child.getName().substring(0, child.getName().length() - ".tar.gz".length());
+                if (!childCommit.equals(commit) && !childCommit.equals(cachedCommit) && !EXTRACTING.containsKey(childCommit)) {
+                    child.delete();
+                }
+            }
+            return commit;
+        }
+    }
+
+    /**
+     * Extracts the snapshot of the given commit into a directory, which may be on a remote agent.
+     * The snapshot isn't pruned by a concurrent {@link #snapshot(TaskListener)} while it is
+     * extracted, but the extraction itself doesn't hold the lock, so agents extract in parallel.
+     *
+     * @param commit a commit returned by {@link #snapshot(TaskListener)}
+     * @param target the directory to extract into
+     * @throws IOException if the snapshot was pruned before the extraction started
+     */
+    public void extractTo(String commit, FilePath target) throws IOException, InterruptedException {
+        FilePath tarball = tarball(commit);
+        synchronized (LOCK) {
+            if (!tarball.exists()) {
+                throw new IOException("The controller's Appdome engine " + AppdomeEngineCache.abbreviate(commit)
+                        + " was replaced by a newer one");
+            }
+            EXTRACTING.merge(commit, 1, Integer::sum);
+        }
+        try (InputStream in = tarball.read()) {
+            target.untarFrom(in, FilePath.TarCompression.GZIP);
+        } finally {
+            synchronized (LOCK) {
+                if (EXTRACTING.merge(commit, -1, Integer::sum) <= 0) {
+                    EXTRACTING.remove(commit);
+                }
+            }
+        }
+    }
+
+    private FilePath tarball(String commit) {
+        return root.child(commit + ".tar.gz");
+    }
+
+    private static boolean isPinnedCommit(String revision, String commit) {
+        return revision.length() >= 7 && commit.startsWith(revision);
+    }
+
+    private Properties readState() throws IOException, InterruptedException {
+        Properties state = new Properties();
+        FilePath stateFile = root.child(STATE_FILE);
+        if (stateFile.exists()) {
+            state.load(new StringReader(stateFile.readToString()));
+        }
+        return state;
+    }
+
+    private void writeState(String commit, String source) throws IOException, InterruptedException {
+        Properties state = new Properties();
+        state.setProperty(COMMIT_KEY, commit);
+        state.setProperty(CHECKED_KEY, String.valueOf(System.currentTimeMillis()));
+        state.setProperty(SOURCE_KEY, source);
+        StringWriter out = new StringWriter();
+        state.store(out, null);
+        root.child(STATE_FILE).write(out.toString(), StandardCharsets.UTF_8.name());
+    }
+
+    private static boolean isStale(Properties state) {
+        try {
+            long checked = Long.parseLong(state.getProperty(CHECKED_KEY, "0"));
+            return System.currentTimeMillis() - checked > REFRESH_INTERVAL;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Agent level cache of the Appdome engine (appdome-api-bash).
+ * <p>
+ * The engine is kept under the node root directory, one checkout per engine commit:
+ * <pre>
+ * appdome-engine-cache/
+ *     repo.git/                      shallow bare repository used for cheap fetches
+ *     engine.properties              commit currently in use and the time it was last checked
+ *     &lt;commit&gt;/appdome-api-bash/    checkout that builds copy {@code appdome_api.sh} from
+ * </pre>
+ * A checkout is reused across builds and the upstream repository is only fetched again once the
+ * cached commit is older than the refresh interval. When the engine is distributed from the
+ * controller, the checkout is extracted from the controller's {@link AppdomeEngineBundle} instead,
+ * and only if the agent doesn't hold that commit yet.
+ * <p>
+ * Builds run the engine from a copy in their own temporary workspace, see
+ * {@link #provisionInto}, so that what the engine writes stays with the build and a checkout
+ * can be pruned once no build is copying it.
+ */
+public class AppdomeEngineCache {
+
+    public static final String ENGINE_REPOSITORY = "https://github.com/Appdome/appdome-api-bash.git";
+    public static final String ENGINE_DIRECTORY = "appdome-api-bash";
+    public static final String ENGINE_SCRIPT = "appdome_api.sh";
+
+    static final String CACHE_DIRECTORY = "appdome-engine-cache";
+    private static final String REPOSITORY_DIRECTORY = "repo.git";
+    private static final String STATE_FILE = "engine.properties";
+    private static final String COMMIT_KEY = "commit";
+    private static final String CHECKED_KEY = "checked";
+    private static final String SOURCE_KEY = "source";
+
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(
+            Long.getLong(AppdomeEngineCache.class.getName() + ".refreshIntervalMinutes", 60));
+
+    /**
+     * Builds running on the same node share one cache, so every provisioning of a node is serialized.
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Builds copying a checkout hold the read lock of their node, pruning holds the write lock.
+     */
+    private static final ConcurrentMap<String, ReadWriteLock> CHECKOUTS = new ConcurrentHashMap<>();
+
+    /**
+     * Engines known to be installed, by node name. Builds on a node listed here go straight to the
+     * engine without touching the node's cache directory.
+     */
+    private static final ConcurrentMap<String, ReadyEngine> READY = new ConcurrentHashMap<>();
+
+    private final String nodeName;
+    private final FilePath cacheRoot;
+
+    public AppdomeEngineCache(String nodeName, FilePath nodeRoot) {
+        this.nodeName = nodeName;
+        this.cacheRoot = nodeRoot.child(CACHE_DIRECTORY);
+    }
+
+    /**
+     * Returns the engine cache of the node owning the given workspace.
+     *
+     * @param workspace the workspace of the build
+     * @return the engine cache, or null if the node (or its root directory) is not available
+     */
+    @CheckForNull
+    public static AppdomeEngineCache forWorkspace(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        return computer == null ? null : forComputer(computer);
+    }
+
+    /**
+     * Returns the engine cache of the given computer.
+     *
+     * @param computer the computer of the node
+     * @return the engine cache, or null if the node (or its root directory) is not available
+     */
+    @CheckForNull
+    public static AppdomeEngineCache forComputer(Computer computer) {
+        Node node = computer.getNode();
+        FilePath nodeRoot = node == null ? null : node.getRootPath();
+        if (nodeRoot == null) {
+            return null;
+        }
+        return new AppdomeEngineCache(computer.getName(), nodeRoot);
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public FilePath getCacheRoot() {
+        return cacheRoot;
+    }
+
+    /**
+     * Makes sure an up-to-date engine checkout exists on the node and returns it.
+     *
+     * @param launcher used to launch git on the node
+     * @param listener the TaskListener to use for logging
+     * @return the directory containing {@code appdome_api.sh}
+     * @throws IOException          if the engine could not be fetched and no cached engine is available
+     * @throws InterruptedException if the process is interrupted
+     */
+    public FilePath provision(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        AppdomeGlobalConfiguration configuration = AppdomeGlobalConfiguration.get();
+        String source = configuration.isDistributeEngineFromController() ? AppdomeEngineBundle.BUNDLE_DIRECTORY
+                : configuration.getEngineRepository() + "#" + configuration.getEngineRevision();
+        ReadyEngine ready = READY.get(nodeName);
+        if (ready != null && ready.isValid(source)) {
+            listener.getLogger().println("Using prepared Appdome engine " + abbreviate(ready.engine.getParent().getName()));
+            return ready.engine;
+        }
+        synchronized (LOCKS.computeIfAbsent(nodeName, k -> new Object())) {
+            FilePath engine = configuration.isDistributeEngineFromController()
+                    ? installFromController(listener)
+                    : installFromRepository(launcher, listener, configuration, source);
+            READY.put(nodeName, new ReadyEngine(engine, source));
+            return engine;
+        }
+    }
+
+    /**
+     * Makes sure an up-to-date engine checkout exists on the node and copies it into a directory
+     * of the build, which {@code appdome_api.sh} then runs from.
+     *
+     * @param launcher  used to launch git on the node
+     * @param listener  the TaskListener to use for logging
+     * @param directory where to copy the engine to, on the node
+     * @return the directory
+     * @throws IOException          if the engine could not be fetched and no cached engine is available
+     * @throws InterruptedException if the process is interrupted
+     */
+    public FilePath provisionInto(Launcher launcher, TaskListener listener, FilePath directory) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            FilePath engine = provision(launcher, listener);
+            Lock copying = CHECKOUTS.computeIfAbsent(nodeName, k -> new ReentrantReadWriteLock()).readLock();
+            copying.lockInterruptibly();
+            try {
+                if (engine.child(ENGINE_SCRIPT).exists()) {
+                    directory.mkdirs();
+                    engine.copyRecursiveTo(directory);
+                    return directory;
+                }
+            } finally {
+                copying.unlock();
+            }
+            // Pruned by a build that refreshed the engine since it was provisioned
+            forget(nodeName);
+            if (attempt > 0) {
+                throw new IOException("Appdome engine " + abbreviate(engine.getParent().getName()) + " was removed while it was being copied");
+            }
+        }
+    }
+
+    /**
+     * Forgets the prepared engine of a node, so that its next build checks the node's cache again.
+     *
+     * @param nodeName the name of the node
+     */
+    public static void forget(String nodeName) {
+        READY.remove(nodeName);
+    }
+
+    /**
+     * @param nodeName the name of the node
+     * @return whether the node has a prepared engine its builds can run from directly
+     */
+    public static boolean isReady(String nodeName) {
+        return READY.containsKey(nodeName);
+    }
+
+    private FilePath installFromRepository(Launcher launcher, TaskListener listener, AppdomeGlobalConfiguration configuration,
+                                           String source) throws IOException, InterruptedException {
+        cacheRoot.mkdirs();
+        Properties state = readState();
+        String cachedCommit = state.getProperty(COMMIT_KEY);
+        boolean cached = cachedCommit != null && source.equals(state.getProperty(SOURCE_KEY)) && isInstalled(cachedCommit);
+
+        if (cached && !isStale(state)) {
+            listener.getLogger().println("Using cached Appdome engine " + abbreviate(cachedCommit));
+            return engineDirectory(cachedCommit);
+        }
+
+        listener.getLogger().println("Updating Appdome Engine...");
+        EngineRepository repository = new EngineRepository(cacheRoot.child(REPOSITORY_DIRECTORY));
+        String commit;
+        try {
+            commit = repository.fetch(launcher, listener, configuration.getEngineRepository(), configuration.getEngineRevision());
+        } catch (IOException e) {
+            if (!cached) {
+                throw e;
+            }
+            listener.getLogger().println("Couldn't refresh Appdome engine (" + e.getMessage()
+                    + "), using cached engine " + abbreviate(cachedCommit));
+            return engineDirectory(cachedCommit);
+        }
+
+        if (!isInstalled(commit)) {
+            FilePath staging = staging(commit);
+            repository.checkout(launcher, listener, commit, staging.child(ENGINE_DIRECTORY));
+            install(commit, staging);
+        }
+        writeState(commit, source);
+        prune(commit);
+        listener.getLogger().println("Using Appdome engine " + abbreviate(commit));
+        return engineDirectory(commit);
+    }
+
+    /**
+     * Installs the controller's engine snapshot, streaming it to the node only when the node
+     * doesn't hold that commit yet.
+     */
+    private FilePath installFromController(TaskListener listener) throws IOException, InterruptedException {
+        cacheRoot.mkdirs();
+        AppdomeEngineBundle bundle = AppdomeEngineBundle.get();
+        String commit = bundle.snapshot(listener);
+        if (!isInstalled(commit)) {
+            listener.getLogger().println("Installing Appdome engine " + abbreviate(commit) + " from the controller");
+            FilePath staging = staging(commit);
+            FilePath engine = staging.child(ENGINE_DIRECTORY);
+            engine.mkdirs();
+            bundle.extractTo(commit, engine);
+            install(commit, staging);
+        } else {
+            listener.getLogger().println("Using cached Appdome engine " + abbreviate(commit));
+        }
+        writeState(commit, AppdomeEngineBundle.BUNDLE_DIRECTORY);
+        prune(commit);
+        return engineDirectory(commit);
+    }
+
+    FilePath engineDirectory(String commit) {
+        return cacheRoot.child(commit).child(ENGINE_DIRECTORY);
+    }
+
+    boolean isInstalled(String commit) throws IOException, InterruptedException {
+        return engineDirectory(commit).child(ENGINE_SCRIPT).exists();
+    }
+
+    /**
+     * Engines are written next to their final location and moved in place once complete, so that
+     * an interrupted installation is never mistaken for an installed engine.
+     */
+    private FilePath staging(String commit) throws IOException, InterruptedException {
+        FilePath staging = cacheRoot.child(commit + ".tmp");
+        staging.deleteRecursive();
+        return staging;
+    }
+
+    private void install(String commit, FilePath staging) throws IOException, InterruptedException {
+        FilePath target = cacheRoot.child(commit);
+        target.deleteRecursive();
+        staging.renameTo(target);
+    }
+
+    /**
+     * Removes every engine checkout except the current one, once the builds copying one are done.
+     * Builds run from their copy, so none holds a checkout beyond that.
+     */
+    private void prune(String commit) throws IOException, InterruptedException {
+        Lock pruning = CHECKOUTS.computeIfAbsent(nodeName, k -> new ReentrantReadWriteLock()).writeLock();
+        pruning.lockInterruptibly();
+        try {
+            for (FilePath child : cacheRoot.listDirectories()) {
+                String name = child.getName();
+                if (name.equals(REPOSITORY_DIRECTORY) || name.equals(commit)) {
+                    continue;
+                }
+                child.deleteRecursive();
+            }
+        } finally {
+            pruning.unlock();
+        }
+    }
+
+    private Properties readState() throws IOException, InterruptedException {
+        Properties state = new Properties();
+        FilePath stateFile = cacheRoot.child(STATE_FILE);
+        if (stateFile.exists()) {
+            state.load(new StringReader(stateFile.readToString()));
+        }
+        return state;
+    }
+
+    private void writeState(String commit, String source) throws IOException, InterruptedException {
+        Properties state = new Properties();
+        state.setProperty(COMMIT_KEY, commit);
+        state.setProperty(CHECKED_KEY, String.valueOf(System.currentTimeMillis()));
+        state.setProperty(SOURCE_KEY, source);
+        StringWriter out = new StringWriter();
+        state.store(out, null);
+        cacheRoot.child(STATE_FILE).write(out.toString(), StandardCharsets.UTF_8.name());
+    }
+
+    private static boolean isStale(Properties state) {
+        try {
+            long checked = Long.parseLong(state.getProperty(CHECKED_KEY, "0"));
+            return System.currentTimeMillis() - checked > REFRESH_INTERVAL;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    static String abbreviate(String commit) {
+        return commit.length() > 10 ? commit.substring(0, 10) : commit;
+    }
+
+    private static final class ReadyEngine {
+        private final FilePath engine;
+        private final String source;
+        private final long prepared = System.currentTimeMillis();
+
+        private ReadyEngine(FilePath engine, String source) {
+            this.engine = engine;
+            this.source = source;
+        }
+
+        private boolean isValid(String currentSource) {
+            return source.equals(currentSource) && System.currentTimeMillis() - prepared <= REFRESH_INTERVAL;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prepares the Appdome engine on an agent as soon as it connects, so that the first build on a
+ * freshly provisioned agent doesn't pay for the engine installation and tool discovery.
+ * <p>
+ * Enabled by {@link AppdomeGlobalConfiguration#isPrepareAgentsOnline()}.
+ */
+@Extension
+public class AppdomeEngineWarmUp extends ComputerListener {
+
+    private static final String[] REQUIRED_TOOLS = {"bash", "curl"};
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) throws IOException, InterruptedException {
+        AppdomeGlobalConfiguration configuration = AppdomeGlobalConfiguration.get();
+        if (!configuration.isPrepareAgentsOnline() || configuration.isNativeClientEnabled()) {
+            // The native client doesn't use the engine
+            return;
+        }
+        Node node = c.getNode();
+        AppdomeEngineCache engineCache = AppdomeEngineCache.forComputer(c);
+        if (node == null || engineCache == null) {
+            return;
+        }
+        Launcher launcher = node.createLauncher(listener);
+        if (!launcher.isUnix()) {
+            return;
+        }
+
+        listener.getLogger().println("Preparing Appdome engine");
+        List<String> missingTools = findMissingTools(launcher);
+        if (!missingTools.isEmpty()) {
+            listener.error("Appdome engine requires " + String.join(", ", missingTools) + " on this agent.");
+            AppdomeEngineCache.forget(c.getName());
+            return;
+        }
+        try {
+            engineCache.provision(launcher, listener);
+            listener.getLogger().println("Appdome engine is ready");
+        } catch (IOException e) {
+            // A failed preparation must not keep the agent offline, its builds will retry
+            listener.error("Couldn't prepare Appdome engine: " + e.getMessage());
+            AppdomeEngineCache.forget(c.getName());
+        }
+    }
+
+    @Override
+    public void onOffline(Computer c, OfflineCause cause) {
+        AppdomeEngineCache.forget(c.getName());
+    }
+
+    private static List<String> findMissingTools(Launcher launcher) throws InterruptedException {
+        List<String> tools = new ArrayList<>(List.of(REQUIRED_TOOLS));
+        if (!AppdomeGlobalConfiguration.get().isDistributeEngineFromController()) {
+            tools.add("git");
+        }
+        List<String> missingTools = new ArrayList<>();
+        for (String tool : tools) {
+            if (!isAvailable(launcher, tool)) {
+                missingTools.add(tool);
+            }
+        }
+        return missingTools;
+    }
+
+    private static boolean isAvailable(Launcher launcher, String tool) throws InterruptedException {
+        try {
+            return launcher.launch()
+                    .cmds(tool, "--version")
+                    .stdout(NullOutputStream.NULL_OUTPUT_STREAM)
+                    .stderr(NullOutputStream.NULL_OUTPUT_STREAM)
+                    .quiet(true)
+                    .join() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import hudson.console.LineTransformationOutputStream;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageRecorder;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Passes the output of {@code appdome_api.sh} through to the build log line by line, and times
+ * the phases of the engine from the messages it prints: upload, build, context, signing and
+ * output download. A phase ends when the next one starts or the engine exits.
+ * <p>
+ * The engine logs the start of each phase as a status line with a timestamp, e.g.
+ * {@code 2024-03-14 10:21:19 Build request started}. Only such lines start a phase, not the
+ * names of files or fusion sets, nor the output of the tools the engine runs.
+ * <p>
+ * Phases only go forward, so that a later mention of an earlier phase (e.g. the name of the
+ * uploaded file in the download message) doesn't restart it. Lines are timed as they arrive,
+ * which with a remote launch includes the latency of the channel.
+ * <p>
+ * It also notes whether Appdome throttled the API key, so that a pooled key can be set aside, and
+ * whether Appdome failed or couldn't be reached, for the circuit breaker.
+ */
+public class EngineOutputParser extends LineTransformationOutputStream.Delegating {
+
+    /**
+     * The timestamp the engine's status lines start with.
+     */
+    private static final String STATUS = "^\\d{4}-\\d{2}-\\d{2}[ T]\\d{2}:\\d{2}:\\d{2}\\S*\\s+";
+
+    enum Phase {
+        UPLOAD("Upload", "upload( request)? started"),
+        BUILD("Build", "build( request)? started"),
+        CONTEXT("Context", "context( request)? started"),
+        SIGNING("Signing", "((auto[- ]dev )?private )?sign(ing)?( request)? started"),
+        OUTPUT_DOWNLOAD("Output download", "download [\\w ]*started");
+
+        private final String stage;
+        private final Pattern start;
+
+        Phase(String stage, String start) {
+            this.stage = stage;
+            this.start = Pattern.compile(STATUS + start, Pattern.CASE_INSENSITIVE);
+        }
+    }
+
+    private static final Pattern THROTTLED = Pattern.compile(
+            "too many requests|rate limit(ed|ing)?\\b|\\b(http|status|code)\\D{0,12}429\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SERVICE_FAILED = Pattern.compile("\\b(http|status)\\D{0,12}5\\d\\d\\b"
+            + "|could not resolve host|connection (refused|reset|timed out)|operation timed out", Pattern.CASE_INSENSITIVE);
+
+    private final StageRecorder recorder;
+    private final long started = System.nanoTime();
+
+    private Phase phase;
+    private long phaseStarted;
+    private boolean throttled;
+    private boolean serviceFailed;
+
+    /**
+     * @param out      where the output goes, usually the build log
+     * @param recorder where to record the phases
+     */
+    public EngineOutputParser(OutputStream out, StageRecorder recorder) {
+        super(out);
+        this.recorder = recorder;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        out.write(b, 0, len);
+        String line = new String(b, 0, len, StandardCharsets.UTF_8);
+        if (THROTTLED.matcher(line).find()) {
+            throttled = true;
+        }
+        if (SERVICE_FAILED.matcher(line).find()) {
+            serviceFailed = true;
+        }
+        Phase[] phases = Phase.values();
+        for (int i = phase == null ? 0 : phase.ordinal() + 1; i < phases.length; i++) {
+            if (phases[i].start.matcher(line).find()) {
+                long now = System.nanoTime();
+                if (phase != null) {
+                    StageTimer.record(recorder, phase.stage, phaseStarted, true);
+                }
+                phase = phases[i];
+                phaseStarted = now;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return whether the engine printed that Appdome throttled the API key
+     */
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return whether the engine printed that Appdome failed or couldn't be reached
+     */
+    public boolean isServiceFailed() {
+        return serviceFailed;
+    }
+
+    /**
+     * Ends the current phase once the engine exited. If the engine printed none of the phase
+     * messages, its whole run is recorded as one stage, and the log says so: the engine may
+     * print its status lines differently than the phases are looked for.
+     *
+     * @param succeeded whether the engine succeeded
+     */
+    public void finish(boolean succeeded) throws IOException {
+        forceEol();
+        if (phase != null) {
+            StageTimer.record(recorder, phase.stage, phaseStarted, succeeded);
+        } else {
+            out.write(("None of the Appdome engine's phases were recognised in its output, "
+                    + "the engine is timed as one stage\n").getBytes(StandardCharsets.UTF_8));
+            StageTimer.record(recorder, "Appdome engine", started, succeeded);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,90 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Git operations on the shallow bare repository the engine is fetched into, shared by the agent
+ * engine cache and the controller engine bundle.
+ */
+final class EngineRepository {
+
+    private final FilePath repository;
+
+    EngineRepository(FilePath repository) {
+        this.repository = repository;
+    }
+
+    FilePath getRepository() {
+        return repository;
+    }
+
+    /**
+     * Fetches a single revision of the engine repository.
+     *
+     * @param upstream the engine repository URL or path
+     * @param revision the branch, tag or commit to fetch
+     * @return the fetched commit
+     */
+    String fetch(Launcher launcher, TaskListener listener, String upstream, String revision) throws IOException, InterruptedException {
+        if (!repository.child("HEAD").exists()) {
+            repository.mkdirs();
+            run(launcher, listener, new ArgumentListBuilder("git", "init", "--quiet", "--bare", repository.getRemote()));
+        }
+        run(launcher, listener, new ArgumentListBuilder("git", "--git-dir=" + repository.getRemote(),
+                "fetch", "--quiet", "--depth", "1", upstream, revision));
+        return revParse(launcher, listener, "FETCH_HEAD");
+    }
+
+    String revParse(Launcher launcher, TaskListener listener, String revision) throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exitCode = launcher.launch()
+                .cmds("git", "--git-dir=" + repository.getRemote(), "rev-parse", revision)
+                .pwd(repository)
+                .stdout(out)
+                .stderr(listener.getLogger())
+                .quiet(true)
+                .join();
+        String commit = out.toString(StandardCharsets.UTF_8.name()).trim();
+        if (exitCode != 0 || commit.isEmpty()) {
+            throw new IOException("Couldn't resolve Appdome engine revision '" + revision + "', exitcode " + exitCode);
+        }
+        return commit;
+    }
+
+    /**
+     * Writes the files of the given commit into a directory.
+     */
+    void checkout(Launcher launcher, TaskListener listener, String commit, FilePath workTree) throws IOException, InterruptedException {
+        workTree.mkdirs();
+        run(launcher, listener, new ArgumentListBuilder("git", "--git-dir=" + repository.getRemote(),
+                "--work-tree=" + workTree.getRemote(), "checkout", "--quiet", "-f", commit, "--", "."));
+    }
+
+    /**
+     * Writes the files of the given commit into a gzipped tarball.
+     */
+    void archive(Launcher launcher, TaskListener listener, String commit, FilePath tarball) throws IOException, InterruptedException {
+        run(launcher, listener, new ArgumentListBuilder("git", "--git-dir=" + repository.getRemote(),
+                "archive", "--format=tar.gz", "--output=" + tarball.getRemote(), commit));
+    }
+
+    private void run(Launcher launcher, TaskListener listener, ArgumentListBuilder args) throws IOException, InterruptedException {
+        int exitCode = launcher.launch()
+                .cmds(args)
+                .pwd(repository)
+                .stdout(listener.getLogger())
+                .stderr(listener.getLogger())
+                .quiet(true)
+                .join();
+        if (exitCode != 0) {
+            throw new IOException("'" + String.join(" ", args.toList().subList(0, 3)) + "' failed, exitcode " + exitCode);
+        }
+    }
+}
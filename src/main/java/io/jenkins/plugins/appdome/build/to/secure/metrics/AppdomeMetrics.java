@@ -0,0 +1,131 @@
+package io.jenkins.plugins.appdome.build.to.secure.metrics;
+
+import hudson.Util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Protections run on this controller since it started, by platform, sign type, fusion set and
+ * agent: how many succeeded and failed, and how long they took. Protections restored from the
+ * result cache are counted on their own, they don't reach Appdome. Updated without locking by the
+ * builders and read by {@link AppdomeMetricsAction}.
+ */
+public final class AppdomeMetrics {
+
+    private static final AppdomeMetrics INSTANCE = new AppdomeMetrics();
+    /**
+     * The Prometheus buckets in milliseconds, which durations are counted against exactly.
+     */
+    private static final long[] DURATION_BOUNDARIES = Arrays.stream(AppdomeMetricsAction.PROMETHEUS_BUCKETS)
+            .map(TimeUnit.SECONDS::toMillis).toArray();
+
+    private final Map<Labels, Series> series = new ConcurrentHashMap<>();
+
+    AppdomeMetrics() {
+    }
+
+    public static AppdomeMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a protection, from the start of the build step to its end.
+     */
+    public void record(Labels labels, long durationMillis, boolean succeeded) {
+        Series s = series.computeIfAbsent(labels, l -> new Series());
+        (succeeded ? s.succeeded : s.failed).increment();
+        s.duration.record(durationMillis);
+    }
+
+    /**
+     * Records a protection whose outputs were restored from the result cache.
+     */
+    public void recordCacheHit(Labels labels) {
+        series.computeIfAbsent(labels, l -> new Series()).cacheHits.increment();
+    }
+
+    public Map<Labels, Series> getSeries() {
+        return series;
+    }
+
+    /**
+     * What a protection is counted under. Values that aren't set are reported as empty strings.
+     */
+    public static final class Labels {
+
+        private final String platform;
+        private final String signType;
+        private final String fusionSet;
+        private final String agent;
+
+        public Labels(String platform, String signType, String fusionSet, String agent) {
+            this.platform = Util.fixNull(platform);
+            this.signType = Util.fixNull(signType);
+            this.fusionSet = Util.fixNull(fusionSet);
+            this.agent = Util.fixNull(agent);
+        }
+
+        public String getPlatform() {
+            return platform;
+        }
+
+        public String getSignType() {
+            return signType;
+        }
+
+        public String getFusionSet() {
+            return fusionSet;
+        }
+
+        public String getAgent() {
+            return agent;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Labels)) {
+                return false;
+            }
+            Labels labels = (Labels) o;
+            return platform.equals(labels.platform) && signType.equals(labels.signType)
+                    && fusionSet.equals(labels.fusionSet) && agent.equals(labels.agent);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(platform, signType, fusionSet, agent);
+        }
+    }
+
+    public static final class Series {
+
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LatencyHistogram duration = new LatencyHistogram(DURATION_BOUNDARIES);
+
+        public long getSucceeded() {
+            return succeeded.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getCacheHits() {
+            return cacheHits.sum();
+        }
+
+        public LatencyHistogram getDuration() {
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.jenkins.plugins.appdome.build.to.secure.metrics;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves {@link AppdomeMetrics} at {@code /appdome-metrics/} as JSON, with the 50th, 95th and
+ * 99th percentiles of each series, and at {@code /appdome-metrics/prometheus} in the Prometheus
+ * text format, with the durations as a histogram. Needs the system read permission.
+ */
+@Extension
+public class AppdomeMetricsAction implements RootAction {
+
+    /**
+     * Upper bounds of the Prometheus buckets, in seconds.
+     */
+    static final long[] PROMETHEUS_BUCKETS = {30, 60, 120, 300, 600, 900, 1200, 1800, 2700, 3600};
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Appdome metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "appdome-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().print(toJson(AppdomeMetrics.get()));
+    }
+
+    public void doPrometheus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        rsp.setContentType("text/plain;version=0.0.4;charset=UTF-8");
+        writePrometheus(AppdomeMetrics.get(), rsp.getWriter());
+    }
+
+    static JSONObject toJson(AppdomeMetrics metrics) {
+        JSONArray series = new JSONArray();
+        for (Map.Entry<AppdomeMetrics.Labels, AppdomeMetrics.Series> entry : metrics.getSeries().entrySet()) {
+            AppdomeMetrics.Labels labels = entry.getKey();
+            LatencyHistogram duration = entry.getValue().getDuration();
+            JSONObject json = new JSONObject();
+            json.put("platform", labels.getPlatform());
+            json.put("signType", labels.getSignType());
+            json.put("fusionSet", labels.getFusionSet());
+            json.put("agent", labels.getAgent());
+            json.put("succeeded", entry.getValue().getSucceeded());
+            json.put("failed", entry.getValue().getFailed());
+            json.put("cacheHits", entry.getValue().getCacheHits());
+            json.put("durationSumMillis", duration.getSum());
+            json.put("durationP50Millis", duration.getPercentile(50));
+            json.put("durationP95Millis", duration.getPercentile(95));
+            json.put("durationP99Millis", duration.getPercentile(99));
+            series.add(json);
+        }
+        JSONObject json = new JSONObject();
+        json.put("series", series);
+        return json;
+    }
+
+    static void writePrometheus(AppdomeMetrics metrics, PrintWriter out) {
+        out.print("# HELP appdome_protections_total Appdome protections run since the controller started.\n");
+        out.print("# TYPE appdome_protections_total counter\n");
+        for (Map.Entry<AppdomeMetrics.Labels, AppdomeMetrics.Series> entry : metrics.getSeries().entrySet()) {
+            String labels = labels(entry.getKey());
+            out.print("appdome_protections_total{" + labels + ",result=\"success\"} " + entry.getValue().getSucceeded() + "\n");
+            out.print("appdome_protections_total{" + labels + ",result=\"failure\"} " + entry.getValue().getFailed() + "\n");
+        }
+        out.print("# HELP appdome_result_cache_hits_total Appdome protections restored from the result cache since the controller started.\n");
+        out.print("# TYPE appdome_result_cache_hits_total counter\n");
+        for (Map.Entry<AppdomeMetrics.Labels, AppdomeMetrics.Series> entry : metrics.getSeries().entrySet()) {
+            out.print("appdome_result_cache_hits_total{" + labels(entry.getKey()) + "} " + entry.getValue().getCacheHits() + "\n");
+        }
+        out.print("# HELP appdome_protection_duration_seconds How long Appdome protections took.\n");
+        out.print("# TYPE appdome_protection_duration_seconds histogram\n");
+        for (Map.Entry<AppdomeMetrics.Labels, AppdomeMetrics.Series> entry : metrics.getSeries().entrySet()) {
+            String labels = labels(entry.getKey());
+            LatencyHistogram duration = entry.getValue().getDuration();
+            for (long bucket : PROMETHEUS_BUCKETS) {
+                out.print("appdome_protection_duration_seconds_bucket{" + labels + ",le=\"" + bucket + "\"} "
+                        + duration.countAtMost(TimeUnit.SECONDS.toMillis(bucket)) + "\n");
+            }
+            // Read after the buckets, so that it isn't below any of them while protections complete
+            long count = duration.getCount();
+            out.print("appdome_protection_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} " + count + "\n");
+            out.print("appdome_protection_duration_seconds_sum{" + labels + "} "
+                    + String.format(Locale.ROOT, "%.3f", duration.getSum() / 1e3) + "\n");
+            out.print("appdome_protection_duration_seconds_count{" + labels + "} " + count + "\n");
+        }
+        out.flush();
+    }
+
+    private static String labels(AppdomeMetrics.Labels labels) {
+        return "platform=\"" + escape(labels.getPlatform()) + "\",sign_type=\"" + escape(labels.getSignType())
+                + "\",fusion_set=\"" + escape(labels.getFusionSet()) + "\",agent=\"" + escape(labels.getAgent()) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,148 @@
+package io.jenkins.plugins.appdome.build.to.secure.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in milliseconds, with buckets that grow with the value as in HDR
+ * histograms: values below {@value #SUB_BUCKETS} have a bucket each, larger ones share a bucket
+ * with values that differ by less than 1/{@value #SUB_BUCKETS}. Recording is lock-free, and
+ * percentiles are reported as the upper bound of their bucket.
+ * <p>
+ * Values are also counted exactly against the boundaries the histogram is created with, which
+ * don't line up with its buckets, for {@link #countAtMost}.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Values from 2^{@value} ms on (about 50 days) go to the last bucket.
+     */
+    private static final int MAX_EXPONENT = 32;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final long[] boundaries;
+    /**
+     * Values above the previous boundary and at most the boundary with the same index.
+     */
+    private final LongAdder[] upTo;
+
+    /**
+     * @param boundaries the values {@link #countAtMost} counts up to, in milliseconds, ascending
+     */
+    public LatencyHistogram(long... boundaries) {
+        this.boundaries = boundaries.clone();
+        this.upTo = new LongAdder[boundaries.length];
+        for (int i = 0; i < boundaries.length; i++) {
+            if (i > 0 && boundaries[i] <= boundaries[i - 1]) {
+                throw new IllegalArgumentException("Boundaries must be ascending: " + Arrays.toString(boundaries));
+            }
+            upTo[i] = new LongAdder();
+        }
+    }
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        // Counted first, so that the count is never below the boundaries while values are recorded
+        count.increment();
+        int boundary = Arrays.binarySearch(boundaries, value);
+        if (boundary < 0) {
+            boundary = -boundary - 1;
+        }
+        if (boundary < upTo.length) {
+            upTo[boundary].increment();
+        }
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of the recorded values, in milliseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which the given percentage of the recorded values fall, in
+     * milliseconds, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long bucket : snapshot) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    /**
+     * @param boundary one of the boundaries the histogram was created with, in milliseconds
+     * @return how many recorded values are at most the boundary, as Prometheus buckets count them
+     */
+    public long countAtMost(long boundary) {
+        int last = Arrays.binarySearch(boundaries, boundary);
+        if (last < 0) {
+            throw new IllegalArgumentException(boundary + " ms is not a boundary of the histogram");
+        }
+        long total = 0;
+        for (int i = 0; i <= last; i++) {
+            total += upTo[i].sum();
+        }
+        return total;
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        if (index == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + width - 1;
+    }
+}
@@ -0,0 +1,240 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiException;
+import io.jenkins.plugins.appdome.build.to.secure.api.NativeAppdomeBuild;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
+import io.jenkins.plugins.appdome.build.to.secure.timing.AppdomeTimingsAction;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a protection started by {@link AppdomeSubmitStep} to be built, have its context
+ * applied and be signed. Status is polled from the controller at growing intervals and nothing
+ * runs between polls, so the step doesn't need an executor. The stage and task of the protection
+ * are saved with the build at each transition, and a step resumed after a restart of the
+ * controller goes on from there instead of protecting the app again.
+ * <p>
+ * The time each stage takes is recorded in {@link AppdomeTimingsAction}, counted from when this
+ * controller started waiting for it.
+ */
+public class AppdomeAwaitStep extends Step {
+
+    private final String id;
+
+    @DataBoundConstructor
+    public AppdomeAwaitStep(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, id);
+    }
+
+    static final class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        private transient volatile Future<?> poll;
+        private transient volatile boolean stopped;
+        private transient long interval;
+        private transient long deadline;
+        private transient long stageStarted;
+
+        Execution(StepContext context, String id) {
+            super(context);
+            this.id = id;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            RemoteProtection protection = AppdomeProtectionsAction.get(getContext().get(Run.class), id);
+            if (protection.getStage() == RemoteProtection.Stage.READY) {
+                getContext().onSuccess(null);
+                return true;
+            }
+            getContext().get(TaskListener.class).getLogger().println("Waiting for Appdome ("
+                    + protection.getStage().getOperation() + ", task " + protection.getTaskId() + ")");
+            restartClock();
+            schedule(0);
+            return false;
+        }
+
+        /**
+         * Picks the protection up at the stage saved with the build, so that a restart of the
+         * controller only costs the polls it missed.
+         */
+        @Override
+        public void onResume() {
+            try {
+                RemoteProtection protection = AppdomeProtectionsAction.get(getContext().get(Run.class), id);
+                getContext().get(TaskListener.class).getLogger().println("Resuming the wait for Appdome ("
+                        + protection.getStage().getOperation() + ", task " + protection.getTaskId() + ")");
+                restartClock();
+                schedule(0);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            stopped = true;
+            Future<?> scheduled = poll;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            fail(cause);
+        }
+
+        /**
+         * Fails the step. The protection won't be signed anymore, so the signing files kept for
+         * it are deleted first.
+         */
+        private void fail(Throwable cause) {
+            try {
+                Run<?, ?> run = getContext().get(Run.class);
+                Util.deleteRecursive(AppdomeProtectionsAction.get(run, id).getSignFilesDirectory(run));
+            } catch (Exception e) {
+                cause.addSuppressed(e);
+            }
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public String getStatus() {
+            return "waiting for Appdome protection " + id;
+        }
+
+        private void restartClock() {
+            stageStarted = System.nanoTime();
+            interval = AppdomeApiClient.POLL_INITIAL_INTERVAL;
+            deadline = System.currentTimeMillis() + AppdomeApiClient.TASK_TIMEOUT;
+        }
+
+        /**
+         * Polls after a delay. The timer only hands the poll over, since requests may take long.
+         */
+        private void schedule(long delay) {
+            if (!stopped) {
+                poll = Timer.get().schedule(() -> {
+                    Computer.threadPoolForRemoting.submit(this::poll);
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void poll() {
+            if (stopped) {
+                return;
+            }
+            try {
+                Run<?, ?> run = getContext().get(Run.class);
+                TaskListener listener = getContext().get(TaskListener.class);
+                RemoteProtection protection = AppdomeProtectionsAction.get(run, id);
+                AppdomeApiClient client = protection.client();
+                RemoteProtection.Stage stage = protection.getStage();
+                JSONObject status = client.status(protection.getTaskId());
+                String state = status.optString("status");
+                if ("completed".equals(state)) {
+                    listener.getLogger().println(stage.getOperation() + " completed (task " + protection.getTaskId() + ")");
+                    StageTimer.record(AppdomeTimingsAction.of(run), stage.getOperation(), stageStarted, true);
+                    if (Advance(run, protection, client, listener) == RemoteProtection.Stage.READY) {
+                        getContext().onSuccess(null);
+                        return;
+                    }
+                    restartClock();
+                    schedule(0);
+                } else if ("error".equals(state)) {
+                    StageTimer.record(AppdomeTimingsAction.of(run), stage.getOperation(), stageStarted, false);
+                    fail(new AppdomeApiException(0, stage.getOperation() + " failed: "
+                            + status.optString("message", status.toString())));
+                } else if (System.currentTimeMillis() + interval > deadline) {
+                    fail(new AppdomeApiException(0, stage.getOperation() + " did not complete within "
+                            + TimeUnit.MILLISECONDS.toMinutes(AppdomeApiClient.TASK_TIMEOUT) + " minutes (task "
+                            + protection.getTaskId() + ")"));
+                } else {
+                    schedule(interval);
+                    interval = Math.min(interval * 2, AppdomeApiClient.POLL_MAX_INTERVAL);
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Starts the stage that follows a completed one and saves the build.
+         *
+         * @return the new stage
+         */
+        private static RemoteProtection.Stage Advance(Run<?, ?> run, RemoteProtection protection, AppdomeApiClient client, TaskListener listener) throws IOException, InterruptedException {
+            switch (protection.getStage()) {
+                case BUILDING:
+                    protection.advance(RemoteProtection.Stage.CONTEXT, client.context(protection.getTaskId()));
+                    break;
+                case CONTEXT:
+                    if (protection.getSignType() != SignType.NONE) {
+                        protection.advance(RemoteProtection.Stage.SIGNING, client.signContents(
+                                NativeAppdomeBuild.signAction(protection.getSignType()), protection.getTaskId(),
+                                protection.getSignOverrides(), protection.readSignFiles(run)));
+                    } else {
+                        protection.advance(RemoteProtection.Stage.READY, protection.getTaskId());
+                    }
+                    break;
+                default:
+                    protection.advance(RemoteProtection.Stage.READY, protection.getTaskId());
+                    break;
+            }
+            run.save();
+            // Only once the new stage is saved, a restart before would sign again
+            if (protection.getStage() == RemoteProtection.Stage.SIGNING || protection.getStage() == RemoteProtection.Stage.READY) {
+                Util.deleteRecursive(protection.getSignFilesDirectory(run));
+            }
+            if (protection.getStage() != RemoteProtection.Stage.READY) {
+                listener.getLogger().println(protection.getStage().getOperation() + " started (task " + protection.getTaskId() + ")");
+            }
+            return protection.getStage();
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "appdomeAwait";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Wait for an Appdome protection";
+        }
+    }
+}
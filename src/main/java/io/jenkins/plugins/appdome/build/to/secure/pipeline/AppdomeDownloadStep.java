@@ -0,0 +1,122 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.api.NativeAppdomeBuild;
+import io.jenkins.plugins.appdome.build.to.secure.api.RetryBudget;
+import io.jenkins.plugins.appdome.build.to.secure.api.TaskOutput;
+import io.jenkins.plugins.appdome.build.to.secure.timing.AppdomeTimingsAction;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Downloads the outputs of a protection that {@link AppdomeAwaitStep} waited for into the
+ * workspace, at the paths the {@link AppdomeSubmitStep} configuration asked for.
+ */
+public class AppdomeDownloadStep extends Step {
+
+    private final String id;
+
+    @DataBoundConstructor
+    public AppdomeDownloadStep(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, id);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Execution(StepContext context, String id) {
+            super(context);
+            this.id = id;
+        }
+
+        @Override
+        protected Void run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            RemoteProtection protection = AppdomeProtectionsAction.get(run, id);
+            if (protection.getStage() != RemoteProtection.Stage.READY) {
+                throw new IOException("Appdome protection " + id + " is at the " + protection.getStage().getOperation()
+                        + " stage, wait for it with appdomeAwait first");
+            }
+            return StageTimer.time(AppdomeTimingsAction.of(run), "Output download", () ->
+                    getContext().get(FilePath.class).act(new Download(protection.client(), protection.getTaskId(),
+                            protection.getOutputs(), getContext().get(TaskListener.class),
+                            AppdomeGlobalConfiguration.get().getTransientRetries())));
+        }
+    }
+
+    private static final class Download extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AppdomeApiClient client;
+        private final String taskId;
+        private final LinkedHashMap<TaskOutput, String> outputs;
+        private final TaskListener listener;
+        private final int retries;
+
+        Download(AppdomeApiClient client, String taskId, Map<TaskOutput, String> outputs, TaskListener listener, int retries) {
+            this.client = client;
+            this.taskId = taskId;
+            this.outputs = new LinkedHashMap<>(outputs);
+            this.listener = listener;
+            this.retries = retries;
+        }
+
+        @Override
+        public Void invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            return new RetryBudget(retries).call("Output download", listener, () -> {
+                NativeAppdomeBuild.downloadOutputs(client, taskId, outputs, workspace, listener);
+                return null;
+            });
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "appdomeDownload";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Download the outputs of an Appdome protection";
+        }
+    }
+}
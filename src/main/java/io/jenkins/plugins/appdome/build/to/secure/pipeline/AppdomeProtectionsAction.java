@@ -0,0 +1,157 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.RunAction2;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the protections a build submitted to Appdome, see {@link RemoteProtection}.
+ */
+public class AppdomeProtectionsAction implements RunAction2 {
+
+    private final List<RemoteProtection> protections = new CopyOnWriteArrayList<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * @return the action of the build, added if it has none yet
+     */
+    public static synchronized AppdomeProtectionsAction of(Run<?, ?> run) {
+        AppdomeProtectionsAction action = run.getAction(AppdomeProtectionsAction.class);
+        if (action == null) {
+            action = new AppdomeProtectionsAction();
+            run.addAction(action);
+        }
+        return action;
+    }
+
+    /**
+     * @return the protection with the given id
+     * @throws IOException if the build has no such protection
+     */
+    public static RemoteProtection get(Run<?, ?> run, String id) throws IOException {
+        AppdomeProtectionsAction action = run.getAction(AppdomeProtectionsAction.class);
+        RemoteProtection protection = action == null ? null : action.getProtection(id);
+        if (protection == null) {
+            throw new IOException("No Appdome protection " + id + " was submitted in " + run.getFullDisplayName());
+        }
+        return protection;
+    }
+
+    @CheckForNull
+    public RemoteProtection getProtection(String id) {
+        for (RemoteProtection protection : protections) {
+            if (protection.getId().equals(id)) {
+                return protection;
+            }
+        }
+        return null;
+    }
+
+    public List<RemoteProtection> getProtections() {
+        return protections;
+    }
+
+    /**
+     * Adds a protection and saves the build.
+     */
+    public void add(RemoteProtection protection) throws IOException {
+        protections.add(protection);
+        save();
+    }
+
+    public void save() throws IOException {
+        if (run != null) {
+            run.save();
+        }
+    }
+
+    /**
+     * Deletes the signing files kept for the protections of the build.
+     *
+     * @throws IOException if some of them couldn't be deleted
+     */
+    void deleteSignFiles(Run<?, ?> r) throws IOException {
+        IOException failure = null;
+        for (RemoteProtection protection : protections) {
+            try {
+                Util.deleteRecursive(protection.getSignFilesDirectory(r));
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * Deletes the signing files of protections that weren't signed, once nothing can sign them:
+     * when the build completes without having waited for them, or is deleted.
+     */
+    @Extension
+    public static final class SignFilesCleaner extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            AppdomeProtectionsAction action = run.getAction(AppdomeProtectionsAction.class);
+            if (action != null) {
+                try {
+                    action.deleteSignFiles(run);
+                } catch (IOException e) {
+                    listener.getLogger().println("Couldn't delete the Appdome signing files of the build (" + e.getMessage() + ")");
+                }
+            }
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            AppdomeProtectionsAction action = run.getAction(AppdomeProtectionsAction.class);
+            if (action != null) {
+                try {
+                    action.deleteSignFiles(run);
+                } catch (IOException e) {
+                    // The build directory is deleted next
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilder;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import io.jenkins.plugins.appdome.build.to.secure.api.NativeAppdomeBuild;
+import io.jenkins.plugins.appdome.build.to.secure.api.TaskOutput;
+import io.jenkins.plugins.appdome.build.to.secure.download.ProxyEnvironment;
+import io.jenkins.plugins.appdome.build.to.secure.preflight.AppdomePreflight;
+import io.jenkins.plugins.appdome.build.to.secure.throttle.AppdomeCircuitBreaker;
+import io.jenkins.plugins.appdome.build.to.secure.timing.AppdomeTimingsAction;
+import io.jenkins.plugins.appdome.build.to.secure.timing.StageTimer;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilderConstants.APPDOME_BUILDE2SECURE_VERSION;
+
+/**
+ * Uploads the app of an {@link AppdomeBuilder} configuration and starts protecting it, without
+ * waiting for Appdome. Returns the id that {@link AppdomeAwaitStep} waits for, outside of
+ * {@code node} so that no executor is held while Appdome works, and that
+ * {@link AppdomeDownloadStep} downloads the outputs of.
+ * <pre>
+ * def protection
+ * node('android') {
+ *     protection = appdomeSubmit AppdomeBuilder(token: ..., platform: AndroidPlatform(...))
+ * }
+ * appdomeAwait protection
+ * node('android') {
+ *     appdomeDownload protection
+ * }
+ * </pre>
+ * Needs the native client to be enabled in the global configuration.
+ */
+public class AppdomeSubmitStep extends Step {
+
+    private final AppdomeBuilder builder;
+
+    @DataBoundConstructor
+    public AppdomeSubmitStep(AppdomeBuilder builder) {
+        this.builder = builder;
+    }
+
+    public AppdomeBuilder getBuilder() {
+        return builder;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, builder);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient AppdomeBuilder builder;
+
+        Execution(StepContext context, AppdomeBuilder builder) {
+            super(context);
+            this.builder = builder;
+        }
+
+        @Override
+        protected String run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            AppdomeGlobalConfiguration config = AppdomeGlobalConfiguration.get();
+            if (!config.isNativeClientEnabled()) {
+                throw new IOException("appdomeSubmit needs the native Appdome client, enable it in the global configuration");
+            }
+            listener.getLogger().println("Appdome Build2Secure " + APPDOME_BUILDE2SECURE_VERSION);
+            try (AppdomeCircuitBreaker.Permit permit = AppdomeCircuitBreaker.get().admit(listener)) {
+                return SubmitApp(run, workspace, listener, config);
+            }
+        }
+
+        private String SubmitApp(Run<?, ?> run, FilePath workspace, TaskListener listener, AppdomeGlobalConfiguration config) throws Exception {
+            FilePath appdomeWorkspace = workspace.createTempDir("AppdomeBuild", "Build");
+            AppdomeTimingsAction timings = AppdomeTimingsAction.of(run);
+            try {
+                EnvVars env = getContext().get(EnvVars.class);
+                AppdomeBuildRequest request = builder.composeBuildRequest(appdomeWorkspace, workspace,
+                        env, getContext().get(Launcher.class), listener, timings);
+                StageTimer.time(timings, "Preflight", () -> {
+                    AppdomePreflight.check(run, workspace, request, builder.getPlatform().getPlatformType(), listener);
+                    return null;
+                });
+                AppdomeApiClient client = new AppdomeApiClient(config.getServerUrl(), request.getApiKey(),
+                        request.getTeamId(), APPDOME_BUILDE2SECURE_VERSION, ProxyEnvironment.of(env));
+                String taskId;
+                try {
+                    taskId = StageTimer.time(timings, "Upload", () -> workspace.act(new Submit(client, request, listener)));
+                    AppdomeCircuitBreaker.get().succeeded();
+                } catch (IOException e) {
+                    if (AppdomeCircuitBreaker.isServiceFailure(e)) {
+                        AppdomeCircuitBreaker.get().failed();
+                    }
+                    throw e;
+                }
+
+                String id = UUID.randomUUID().toString();
+                File signFilesDirectory = new File(run.getRootDir(), "appdome" + File.separator + id);
+                try {
+                    RemoteProtection protection = new RemoteProtection(id, config.getServerUrl(), request.getApiKey(),
+                            request.getTeamId(), request.getSignType(), NativeAppdomeBuild.signOverrides(request),
+                            KeepSignFiles(request, workspace, signFilesDirectory), RelativeOutputs(request, workspace), taskId);
+                    AppdomeProtectionsAction.of(run).add(protection);
+                } catch (Exception e) {
+                    // Nothing will wait for the protection, so nothing would delete what was copied
+                    try {
+                        Util.deleteRecursive(signFilesDirectory);
+                    } catch (IOException x) {
+                        e.addSuppressed(x);
+                    }
+                    throw e;
+                }
+                return id;
+            } finally {
+                appdomeWorkspace.deleteRecursive();
+            }
+        }
+
+        /**
+         * Keeps the signing files next to the build, encrypted, since they are sent once Appdome
+         * has built the app, when the workspace may be gone.
+         *
+         * @return the names of the copies by form field
+         */
+        private static Map<String, List<String>> KeepSignFiles(AppdomeBuildRequest request, FilePath workspace, File directory) throws IOException, InterruptedException {
+            Map<String, List<String>> names = new LinkedHashMap<>();
+            for (Map.Entry<String, List<File>> field : NativeAppdomeBuild.signFiles(request, new File(workspace.getRemote())).entrySet()) {
+                List<String> list = new ArrayList<>();
+                for (File file : field.getValue()) {
+                    // Profiles of different directories may share a name
+                    String name = list.size() + "-" + file.getName();
+                    try (InputStream in = new FilePath(workspace.getChannel(), file.getPath()).read()) {
+                        RemoteProtection.keepSignFile(in, new File(directory, field.getKey() + File.separator + name));
+                    }
+                    list.add(name);
+                }
+                names.put(field.getKey(), list);
+            }
+            return names;
+        }
+
+        /**
+         * @return the outputs of a request, relative to the workspace when they are in it, so that
+         * they can be downloaded to the workspace of another node
+         */
+        private static Map<TaskOutput, String> RelativeOutputs(AppdomeBuildRequest request, FilePath workspace) {
+            String prefix = workspace.getRemote().endsWith("/") ? workspace.getRemote() : workspace.getRemote() + "/";
+            Map<TaskOutput, String> outputs = new LinkedHashMap<>();
+            NativeAppdomeBuild.outputs(request).forEach((output, path) ->
+                    outputs.put(output, path.startsWith(prefix) ? path.substring(prefix.length()) : path));
+            return outputs;
+        }
+    }
+
+    private static final class Submit extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AppdomeApiClient client;
+        private final AppdomeBuildRequest request;
+        private final TaskListener listener;
+
+        Submit(AppdomeApiClient client, AppdomeBuildRequest request, TaskListener listener) {
+            this.client = client;
+            this.request = request;
+            this.listener = listener;
+        }
+
+        @Override
+        public String invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            return NativeAppdomeBuild.submit(client, request, workspace, listener);
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, EnvVars.class, Launcher.class, TaskListener.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "appdomeSubmit";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Submit an app to Appdome Build-2secure";
+        }
+    }
+}
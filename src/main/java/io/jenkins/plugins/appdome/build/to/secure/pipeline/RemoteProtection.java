@@ -0,0 +1,182 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Run;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.api.TaskOutput;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
+import jenkins.security.CryptoConfidentialKey;
+import net.sf.json.JSONObject;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilderConstants.APPDOME_BUILDE2SECURE_VERSION;
+
+/**
+ * A protection submitted to Appdome by {@link AppdomeSubmitStep}, saved with the build so that the
+ * steps that wait for it and download its outputs can pick it up from where it is. The token and
+ * the signing passwords are kept encrypted. Signing files are kept next to the build until they
+ * have been sent, encrypted with a key of the controller that isn't saved with the build.
+ */
+public class RemoteProtection {
+
+    private static final CryptoConfidentialKey SIGN_FILES_KEY = new CryptoConfidentialKey(RemoteProtection.class, "signFiles");
+    private static final int IV_LENGTH = 16;
+
+    /**
+     * Where a protection is, in the order it goes through them.
+     */
+    public enum Stage {
+        BUILDING("Build"),
+        CONTEXT("Context"),
+        SIGNING("Signing"),
+        READY("Protection");
+
+        private final String operation;
+
+        Stage(String operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * @return what the stage does, for the log
+         */
+        public String getOperation() {
+            return operation;
+        }
+    }
+
+    private final String id;
+    private final String serverUrl;
+    private final Secret apiKey;
+    private final String teamId;
+    private final SignType signType;
+    private final Secret signOverrides;
+    private final Map<String, List<String>> signFiles;
+    private final Map<TaskOutput, String> outputs;
+    private Stage stage;
+    private String taskId;
+
+    /**
+     * @param signFiles the names of the signing files kept in {@link #getSignFilesDirectory}, by form field
+     * @param outputs   where to download the outputs, relative to the workspace unless absolute
+     * @param taskId    the build task
+     */
+    public RemoteProtection(String id, String serverUrl, String apiKey, @CheckForNull String teamId, SignType signType,
+                            JSONObject signOverrides, Map<String, List<String>> signFiles,
+                            Map<TaskOutput, String> outputs, String taskId) {
+        this.id = id;
+        this.serverUrl = serverUrl;
+        this.apiKey = Secret.fromString(apiKey);
+        this.teamId = teamId;
+        this.signType = signType;
+        this.signOverrides = Secret.fromString(signOverrides.toString());
+        this.signFiles = new LinkedHashMap<>(signFiles);
+        this.outputs = new LinkedHashMap<>(outputs);
+        this.stage = Stage.BUILDING;
+        this.taskId = taskId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public SignType getSignType() {
+        return signType;
+    }
+
+    public JSONObject getSignOverrides() {
+        return JSONObject.fromObject(signOverrides.getPlainText());
+    }
+
+    /**
+     * Keeps a signing file for a protection, encrypted.
+     *
+     * @param in     the content of the file
+     * @param target where to keep it, in {@link #getSignFilesDirectory}
+     */
+    public static void keepSignFile(InputStream in, File target) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        byte[] iv = SIGN_FILES_KEY.newIv(IV_LENGTH);
+        try (OutputStream out = Files.newOutputStream(target.toPath())) {
+            out.write(iv);
+            try (OutputStream encrypted = new CipherOutputStream(out, SIGN_FILES_KEY.encrypt(iv))) {
+                in.transferTo(encrypted);
+            }
+        }
+    }
+
+    /**
+     * @return the contents of the signing files by form field and file name
+     * @throws IOException if a file is gone or can't be decrypted
+     */
+    public Map<String, Map<String, byte[]>> readSignFiles(Run<?, ?> run) throws IOException {
+        File directory = getSignFilesDirectory(run);
+        Map<String, Map<String, byte[]>> files = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> field : signFiles.entrySet()) {
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            for (String name : field.getValue()) {
+                byte[] data = Files.readAllBytes(new File(directory, field.getKey() + File.separator + name).toPath());
+                if (data.length < IV_LENGTH) {
+                    throw new IOException("The signing file " + name + " is damaged");
+                }
+                Cipher cipher = SIGN_FILES_KEY.decrypt(Arrays.copyOf(data, IV_LENGTH));
+                try {
+                    // Kept as <n>-<name>, since profiles of different directories may share a name
+                    contents.put(name, cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH));
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Couldn't decrypt the signing file " + name, e);
+                }
+            }
+            files.put(field.getKey(), contents);
+        }
+        return files;
+    }
+
+    public File getSignFilesDirectory(Run<?, ?> run) {
+        return new File(run.getRootDir(), "appdome" + File.separator + id);
+    }
+
+    public Map<TaskOutput, String> getOutputs() {
+        return outputs;
+    }
+
+    public synchronized Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * @return the task of the current stage
+     */
+    public synchronized String getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * Moves on to the next stage, started as the given task. Callers save the build afterwards.
+     */
+    public synchronized void advance(Stage stage, String taskId) {
+        this.stage = stage;
+        this.taskId = taskId;
+    }
+
+    /**
+     * @return a client for the controller, which polls and downloads through the proxy settings of
+     * the controller's JVM, the build's environment is only known to the submit step
+     */
+    public AppdomeApiClient client() {
+        return new AppdomeApiClient(serverUrl, apiKey.getPlainText(), teamId, APPDOME_BUILDE2SECURE_VERSION);
+    }
+}
@@ -0,0 +1,123 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.kohsuke.stapler.export.Exported;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The manifest and signing state of an APK or App Bundle.
+ */
+public class AndroidApp extends AppMetadata {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String APK = "APK";
+    static final String AAB = "AAB";
+
+    private final String packageName;
+    private final String versionCode;
+    private final String versionName;
+    private final String minSdkVersion;
+    private final String targetSdkVersion;
+    private final boolean debuggable;
+    private final boolean testOnly;
+    private final boolean jarSigned;
+    private final boolean apkSigningBlock;
+
+    AndroidApp(String file, String format, String packageName, String versionCode, String versionName,
+               String minSdkVersion, String targetSdkVersion, boolean debuggable, boolean testOnly,
+               boolean jarSigned, boolean apkSigningBlock) {
+        super(file, format);
+        this.packageName = packageName;
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+        this.minSdkVersion = minSdkVersion;
+        this.targetSdkVersion = targetSdkVersion;
+        this.debuggable = debuggable;
+        this.testOnly = testOnly;
+        this.jarSigned = jarSigned;
+        this.apkSigningBlock = apkSigningBlock;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getPackageName() {
+        return packageName;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getVersionCode() {
+        return versionCode;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getVersionName() {
+        return versionName;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getMinSdkVersion() {
+        return minSdkVersion;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getTargetSdkVersion() {
+        return targetSdkVersion;
+    }
+
+    /**
+     * @return whether the manifest sets {@code android:debuggable}, as debug builds do
+     */
+    @Exported
+    public boolean isDebuggable() {
+        return debuggable;
+    }
+
+    /**
+     * @return whether the manifest sets {@code android:testOnly}, as builds run from the IDE do
+     */
+    @Exported
+    public boolean isTestOnly() {
+        return testOnly;
+    }
+
+    /**
+     * @return the signatures found: v1 for a JAR signature, v2+ for an APK signing block, empty if unsigned
+     */
+    @Exported
+    public List<String> getSignatures() {
+        List<String> signatures = new ArrayList<>();
+        if (jarSigned) {
+            signatures.add("v1");
+        }
+        if (apkSigningBlock) {
+            signatures.add("v2+");
+        }
+        return signatures;
+    }
+
+    @Override
+    public Map<String, String> getDetails() {
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("package", packageName);
+        details.put("version", versionName == null ? versionCode : versionName + " (" + versionCode + ")");
+        details.put("min SDK", minSdkVersion == null ? "1" : minSdkVersion);
+        if (targetSdkVersion != null) {
+            details.put("target SDK", targetSdkVersion);
+        }
+        List<String> signatures = getSignatures();
+        details.put("signed", signatures.isEmpty() ? "no" : String.join(", ", signatures));
+        if (debuggable) {
+            details.put("debuggable", "yes");
+        }
+        return details;
+    }
+}
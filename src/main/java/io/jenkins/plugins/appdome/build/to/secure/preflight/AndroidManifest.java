@@ -0,0 +1,395 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The elements of a compiled AndroidManifest.xml, in document order. APKs hold the manifest as
+ * binary XML, App Bundles as the protocol buffer XML of aapt2; both are read here without the
+ * Android tools. Attributes are keyed by their name without namespace, e.g. {@code versionCode}.
+ */
+final class AndroidManifest {
+
+    /**
+     * Names of the framework attributes the manifest is checked for, by resource id, for
+     * manifests whose attribute names were stripped.
+     */
+    private static final Map<Integer, String> ATTRIBUTE_NAMES = Map.of(
+            0x0101000f, "debuggable",
+            0x0101020c, "minSdkVersion",
+            0x0101021b, "versionCode",
+            0x0101021c, "versionName",
+            0x01010270, "targetSdkVersion",
+            0x01010272, "testOnly");
+
+    static final class Element {
+
+        String name;
+        final int depth;
+        final Map<String, String> attributes = new LinkedHashMap<>();
+
+        Element(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+
+        @CheckForNull
+        String get(String attribute) {
+            return attributes.get(attribute);
+        }
+    }
+
+    private final List<Element> elements;
+
+    private AndroidManifest(List<Element> elements) {
+        this.elements = Collections.unmodifiableList(elements);
+    }
+
+    List<Element> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return the first element with the given name, or null
+     */
+    @CheckForNull
+    Element first(String name) {
+        for (Element element : elements) {
+            if (element.name.equals(name)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    // Binary XML of APKs, see ResourceTypes.h of the Android framework
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int UTF8_FLAG = 1 << 8;
+    private static final int TYPE_REFERENCE = 0x01;
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int TYPE_INT_HEX = 0x11;
+    private static final int TYPE_INT_BOOLEAN = 0x12;
+
+    static AndroidManifest fromBinaryXml(byte[] data) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            if ((buffer.getShort(0) & 0xFFFF) != RES_XML_TYPE) {
+                throw new IOException("AndroidManifest.xml isn't binary XML");
+            }
+            List<String> strings = Collections.emptyList();
+            int[] resourceIds = new int[0];
+            List<Element> elements = new ArrayList<>();
+            int depth = 0;
+            int chunk = buffer.getShort(2) & 0xFFFF;
+            while (chunk + 8 <= data.length) {
+                int type = buffer.getShort(chunk) & 0xFFFF;
+                int headerSize = buffer.getShort(chunk + 2) & 0xFFFF;
+                int size = buffer.getInt(chunk + 4);
+                if (size < 8 || chunk + size > data.length) {
+                    throw new IOException("AndroidManifest.xml is truncated");
+                }
+                if (type == RES_STRING_POOL_TYPE) {
+                    strings = stringPool(buffer, chunk, headerSize);
+                } else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+                    resourceIds = new int[(size - headerSize) / 4];
+                    for (int i = 0; i < resourceIds.length; i++) {
+                        resourceIds[i] = buffer.getInt(chunk + headerSize + 4 * i);
+                    }
+                } else if (type == RES_XML_START_ELEMENT_TYPE) {
+                    int extension = chunk + headerSize;
+                    Element element = new Element(string(strings, buffer.getInt(extension + 4)), depth++);
+                    int attributeStart = buffer.getShort(extension + 8) & 0xFFFF;
+                    int attributeSize = buffer.getShort(extension + 10) & 0xFFFF;
+                    int attributeCount = buffer.getShort(extension + 12) & 0xFFFF;
+                    for (int i = 0; i < attributeCount; i++) {
+                        int attribute = extension + attributeStart + i * attributeSize;
+                        int nameIndex = buffer.getInt(attribute + 4);
+                        String name = string(strings, nameIndex);
+                        if (nameIndex >= 0 && nameIndex < resourceIds.length && ATTRIBUTE_NAMES.containsKey(resourceIds[nameIndex])) {
+                            name = ATTRIBUTE_NAMES.get(resourceIds[nameIndex]);
+                        }
+                        int rawValue = buffer.getInt(attribute + 8);
+                        int dataType = buffer.get(attribute + 15) & 0xFF;
+                        int value = buffer.getInt(attribute + 16);
+                        element.attributes.put(name, rawValue != -1 ? string(strings, rawValue) : typedValue(strings, dataType, value));
+                    }
+                    elements.add(element);
+                } else if (type == RES_XML_END_ELEMENT_TYPE) {
+                    depth--;
+                }
+                chunk += size;
+            }
+            return new AndroidManifest(elements);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("AndroidManifest.xml is corrupt");
+        }
+    }
+
+    private static List<String> stringPool(ByteBuffer buffer, int chunk, int headerSize) {
+        int count = buffer.getInt(chunk + 8);
+        int flags = buffer.getInt(chunk + 16);
+        int stringsStart = buffer.getInt(chunk + 20);
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = chunk + stringsStart + buffer.getInt(chunk + headerSize + 4 * i);
+            if ((flags & UTF8_FLAG) != 0) {
+                // The length in UTF-16 units, then in bytes, each on one or two bytes
+                offset += (buffer.get(offset) & 0x80) != 0 ? 2 : 1;
+                int length = buffer.get(offset) & 0xFF;
+                if ((length & 0x80) != 0) {
+                    length = (length & 0x7F) << 8 | buffer.get(offset + 1) & 0xFF;
+                    offset++;
+                }
+                strings.add(new String(buffer.array(), offset + 1, length, StandardCharsets.UTF_8));
+            } else {
+                int length = buffer.getShort(offset) & 0xFFFF;
+                if ((length & 0x8000) != 0) {
+                    length = (length & 0x7FFF) << 16 | buffer.getShort(offset + 2) & 0xFFFF;
+                    offset += 2;
+                }
+                strings.add(new String(buffer.array(), offset + 2, length * 2, StandardCharsets.UTF_16LE));
+            }
+        }
+        return strings;
+    }
+
+    private static String string(List<String> strings, int index) {
+        return index >= 0 && index < strings.size() ? strings.get(index) : "";
+    }
+
+    private static String typedValue(List<String> strings, int dataType, int value) {
+        switch (dataType) {
+            case TYPE_STRING:
+                return string(strings, value);
+            case TYPE_INT_DEC:
+                return Integer.toString(value);
+            case TYPE_INT_HEX:
+                return "0x" + Integer.toHexString(value);
+            case TYPE_INT_BOOLEAN:
+                return Boolean.toString(value != 0);
+            case TYPE_REFERENCE:
+                return "@0x" + Integer.toHexString(value);
+            default:
+                return "";
+        }
+    }
+
+    // Protocol buffer XML of App Bundles, see Resources.proto of aapt2
+
+    static AndroidManifest fromProtoXml(byte[] data) throws IOException {
+        List<Element> elements = new ArrayList<>();
+        try {
+            node(new ProtoReader(data, 0, data.length), 0, elements);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("AndroidManifest.xml is corrupt");
+        }
+        return new AndroidManifest(elements);
+    }
+
+    /**
+     * Reads an XmlNode: an element (1) or text (2).
+     */
+    private static void node(ProtoReader node, int depth, List<Element> elements) throws IOException {
+        while (node.hasNext()) {
+            int field = node.next();
+            if (field == 1) {
+                element(node.message(), depth, elements);
+            } else {
+                node.skip();
+            }
+        }
+    }
+
+    /**
+     * Reads an XmlElement: its name (3), attributes (4) and children (5).
+     */
+    private static void element(ProtoReader element, int depth, List<Element> elements) throws IOException {
+        Element result = new Element("", depth);
+        elements.add(result);
+        List<ProtoReader> children = new ArrayList<>();
+        while (element.hasNext()) {
+            int field = element.next();
+            if (field == 3) {
+                result.name = element.string();
+            } else if (field == 4) {
+                attribute(element.message(), result);
+            } else if (field == 5) {
+                children.add(element.message());
+            } else {
+                element.skip();
+            }
+        }
+        for (ProtoReader child : children) {
+            node(child, depth + 1, elements);
+        }
+    }
+
+    /**
+     * Reads an XmlAttribute: its name (2), value (3), resource id (5) and compiled value (6).
+     */
+    private static void attribute(ProtoReader attribute, Element element) throws IOException {
+        String name = "";
+        String value = "";
+        String compiled = null;
+        int resourceId = 0;
+        while (attribute.hasNext()) {
+            int field = attribute.next();
+            if (field == 2) {
+                name = attribute.string();
+            } else if (field == 3) {
+                value = attribute.string();
+            } else if (field == 5) {
+                resourceId = (int) attribute.varint();
+            } else if (field == 6) {
+                compiled = item(attribute.message());
+            } else {
+                attribute.skip();
+            }
+        }
+        if (name.isEmpty() && ATTRIBUTE_NAMES.containsKey(resourceId)) {
+            name = ATTRIBUTE_NAMES.get(resourceId);
+        }
+        element.attributes.put(name, value.isEmpty() && compiled != null ? compiled : value);
+    }
+
+    /**
+     * Reads the value of an Item: a string (2) or a primitive (7), which is what the manifest
+     * attributes that are checked hold.
+     */
+    @CheckForNull
+    private static String item(ProtoReader item) throws IOException {
+        String value = null;
+        while (item.hasNext()) {
+            int field = item.next();
+            if (field == 2) {
+                ProtoReader string = item.message();
+                while (string.hasNext()) {
+                    if (string.next() == 1) {
+                        value = string.string();
+                    } else {
+                        string.skip();
+                    }
+                }
+            } else if (field == 7) {
+                ProtoReader primitive = item.message();
+                while (primitive.hasNext()) {
+                    int primitiveField = primitive.next();
+                    if (primitiveField == 6) {
+                        value = Integer.toString((int) primitive.varint());
+                    } else if (primitiveField == 7) {
+                        value = "0x" + Integer.toHexString((int) primitive.varint());
+                    } else if (primitiveField == 8) {
+                        value = Boolean.toString(primitive.varint() != 0);
+                    } else {
+                        primitive.skip();
+                    }
+                }
+            } else {
+                item.skip();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the fields of a protocol buffer message, one at a time.
+     */
+    private static final class ProtoReader {
+
+        private final byte[] data;
+        private int position;
+        private final int end;
+        private int wireType;
+
+        ProtoReader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        /**
+         * @return the number of the next field, whose value is read next
+         */
+        int next() throws IOException {
+            long key = varint();
+            wireType = (int) (key & 7);
+            return (int) (key >>> 3);
+        }
+
+        long varint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end) {
+                    throw new IOException("AndroidManifest.xml is truncated");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("AndroidManifest.xml is corrupt");
+        }
+
+        ProtoReader message() throws IOException {
+            int length = length();
+            ProtoReader message = new ProtoReader(data, position, position + length);
+            position += length;
+            return message;
+        }
+
+        String string() throws IOException {
+            int length = length();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip() throws IOException {
+            switch (wireType) {
+                case 0:
+                    varint();
+                    break;
+                case 1:
+                    position += 8;
+                    break;
+                case 2:
+                    int length = length();
+                    position += length;
+                    break;
+                case 5:
+                    position += 4;
+                    break;
+                default:
+                    throw new IOException("AndroidManifest.xml is corrupt");
+            }
+        }
+
+        private int length() throws IOException {
+            long length = varint();
+            if (length < 0 || length > end - position) {
+                throw new IOException("AndroidManifest.xml is truncated");
+            }
+            return (int) length;
+        }
+    }
+}
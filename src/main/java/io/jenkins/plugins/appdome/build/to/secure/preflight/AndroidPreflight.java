@@ -0,0 +1,112 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import hudson.AbortException;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads an APK or App Bundle from its central directory and manifest, and tells what Appdome
+ * would reject or build wrong.
+ */
+final class AndroidPreflight {
+
+    private static final String APK_MANIFEST = "AndroidManifest.xml";
+    private static final String AAB_MANIFEST = "base/manifest/AndroidManifest.xml";
+    private static final int MAX_MANIFEST_SIZE = 4 * 1024 * 1024;
+
+    private AndroidPreflight() {
+    }
+
+    /**
+     * @throws AbortException if the file isn't an Android app at all
+     * @throws IOException    if it couldn't be read
+     */
+    static AndroidApp inspect(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ZipDirectory zip;
+            try {
+                zip = ZipDirectory.read(channel);
+            } catch (ZipDirectory.NotZipException e) {
+                throw new AbortException(file.getName() + " isn't an APK or App Bundle, it isn't a ZIP file");
+            }
+            String format;
+            AndroidManifest manifest;
+            if (zip.contains(APK_MANIFEST)) {
+                format = AndroidApp.APK;
+                manifest = AndroidManifest.fromBinaryXml(zip.read(APK_MANIFEST, MAX_MANIFEST_SIZE));
+            } else if (zip.contains(AAB_MANIFEST)) {
+                format = AndroidApp.AAB;
+                manifest = AndroidManifest.fromProtoXml(zip.read(AAB_MANIFEST, MAX_MANIFEST_SIZE));
+            } else {
+                throw new AbortException(file.getName() + " has no AndroidManifest.xml, it isn't an APK or App Bundle");
+            }
+
+            AndroidManifest.Element root = manifest.first("manifest");
+            AndroidManifest.Element sdk = manifest.first("uses-sdk");
+            AndroidManifest.Element application = manifest.first("application");
+            boolean jarSigned = zip.names().stream().anyMatch(AndroidPreflight::isJarSignature);
+            return new AndroidApp(file.getName(), format,
+                    attribute(root, "package"), attribute(root, "versionCode"), attribute(root, "versionName"),
+                    attribute(sdk, "minSdkVersion"), attribute(sdk, "targetSdkVersion"),
+                    "true".equals(attribute(application, "debuggable")), "true".equals(attribute(application, "testOnly")),
+                    jarSigned, format.equals(AndroidApp.APK) && zip.hasApkSigningBlock());
+        }
+    }
+
+    private static String attribute(AndroidManifest.Element element, String name) {
+        String value = element == null ? null : element.get(name);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static boolean isJarSignature(String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        return upper.startsWith("META-INF/") && upper.indexOf('/', "META-INF/".length()) < 0
+                && (upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC"));
+    }
+
+    /**
+     * Checks an app against the request it is protected with.
+     *
+     * @param problems where to add what fails the protection
+     * @param warnings where to add what is worth a look
+     */
+    static void check(AndroidApp app, AppdomeBuildRequest request, List<String> problems, List<String> warnings) {
+        String name = app.getFile();
+        String extension = name.toLowerCase(Locale.ROOT);
+        if (extension.endsWith(".apk") && app.getFormat().equals(AndroidApp.AAB)) {
+            problems.add(name + " is an App Bundle, not an APK, name it .aab");
+        } else if (extension.endsWith(".aab") && app.getFormat().equals(AndroidApp.APK)) {
+            problems.add(name + " is an APK, not an App Bundle, name it .apk");
+        }
+        if (request.getSecondOutput() != null && app.getFormat().equals(AndroidApp.APK)) {
+            problems.add("the second output is a universal APK built from an App Bundle, but " + name + " is an APK");
+        }
+        if (app.getPackageName() == null) {
+            problems.add(name + " has no package name in its manifest");
+        }
+        if (app.isDebuggable()) {
+            warnings.add(name + " is a debug build (android:debuggable)");
+        }
+        if (app.isTestOnly()) {
+            warnings.add(name + " is marked android:testOnly, stores don't install it");
+        }
+    }
+
+    static final class Inspect extends MasterToSlaveFileCallable<AndroidApp> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public AndroidApp invoke(File f, VirtualChannel channel) throws IOException {
+            return inspect(f);
+        }
+    }
+}
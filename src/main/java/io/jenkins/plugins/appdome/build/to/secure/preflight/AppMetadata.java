@@ -0,0 +1,55 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * What the preflight read from an app before it was uploaded, kept with the build by
+ * {@link AppdomePreflightAction}.
+ */
+@ExportedBean(defaultVisibility = 3)
+public abstract class AppMetadata implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String file;
+    private final String format;
+
+    protected AppMetadata(String file, String format) {
+        this.file = file;
+        this.format = format;
+    }
+
+    /**
+     * @return the file name of the app
+     */
+    @Exported
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return the kind of package, e.g. APK
+     */
+    @Exported
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return what was read, by label, as the build page shows it
+     */
+    public abstract Map<String, String> getDetails();
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(file).append(" (").append(format).append(")");
+        for (Map.Entry<String, String> detail : getDetails().entrySet()) {
+            text.append(", ").append(detail.getKey()).append(' ').append(detail.getValue());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import io.jenkins.plugins.appdome.build.to.secure.platform.PlatformType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the app of a protection on the agent before it is uploaded, so that a wrong file, e.g.
+ * an App Bundle named .apk, or an IPA whose extension no provisioning profile covers, fails the
+ * build in milliseconds rather than on Appdome after the upload. Only the central directory of
+ * the app and the entries that are checked are read.
+ * <p>
+ * The preflight only fails the build for what is certainly wrong. An app it can't make sense of
+ * is left for Appdome to judge. It is off until an administrator turns it on in
+ * {@link AppdomeGlobalConfiguration}.
+ */
+public final class AppdomePreflight {
+
+    private AppdomePreflight() {
+    }
+
+    /**
+     * Inspects and checks the app of a request, and keeps what was read with the build.
+     *
+     * @param run            the build to keep what was read with, or null not to
+     * @param agentWorkspace the workspace the paths of the request are relative to
+     * @param platform       the platform of the app, or null if unknown, which isn't checked
+     * @throws AbortException if the app can't be protected as requested
+     */
+    public static void check(@CheckForNull Run<?, ?> run, FilePath agentWorkspace, AppdomeBuildRequest request, PlatformType platform, TaskListener listener) throws IOException, InterruptedException {
+        if (!AppdomeGlobalConfiguration.get().isPreflightEnabled() || request.getAppPath() == null || platform == null) {
+            return;
+        }
+        FilePath app = agentWorkspace.child(request.getAppPath());
+        AppMetadata metadata;
+        try {
+            metadata = platform == PlatformType.ANDROID ? app.act(new AndroidPreflight.Inspect())
+                    : agentWorkspace.act(new IosPreflight.Inspect(request.getAppPath(), request.getProvisioningProfiles(), request.getEntitlements()));
+        } catch (AbortException e) {
+            throw new AbortException("Preflight failed: " + e.getMessage());
+        } catch (IOException e) {
+            listener.getLogger().println("Preflight couldn't inspect " + app.getName() + " (" + e.getMessage() + "), leaving it to Appdome");
+            return;
+        }
+        listener.getLogger().println("Preflight: " + metadata);
+        if (run != null) {
+            AppdomePreflightAction.of(run).add(metadata);
+        }
+
+        List<String> problems = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        if (metadata instanceof AndroidApp) {
+            AndroidPreflight.check((AndroidApp) metadata, request, problems, warnings);
+        } else {
+            IosPreflight.check((IosApp) metadata, request, System.currentTimeMillis(), problems, warnings);
+        }
+        for (String warning : warnings) {
+            listener.getLogger().println("Preflight warning: " + warning);
+        }
+        if (!problems.isEmpty()) {
+            throw new AbortException("Preflight failed: " + String.join("; ", problems));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps what the preflight read from each app of a build, e.g. the package name and version of
+ * an APK. Shown on the build page and exported by the remote API, e.g.
+ * {@code api/json?tree=actions[apps[*]]}.
+ */
+@ExportedBean
+public class AppdomePreflightAction implements RunAction2 {
+
+    private final List<AppMetadata> apps = new ArrayList<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * @return the action of the build, added if it has none yet
+     */
+    public static synchronized AppdomePreflightAction of(Run<?, ?> run) {
+        AppdomePreflightAction action = run.getAction(AppdomePreflightAction.class);
+        if (action == null) {
+            action = new AppdomePreflightAction();
+            run.addAction(action);
+        }
+        return action;
+    }
+
+    public synchronized void add(AppMetadata app) {
+        apps.add(app);
+    }
+
+    @Exported(visibility = 2)
+    public synchronized List<AppMetadata> getApps() {
+        return new ArrayList<>(apps);
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Appdome preflight";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
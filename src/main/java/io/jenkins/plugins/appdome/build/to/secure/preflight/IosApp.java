@@ -0,0 +1,150 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+
+/**
+ * The bundles of an IPA, the app and its extensions, with the provisioning profiles and
+ * entitlements it is signed with.
+ */
+public class IosApp extends AppMetadata {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String IPA = "IPA";
+
+    private final List<Bundle> bundles;
+    private final List<ProvisioningProfile> profiles;
+    private final Map<String, Map<String, Object>> entitlements;
+    private final List<String> unreadable;
+
+    IosApp(String file, List<Bundle> bundles, List<ProvisioningProfile> profiles,
+           Map<String, Map<String, Object>> entitlements, List<String> unreadable) {
+        super(file, IPA);
+        this.bundles = new ArrayList<>(bundles);
+        this.profiles = new ArrayList<>(profiles);
+        this.entitlements = new LinkedHashMap<>(entitlements);
+        this.unreadable = new ArrayList<>(unreadable);
+    }
+
+    /**
+     * @return the app first, then the bundles nested in it
+     */
+    @Exported
+    public List<Bundle> getBundles() {
+        return Collections.unmodifiableList(bundles);
+    }
+
+    @Exported
+    public List<ProvisioningProfile> getProfiles() {
+        return Collections.unmodifiableList(profiles);
+    }
+
+    /**
+     * @return the entitlements by the name of their file
+     */
+    Map<String, Map<String, Object>> getEntitlements() {
+        return Collections.unmodifiableMap(entitlements);
+    }
+
+    /**
+     * @return why each signing file that couldn't be read wasn't
+     */
+    List<String> getUnreadable() {
+        return Collections.unmodifiableList(unreadable);
+    }
+
+    @Override
+    public Map<String, String> getDetails() {
+        Map<String, String> details = new LinkedHashMap<>();
+        Bundle app = bundles.get(0);
+        details.put("bundle id", app.getBundleId());
+        details.put("version", app.getShortVersion() == null ? app.getVersion() : app.getShortVersion() + " (" + app.getVersion() + ")");
+        if (app.getMinimumOsVersion() != null) {
+            details.put("min iOS", app.getMinimumOsVersion());
+        }
+        if (bundles.size() > 1) {
+            details.put("extensions", bundles.subList(1, bundles.size()).stream()
+                    .map(Bundle::getBundleId).collect(Collectors.joining(", ")));
+        }
+        for (ProvisioningProfile profile : profiles) {
+            details.put("profile " + profile.getFile(), profile.getName()
+                    + (profile.getExpirationDate() == null ? "" : ", expires " + formatDate(profile.getExpirationDate())));
+        }
+        return details;
+    }
+
+    /**
+     * @return the day of a date, in UTC as profiles are
+     */
+    static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class Bundle implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final String bundleId;
+        private final String shortVersion;
+        private final String version;
+        private final String minimumOsVersion;
+
+        Bundle(String path, String bundleId, String shortVersion, String version, String minimumOsVersion) {
+            this.path = path;
+            this.bundleId = bundleId;
+            this.shortVersion = shortVersion;
+            this.version = version;
+            this.minimumOsVersion = minimumOsVersion;
+        }
+
+        /**
+         * @return the directory of the bundle in the IPA, e.g. {@code Payload/App.app/PlugIns/Widget.appex}
+         */
+        @Exported
+        public String getPath() {
+            return path;
+        }
+
+        @Exported
+        @CheckForNull
+        public String getBundleId() {
+            return bundleId;
+        }
+
+        @Exported
+        @CheckForNull
+        public String getShortVersion() {
+            return shortVersion;
+        }
+
+        @Exported
+        @CheckForNull
+        public String getVersion() {
+            return version;
+        }
+
+        @Exported
+        @CheckForNull
+        public String getMinimumOsVersion() {
+            return minimumOsVersion;
+        }
+    }
+}
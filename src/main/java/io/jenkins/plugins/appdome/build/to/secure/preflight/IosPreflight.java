@@ -0,0 +1,218 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import hudson.AbortException;
+import hudson.remoting.VirtualChannel;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reads an IPA from its central directory and the Info.plist of each bundle, with the
+ * provisioning profiles and entitlements it is to be signed with, and tells whether they fit:
+ * each bundle is covered by a profile that hasn't expired, and each entitlement is granted by
+ * the profiles.
+ */
+final class IosPreflight {
+
+    /**
+     * The Info.plist of the app and of the bundles Appdome signs with it: extensions, watch apps
+     * and app clips. Frameworks and resource bundles have an Info.plist too, but no profile.
+     */
+    private static final Pattern BUNDLE_INFO = Pattern.compile(
+            "Payload/[^/]+\\.app(/(PlugIns|Extensions|Watch|AppClips)/[^/]+\\.(app|appex))*/Info\\.plist");
+    private static final int MAX_PLIST_SIZE = 1024 * 1024;
+    private static final long EXPIRY_WARNING_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Entitlements that tie the app to its profile rather than grant something, checked through
+     * the bundle ids instead.
+     */
+    private static final Set<String> IDENTITY_ENTITLEMENTS = Set.of("application-identifier", "com.apple.developer.team-identifier");
+
+    private IosPreflight() {
+    }
+
+    /**
+     * @throws AbortException if the file isn't an IPA at all
+     * @throws IOException    if it couldn't be read
+     */
+    static IosApp inspect(File ipa, List<File> profiles, List<File> entitlements) throws IOException {
+        List<IosApp.Bundle> bundles = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(ipa.toPath(), StandardOpenOption.READ)) {
+            ZipDirectory zip;
+            try {
+                zip = ZipDirectory.read(channel);
+            } catch (ZipDirectory.NotZipException e) {
+                throw new AbortException(ipa.getName() + " isn't an IPA, it isn't a ZIP file");
+            }
+            List<String> infos = zip.names().stream().filter(name -> BUNDLE_INFO.matcher(name).matches())
+                    .sorted(Comparator.comparingLong((String name) -> name.chars().filter(c -> c == '/').count())
+                            .thenComparing(Comparator.naturalOrder()))
+                    .collect(Collectors.toList());
+            if (infos.isEmpty()) {
+                throw new AbortException(ipa.getName() + " has no Payload/*.app/Info.plist, it isn't an IPA");
+            }
+            for (String info : infos) {
+                Map<String, Object> plist = PropertyList.parseDictionary(zip.read(info, MAX_PLIST_SIZE), info);
+                bundles.add(new IosApp.Bundle(info.substring(0, info.lastIndexOf('/')),
+                        string(plist, "CFBundleIdentifier"), string(plist, "CFBundleShortVersionString"),
+                        string(plist, "CFBundleVersion"), string(plist, "MinimumOSVersion")));
+            }
+        }
+
+        // A signing file that can't be read is reported, not thrown, so that the app is still described
+        List<String> unreadable = new ArrayList<>();
+        List<ProvisioningProfile> readProfiles = new ArrayList<>();
+        for (File profile : profiles) {
+            try {
+                readProfiles.add(ProvisioningProfile.read(profile));
+            } catch (IOException e) {
+                unreadable.add(profile.getName() + " (" + e.getMessage() + ")");
+            }
+        }
+        Map<String, Map<String, Object>> readEntitlements = new LinkedHashMap<>();
+        for (File file : entitlements) {
+            try {
+                if (file.length() > MAX_PLIST_SIZE) {
+                    throw new IOException("too large for entitlements");
+                }
+                readEntitlements.put(file.getName(), PropertyList.parseDictionary(Files.readAllBytes(file.toPath()), file.getName()));
+            } catch (IOException e) {
+                unreadable.add(file.getName() + " (" + e.getMessage() + ")");
+            }
+        }
+        return new IosApp(ipa.getName(), bundles, readProfiles, readEntitlements, unreadable);
+    }
+
+    private static String string(Map<String, Object> plist, String key) {
+        Object value = plist.get(key);
+        return value instanceof String && !((String) value).isEmpty() ? (String) value : null;
+    }
+
+    /**
+     * Checks an app against the profiles and entitlements it is signed with.
+     *
+     * @param now      the current time, in milliseconds since the epoch
+     * @param problems where to add what fails the protection
+     * @param warnings where to add what is worth a look
+     */
+    static void check(IosApp app, AppdomeBuildRequest request, long now, List<String> problems, List<String> warnings) {
+        for (IosApp.Bundle bundle : app.getBundles()) {
+            if (bundle.getBundleId() == null) {
+                problems.add(bundle.getPath() + " has no CFBundleIdentifier in its Info.plist");
+            }
+        }
+        if (request.getSignType() == SignType.NONE) {
+            return;
+        }
+        List<ProvisioningProfile> profiles = app.getProfiles();
+        for (ProvisioningProfile profile : profiles) {
+            if (profile.getExpirationDate() == null) {
+                continue;
+            }
+            long expiration = profile.getExpirationDate().getTime();
+            if (expiration <= now) {
+                problems.add(profile.getFile() + " (" + profile.getName() + ") expired on " + IosApp.formatDate(profile.getExpirationDate()));
+            } else if (expiration - now < EXPIRY_WARNING_MILLIS) {
+                warnings.add(profile.getFile() + " (" + profile.getName() + ") expires on " + IosApp.formatDate(profile.getExpirationDate()));
+            }
+        }
+        if (!app.getUnreadable().isEmpty()) {
+            warnings.add("couldn't read " + String.join(", ", app.getUnreadable())
+                    + ", the profiles aren't checked against the app");
+            return;
+        }
+        if (profiles.isEmpty()) {
+            return;
+        }
+
+        for (IosApp.Bundle bundle : app.getBundles()) {
+            if (bundle.getBundleId() != null && profiles.stream().noneMatch(profile -> profile.covers(bundle.getBundleId()))) {
+                problems.add("no provisioning profile covers " + bundle.getBundleId() + " (" + bundle.getPath() + ")");
+            }
+        }
+        for (ProvisioningProfile profile : profiles) {
+            if (app.getBundles().stream().noneMatch(bundle -> bundle.getBundleId() != null && profile.covers(bundle.getBundleId()))) {
+                warnings.add(profile.getFile() + " (" + profile.getApplicationIdentifier() + ") covers none of the bundles of " + app.getFile());
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Object>> file : app.getEntitlements().entrySet()) {
+            Object applicationIdentifier = file.getValue().get("application-identifier");
+            String bundleId = applicationIdentifier instanceof String && ((String) applicationIdentifier).contains(".")
+                    ? ((String) applicationIdentifier).substring(((String) applicationIdentifier).indexOf('.') + 1) : null;
+            // Entitlements for a bundle are checked against its profiles, others against any profile
+            List<ProvisioningProfile> candidates = bundleId == null ? profiles
+                    : profiles.stream().filter(profile -> profile.covers(bundleId)).collect(Collectors.toList());
+            if (candidates.isEmpty()) {
+                problems.add(file.getKey() + " is for " + bundleId + ", which no provisioning profile covers");
+                continue;
+            }
+            for (Map.Entry<String, Object> entitlement : file.getValue().entrySet()) {
+                if (IDENTITY_ENTITLEMENTS.contains(entitlement.getKey()) || hasBuildVariable(entitlement.getValue())) {
+                    continue;
+                }
+                if (candidates.stream().noneMatch(profile -> profile.allows(entitlement.getKey(), entitlement.getValue()))) {
+                    problems.add(file.getKey() + ": " + entitlement.getKey() + " isn't granted by "
+                            + candidates.stream().map(ProvisioningProfile::getFile).collect(Collectors.joining(", ")));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether a value still holds an Xcode build variable, e.g. {@code $(AppIdentifierPrefix)},
+     * which only the build resolves
+     */
+    private static boolean hasBuildVariable(Object value) {
+        if (value instanceof String) {
+            return ((String) value).contains("$(");
+        }
+        if (value instanceof List) {
+            return ((List<?>) value).stream().anyMatch(IosPreflight::hasBuildVariable);
+        }
+        return false;
+    }
+
+    static final class Inspect extends MasterToSlaveFileCallable<IosApp> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String appPath;
+        private final List<String> profiles;
+        private final List<String> entitlements;
+
+        Inspect(String appPath, List<String> profiles, List<String> entitlements) {
+            this.appPath = appPath;
+            this.profiles = new ArrayList<>(profiles);
+            this.entitlements = new ArrayList<>(entitlements);
+        }
+
+        @Override
+        public IosApp invoke(File workspace, VirtualChannel channel) throws IOException {
+            return inspect(resolve(workspace, appPath),
+                    profiles.stream().map(path -> resolve(workspace, path)).collect(Collectors.toList()),
+                    entitlements.stream().map(path -> resolve(workspace, path)).collect(Collectors.toList()));
+        }
+
+        private static File resolve(File workspace, String path) {
+            File file = new File(path);
+            return file.isAbsolute() ? file : new File(workspace, path);
+        }
+    }
+}
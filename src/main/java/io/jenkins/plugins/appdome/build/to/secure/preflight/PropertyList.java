@@ -0,0 +1,309 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads Apple property lists, XML or binary, into plain Java values: dictionaries become
+ * {@link LinkedHashMap}s, arrays {@link ArrayList}s, and the other types {@link String},
+ * {@link Long}, {@link Double}, {@link Boolean}, {@link Date} and {@code byte[]}.
+ */
+final class PropertyList {
+
+    private static final byte[] BINARY_MAGIC = "bplist00".getBytes(StandardCharsets.US_ASCII);
+    private static final long APPLE_EPOCH_SECONDS = 978307200;
+    private static final int MAX_DEPTH = 64;
+
+    private PropertyList() {
+    }
+
+    /**
+     * @return the top object of the property list
+     */
+    static Object parse(byte[] data) throws IOException {
+        if (data.length >= BINARY_MAGIC.length && startsWith(data, BINARY_MAGIC)) {
+            return new Binary(data).top();
+        }
+        return parseXml(data);
+    }
+
+    /**
+     * @return the property list as a dictionary
+     * @throws IOException if its top object isn't one
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseDictionary(byte[] data, String name) throws IOException {
+        Object top = parse(data);
+        if (!(top instanceof Map)) {
+            throw new IOException(name + " isn't a property list dictionary");
+        }
+        return (Map<String, Object>) top;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // XML property lists
+
+    private static Object parseXml(byte[] data) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Property lists name Apple's DTD, which mustn't be fetched
+            builder.setEntityResolver((publicId, systemId) -> new InputSource(new StringReader("")));
+            document = builder.parse(new ByteArrayInputStream(data));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("invalid property list: " + e.getMessage());
+        }
+        Element root = document.getDocumentElement();
+        if (!root.getTagName().equals("plist")) {
+            throw new IOException("invalid property list: no plist element");
+        }
+        Element top = firstChild(root);
+        if (top == null) {
+            throw new IOException("invalid property list: empty");
+        }
+        return xmlValue(top, 0);
+    }
+
+    private static Object xmlValue(Element element, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("invalid property list: too deep");
+        }
+        String text = element.getTextContent();
+        switch (element.getTagName()) {
+            case "dict":
+                Map<String, Object> dictionary = new LinkedHashMap<>();
+                String key = null;
+                for (Element child = firstChild(element); child != null; child = nextSibling(child)) {
+                    if (key == null) {
+                        if (!child.getTagName().equals("key")) {
+                            throw new IOException("invalid property list: " + child.getTagName() + " without key");
+                        }
+                        key = child.getTextContent();
+                    } else {
+                        dictionary.put(key, xmlValue(child, depth + 1));
+                        key = null;
+                    }
+                }
+                return dictionary;
+            case "array":
+                List<Object> array = new ArrayList<>();
+                for (Element child = firstChild(element); child != null; child = nextSibling(child)) {
+                    array.add(xmlValue(child, depth + 1));
+                }
+                return array;
+            case "string":
+                return text;
+            case "integer":
+                try {
+                    return Long.parseLong(text.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid property list integer: " + text);
+                }
+            case "real":
+                try {
+                    return Double.parseDouble(text.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid property list real: " + text);
+                }
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "date":
+                try {
+                    return Date.from(Instant.parse(text.trim()));
+                } catch (DateTimeParseException e) {
+                    throw new IOException("invalid property list date: " + text);
+                }
+            case "data":
+                try {
+                    return Base64.getMimeDecoder().decode(text.trim());
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("invalid property list data");
+                }
+            default:
+                throw new IOException("invalid property list: unknown element " + element.getTagName());
+        }
+    }
+
+    private static Element firstChild(Node node) {
+        return element(node.getFirstChild());
+    }
+
+    private static Element nextSibling(Node node) {
+        return element(node.getNextSibling());
+    }
+
+    private static Element element(Node node) {
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        return (Element) node;
+    }
+
+    // Binary property lists, see CFBinaryPList.c of CoreFoundation
+
+    private static final class Binary {
+
+        private final ByteBuffer data;
+        private final int offsetSize;
+        private final int referenceSize;
+        private final long objectCount;
+        private final long topObject;
+        private final int offsetTable;
+
+        Binary(byte[] bytes) throws IOException {
+            if (bytes.length < BINARY_MAGIC.length + 32) {
+                throw new IOException("invalid binary property list: truncated");
+            }
+            data = ByteBuffer.wrap(bytes);
+            int trailer = bytes.length - 32;
+            offsetSize = data.get(trailer + 6) & 0xFF;
+            referenceSize = data.get(trailer + 7) & 0xFF;
+            objectCount = data.getLong(trailer + 8);
+            topObject = data.getLong(trailer + 16);
+            long table = data.getLong(trailer + 24);
+            if (offsetSize < 1 || offsetSize > 8 || referenceSize < 1 || referenceSize > 8
+                    || objectCount < 1 || topObject >= objectCount || table < BINARY_MAGIC.length
+                    || table + objectCount * offsetSize > trailer) {
+                throw new IOException("invalid binary property list trailer");
+            }
+            offsetTable = (int) table;
+        }
+
+        Object top() throws IOException {
+            try {
+                return object(topObject, 0);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("invalid binary property list: truncated");
+            }
+        }
+
+        private Object object(long reference, int depth) throws IOException {
+            if (depth > MAX_DEPTH || reference < 0 || reference >= objectCount) {
+                throw new IOException("invalid binary property list object");
+            }
+            int offset = (int) unsigned(offsetTable + (int) reference * offsetSize, offsetSize);
+            int marker = data.get(offset) & 0xFF;
+            int type = marker >> 4;
+            int info = marker & 0x0F;
+            switch (type) {
+                case 0x0:
+                    if (info == 0x08) {
+                        return Boolean.FALSE;
+                    } else if (info == 0x09) {
+                        return Boolean.TRUE;
+                    }
+                    return null;
+                case 0x1:
+                    int size = 1 << info;
+                    return size >= 8 ? data.getLong(offset + 1 + size - 8) : unsigned(offset + 1, size);
+                case 0x2:
+                    return info == 2 ? (double) data.getFloat(offset + 1) : data.getDouble(offset + 1);
+                case 0x3:
+                    double seconds = data.getDouble(offset + 1);
+                    return new Date((long) ((seconds + APPLE_EPOCH_SECONDS) * 1000));
+                case 0x4: {
+                    int[] length = length(offset, info);
+                    byte[] bytes = new byte[length[0]];
+                    data.position(length[1]);
+                    data.get(bytes);
+                    return bytes;
+                }
+                case 0x5: {
+                    int[] length = length(offset, info);
+                    return new String(data.array(), length[1], length[0], StandardCharsets.US_ASCII);
+                }
+                case 0x6: {
+                    int[] length = length(offset, info);
+                    return new String(data.array(), length[1], length[0] * 2, StandardCharsets.UTF_16BE);
+                }
+                case 0x8:
+                    return unsigned(offset + 1, info + 1);
+                case 0xA: {
+                    int[] length = length(offset, info);
+                    List<Object> array = new ArrayList<>(length[0]);
+                    for (int i = 0; i < length[0]; i++) {
+                        array.add(object(unsigned(length[1] + i * referenceSize, referenceSize), depth + 1));
+                    }
+                    return array;
+                }
+                case 0xD: {
+                    int[] length = length(offset, info);
+                    Map<String, Object> dictionary = new LinkedHashMap<>();
+                    int values = length[1] + length[0] * referenceSize;
+                    for (int i = 0; i < length[0]; i++) {
+                        Object key = object(unsigned(length[1] + i * referenceSize, referenceSize), depth + 1);
+                        dictionary.put(String.valueOf(key), object(unsigned(values + i * referenceSize, referenceSize), depth + 1));
+                    }
+                    return dictionary;
+                }
+                default:
+                    throw new IOException("invalid binary property list object type " + Integer.toHexString(type));
+            }
+        }
+
+        /**
+         * @return the number of elements of an object and where they start; counts that don't fit
+         * in the marker follow it as an integer object
+         */
+        private int[] length(int offset, int info) throws IOException {
+            if (info != 0x0F) {
+                return new int[]{info, offset + 1};
+            }
+            int marker = data.get(offset + 1) & 0xFF;
+            if (marker >> 4 != 0x1) {
+                throw new IOException("invalid binary property list length");
+            }
+            int size = 1 << (marker & 0x0F);
+            long length = unsigned(offset + 2, size);
+            if (length < 0 || length > data.limit()) {
+                throw new IOException("invalid binary property list length");
+            }
+            return new int[]{(int) length, offset + 2 + size};
+        }
+
+        private long unsigned(int offset, int size) {
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = value << 8 | data.get(offset + i) & 0xFF;
+            }
+            return value;
+        }
+    }
+}
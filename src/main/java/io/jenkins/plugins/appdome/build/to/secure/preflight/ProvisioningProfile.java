@@ -0,0 +1,323 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import io.jenkins.plugins.appdome.build.to.secure.Sha256;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An iOS provisioning profile: the property list signed into a .mobileprovision file. Only the
+ * content of the CMS signed data is read, the signature isn't checked; Appdome does when it signs.
+ * <p>
+ * Profiles are parsed once per agent and content, see {@link #read(File)}.
+ */
+@ExportedBean(defaultVisibility = 3)
+public final class ProvisioningProfile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_SIZE = 4 * 1024 * 1024;
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * Parsed profiles by the SHA-256 of their file, most recently used last.
+     */
+    private static final Map<String, ProvisioningProfile> CACHE = new LinkedHashMap<String, ProvisioningProfile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProvisioningProfile> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String file;
+    private final String name;
+    private final String teamId;
+    private final String applicationIdentifier;
+    private final Date expirationDate;
+    private final Map<String, Object> entitlements;
+
+    private ProvisioningProfile(String file, String name, String teamId, String applicationIdentifier,
+                                Date expirationDate, Map<String, Object> entitlements) {
+        this.file = file;
+        this.name = name;
+        this.teamId = teamId;
+        this.applicationIdentifier = applicationIdentifier;
+        this.expirationDate = expirationDate;
+        this.entitlements = entitlements;
+    }
+
+    /**
+     * Reads a profile, or takes it from the profiles already read if one had the same content.
+     */
+    static ProvisioningProfile read(File file) throws IOException {
+        if (file.length() > MAX_SIZE) {
+            throw new IOException(file.getName() + " is too large for a provisioning profile");
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        String hash = Sha256.hex(data);
+        synchronized (CACHE) {
+            ProvisioningProfile cached = CACHE.get(hash);
+            if (cached != null) {
+                return cached.file.equals(file.getName()) ? cached : cached.named(file.getName());
+            }
+        }
+        ProvisioningProfile profile = parse(file.getName(), data);
+        synchronized (CACHE) {
+            CACHE.put(hash, profile);
+        }
+        return profile;
+    }
+
+    static int cached() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static ProvisioningProfile parse(String file, byte[] data) throws IOException {
+        Map<String, Object> plist = PropertyList.parseDictionary(signedContent(data), file);
+        Object entitlements = plist.get("Entitlements");
+        Map<String, Object> granted = entitlements instanceof Map ? (Map<String, Object>) entitlements : Collections.emptyMap();
+        Object teams = plist.get("TeamIdentifier");
+        String teamId = teams instanceof List && !((List<?>) teams).isEmpty() ? String.valueOf(((List<?>) teams).get(0))
+                : granted.get("com.apple.developer.team-identifier") instanceof String ? (String) granted.get("com.apple.developer.team-identifier") : null;
+        Object applicationIdentifier = granted.get("application-identifier");
+        Object expirationDate = plist.get("ExpirationDate");
+        return new ProvisioningProfile(file, plist.get("Name") instanceof String ? (String) plist.get("Name") : file, teamId,
+                applicationIdentifier instanceof String ? (String) applicationIdentifier : null,
+                expirationDate instanceof Date ? (Date) expirationDate : null, granted);
+    }
+
+    private ProvisioningProfile named(String file) {
+        return new ProvisioningProfile(file, name, teamId, applicationIdentifier, expirationDate, entitlements);
+    }
+
+    /**
+     * @return the file name of the profile
+     */
+    @Exported
+    public String getFile() {
+        return file;
+    }
+
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    @Exported
+    @CheckForNull
+    public String getTeamId() {
+        return teamId;
+    }
+
+    /**
+     * @return the app id the profile is for, with the team prefix, e.g. {@code ABCDE12345.com.example.*}
+     */
+    @Exported
+    @CheckForNull
+    public String getApplicationIdentifier() {
+        return applicationIdentifier;
+    }
+
+    @Exported
+    @CheckForNull
+    public Date getExpirationDate() {
+        return expirationDate == null ? null : new Date(expirationDate.getTime());
+    }
+
+    Map<String, Object> getEntitlements() {
+        return entitlements;
+    }
+
+    /**
+     * @return whether the profile's app id matches a bundle id, exactly or by its wildcard
+     */
+    boolean covers(String bundleId) {
+        if (applicationIdentifier == null) {
+            return false;
+        }
+        int prefix = applicationIdentifier.indexOf('.');
+        return prefix >= 0 && matches(applicationIdentifier.substring(prefix + 1), bundleId);
+    }
+
+    /**
+     * @return whether the profile grants an entitlement with the given value
+     */
+    boolean allows(String entitlement, Object value) {
+        Object granted = entitlements.get(entitlement);
+        if (value instanceof Boolean) {
+            // Entitlements that are off need no grant
+            return !(Boolean) value || Boolean.TRUE.equals(granted);
+        }
+        if (granted == null) {
+            return false;
+        }
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (!grants(granted, element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return grants(granted, value);
+    }
+
+    private static boolean grants(Object granted, Object value) {
+        if (granted instanceof List) {
+            for (Object element : (List<?>) granted) {
+                if (grants(element, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (granted instanceof String && value instanceof String) {
+            return matches((String) granted, (String) value);
+        }
+        return granted.equals(value);
+    }
+
+    /**
+     * @return whether a value matches a pattern of a profile, where a trailing {@code *} matches anything
+     */
+    static boolean matches(String pattern, String value) {
+        return pattern.endsWith("*") ? value.startsWith(pattern.substring(0, pattern.length() - 1)) : pattern.equals(value);
+    }
+
+    // CMS signed data, see RFC 5652; profiles are BER encoded, with indefinite lengths
+
+    private static final int SEQUENCE = 0x30;
+    private static final int CONTEXT_0 = 0xA0;
+    private static final int OCTET_STRING = 0x04;
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * @return the content of ContentInfo / SignedData / EncapsulatedContentInfo
+     */
+    static byte[] signedContent(byte[] data) throws IOException {
+        try {
+            Tlv contentInfo = Tlv.read(data, 0, 0);
+            Tlv signedData = child(child(contentInfo, SEQUENCE, 1, CONTEXT_0), 0, 0, SEQUENCE);
+            Tlv encapsulated = child(signedData, SEQUENCE, 2, SEQUENCE);
+            Tlv content = child(child(encapsulated, SEQUENCE, 1, CONTEXT_0), 0, 0, OCTET_STRING);
+            ByteArrayOutputStream octets = new ByteArrayOutputStream();
+            content.octets(octets, 0);
+            return octets.toByteArray();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("not CMS signed data");
+        }
+    }
+
+    /**
+     * @param tag      the tag the parent must have, 0 for any
+     * @param index    which child to take
+     * @param childTag the tag the child must have
+     */
+    private static Tlv child(Tlv parent, int tag, int index, int childTag) throws IOException {
+        if (tag != 0 && parent.tag != tag) {
+            throw new IOException("not CMS signed data");
+        }
+        List<Tlv> children = parent.children(0);
+        // Either form of the child will do, e.g. a constructed octet string
+        if (index >= children.size() || (children.get(index).tag | 0x20) != (childTag | 0x20)) {
+            throw new IOException("not CMS signed data");
+        }
+        return children.get(index);
+    }
+
+    /**
+     * A BER element: its tag, and where its content and the element end.
+     */
+    private static final class Tlv {
+
+        final byte[] data;
+        final int tag;
+        final int start;
+        final int end;
+        final int next;
+
+        private Tlv(byte[] data, int tag, int start, int end, int next) {
+            this.data = data;
+            this.tag = tag;
+            this.start = start;
+            this.end = end;
+            this.next = next;
+        }
+
+        static Tlv read(byte[] data, int offset, int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                throw new IOException("not CMS signed data");
+            }
+            int tag = data[offset] & 0xFF;
+            if ((tag & 0x1F) == 0x1F) {
+                throw new IOException("not CMS signed data");
+            }
+            int first = data[offset + 1] & 0xFF;
+            int start = offset + 2;
+            if (first == 0x80) {
+                // Indefinite length, the content ends with two zero bytes
+                if ((tag & 0x20) == 0) {
+                    throw new IOException("not CMS signed data");
+                }
+                int position = start;
+                while (data[position] != 0 || data[position + 1] != 0) {
+                    position = read(data, position, depth + 1).next;
+                }
+                return new Tlv(data, tag, start, position, position + 2);
+            }
+            long length = first;
+            if (first > 0x80) {
+                int bytes = first & 0x7F;
+                if (bytes > 4) {
+                    throw new IOException("not CMS signed data");
+                }
+                length = 0;
+                for (int i = 0; i < bytes; i++) {
+                    length = length << 8 | data[start++] & 0xFF;
+                }
+            }
+            if (length > data.length - start) {
+                throw new IOException("not CMS signed data");
+            }
+            return new Tlv(data, tag, start, start + (int) length, start + (int) length);
+        }
+
+        List<Tlv> children(int depth) throws IOException {
+            List<Tlv> children = new ArrayList<>();
+            for (int position = start; position < end; ) {
+                Tlv child = read(data, position, depth + 1);
+                children.add(child);
+                position = child.next;
+            }
+            return children;
+        }
+
+        /**
+         * Writes the bytes of an octet string, which BER may split into nested octet strings.
+         */
+        void octets(ByteArrayOutputStream out, int depth) throws IOException {
+            if ((tag & 0x20) == 0) {
+                out.write(data, start, end - start);
+                return;
+            }
+            for (Tlv child : children(depth)) {
+                child.octets(out, depth + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The central directory of a ZIP file, read from the end of the file without reading the entries.
+ * Single entries are read on demand, e.g. the manifest of an app, so that inspecting an app of a
+ * few hundred megabytes reads a few kilobytes of it.
+ */
+final class ZipDirectory {
+
+    private static final int END_OF_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int END_OF_DIRECTORY_SIZE = 22;
+    private static final long MAX_DIRECTORY_SIZE = 64 * 1024 * 1024;
+    private static final byte[] APK_SIGNING_BLOCK_MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The file has no end of central directory, so it isn't a ZIP file at all.
+     */
+    static final class NotZipException extends ZipException {
+
+        private static final long serialVersionUID = 1L;
+
+        NotZipException() {
+            super("not a ZIP file");
+        }
+    }
+
+    static final class Entry {
+
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long directoryOffset;
+    private final Map<String, Entry> entries;
+
+    private ZipDirectory(FileChannel channel, long directoryOffset, Map<String, Entry> entries) {
+        this.channel = channel;
+        this.directoryOffset = directoryOffset;
+        this.entries = entries;
+    }
+
+    /**
+     * @throws NotZipException if the file isn't a ZIP file
+     * @throws ZipException if its central directory is corrupt
+     */
+    static ZipDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_OF_DIRECTORY_SIZE) {
+            throw new NotZipException();
+        }
+        // The end of directory record is followed by a comment of up to 64 KB
+        int tailSize = (int) Math.min(fileSize, END_OF_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_OF_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new NotZipException();
+        }
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            long locator = fileSize - tailSize + end - 20;
+            ByteBuffer zip64Locator = locator < 0 ? null : read(channel, locator, 20);
+            if (zip64Locator == null || zip64Locator.getInt(0) != ZIP64_LOCATOR) {
+                throw new ZipException("ZIP64 end of central directory not found");
+            }
+            ByteBuffer zip64End = read(channel, zip64Locator.getLong(8), 56);
+            if (zip64End.getInt(0) != ZIP64_END_OF_DIRECTORY) {
+                throw new ZipException("ZIP64 end of central directory not found");
+            }
+            count = zip64End.getLong(32);
+            directorySize = zip64End.getLong(40);
+            directoryOffset = zip64End.getLong(48);
+        }
+        if (directorySize > MAX_DIRECTORY_SIZE || directoryOffset + directorySize > fileSize) {
+            throw new ZipException("invalid central directory");
+        }
+
+        ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (position + 46 > directory.limit() || directory.getInt(position) != DIRECTORY_ENTRY) {
+                throw new ZipException("invalid central directory");
+            }
+            int method = directory.getShort(position + 10) & 0xFFFF;
+            long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+            if (position + 46 + nameLength + extraLength > directory.limit()) {
+                throw new ZipException("invalid central directory");
+            }
+            byte[] name = new byte[nameLength];
+            directory.position(position + 46);
+            directory.get(name);
+
+            // Sizes and offsets that don't fit are in the ZIP64 extra field, in this order
+            int extra = position + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xFFFF;
+                int length = directory.getShort(extra + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                        size = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            entries.putIfAbsent(entryName, new Entry(entryName, method, compressedSize, size, localHeaderOffset));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return new ZipDirectory(channel, directoryOffset, entries);
+    }
+
+    Set<String> names() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Reads an entry, uncompressed.
+     *
+     * @param maxSize entries larger than this aren't read
+     */
+    byte[] read(String name, int maxSize) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new ZipException("no " + name);
+        }
+        if (entry.size > maxSize || entry.compressedSize > maxSize) {
+            throw new ZipException(name + " is too large to inspect");
+        }
+        ByteBuffer header = read(channel, entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException("invalid local header of " + name);
+        }
+        long dataOffset = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        byte[] data = read(channel, dataOffset, (int) entry.compressedSize).array();
+        if (entry.method == 0) {
+            return data;
+        }
+        if (entry.method != 8) {
+            throw new ZipException(name + " uses unsupported compression method " + entry.method);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] inflated = new byte[(int) entry.size];
+            int length = 0;
+            while (length < inflated.length && !inflater.finished()) {
+                int n = inflater.inflate(inflated, length, inflated.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != inflated.length) {
+                throw new ZipException(name + " is truncated");
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new ZipException(name + " is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return whether an APK signing block (signature scheme v2 and later) precedes the central directory
+     */
+    boolean hasApkSigningBlock() throws IOException {
+        if (directoryOffset < 32) {
+            return false;
+        }
+        ByteBuffer footer = read(channel, directoryOffset - 16, 16);
+        for (int i = 0; i < APK_SIGNING_BLOCK_MAGIC.length; i++) {
+            if (footer.get(i) != APK_SIGNING_BLOCK_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("unexpected end of the ZIP file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,218 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiClient;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiException;
+import io.jenkins.plugins.appdome.build.to.secure.api.RetryBudget;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops protections from starting while Appdome is failing, so that builds don't prepare the
+ * engine, download their inputs and upload the app only to time out. Once
+ * {@link #FAILURE_THRESHOLD} protections in a row failed for a reason on Appdome's side, the
+ * breaker opens for {@link #OPEN_SECONDS}. After that, a protection may start as a trial if a
+ * request to the server gets an answer; until it completes, others can't start. The first
+ * protection that reaches Appdome without such a failure closes the breaker again.
+ * <p>
+ * While the breaker is open, protections either fail right away or wait for it to close, as
+ * {@link AppdomeGlobalConfiguration#isWaitWhileUnavailable()} says. Freestyle builds wait in the
+ * build queue, see {@link AppdomeQueueThrottle}.
+ */
+public final class AppdomeCircuitBreaker {
+
+    static final int FAILURE_THRESHOLD = Integer.getInteger(AppdomeCircuitBreaker.class.getName() + ".failureThreshold", 5);
+    static final long OPEN_SECONDS = Long.getLong(AppdomeCircuitBreaker.class.getName() + ".openSeconds", 300);
+
+    private static final AppdomeCircuitBreaker INSTANCE = new AppdomeCircuitBreaker(System::nanoTime,
+            () -> AppdomeGlobalConfiguration.get().isCircuitBreakerEnabled(),
+            () -> AppdomeGlobalConfiguration.get().isWaitWhileUnavailable(),
+            () -> AppdomeApiClient.isAvailable(AppdomeGlobalConfiguration.get().getServerUrl()));
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Checks whether the Appdome server answers, without running a protection.
+     */
+    interface Probe {
+        boolean isAvailable() throws InterruptedException;
+    }
+
+    private final LongSupplier clock;
+    private final BooleanSupplier enabled;
+    private final BooleanSupplier waitWhileOpen;
+    private final Probe probe;
+
+    private State state = State.CLOSED;
+    private int failuresInARow;
+    private long openedAt;
+    private boolean trialRunning;
+
+    AppdomeCircuitBreaker(LongSupplier clock, BooleanSupplier enabled, BooleanSupplier waitWhileOpen, Probe probe) {
+        this.clock = clock;
+        this.enabled = enabled;
+        this.waitWhileOpen = waitWhileOpen;
+        this.probe = probe;
+    }
+
+    public static AppdomeCircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return whether a failure is Appdome being unavailable, rather than something wrong with the
+     * protection; a throttled key isn't, see {@link AppdomeTokenPool}
+     */
+    public static boolean isServiceFailure(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof IOException && RetryBudget.isTransient((IOException) t)
+                    && !(t instanceof AppdomeApiException && ((AppdomeApiException) t).getStatusCode() == 429)) {
+                return true;
+            }
+            for (Throwable suppressed : t.getSuppressed()) {
+                if (isServiceFailure(suppressed)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lets a protection start, or fails or waits while the breaker is open.
+     *
+     * @param listener told why the protection can't start, or has to wait
+     * @return the permit, to be closed once the protection completes
+     * @throws AbortException if the breaker is open and protections don't wait for it
+     */
+    public Permit admit(TaskListener listener) throws AbortException, InterruptedException {
+        boolean waited = false;
+        while (true) {
+            synchronized (this) {
+                if (!enabled.getAsBoolean() || state == State.CLOSED) {
+                    return new Permit(false);
+                }
+                if (!mayTry()) {
+                    String reason = "Appdome has been failing, no protection starts until "
+                            + (trialRunning ? "a trial protection succeeds" : "it is checked again");
+                    if (!waitWhileOpen.getAsBoolean()) {
+                        throw new AbortException(reason);
+                    }
+                    if (!waited) {
+                        listener.getLogger().println(reason + ", waiting");
+                        waited = true;
+                    }
+                    long remaining = state == State.OPEN ? openedAt + TimeUnit.SECONDS.toNanos(OPEN_SECONDS) - clock.getAsLong() : 0;
+                    wait(remaining > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)) : TimeUnit.SECONDS.toMillis(30));
+                    continue;
+                }
+                trialRunning = true;
+                state = State.HALF_OPEN;
+            }
+            boolean available = false;
+            try {
+                available = probe.isAvailable();
+            } finally {
+                synchronized (this) {
+                    if (!available) {
+                        trialRunning = false;
+                        open();
+                    }
+                }
+            }
+            if (available) {
+                listener.getLogger().println("Appdome has been failing, this protection checks whether it recovered");
+                return new Permit(true);
+            }
+        }
+    }
+
+    /**
+     * @return whether a protection would start right away
+     */
+    public synchronized boolean isAdmitting() {
+        return !enabled.getAsBoolean() || state == State.CLOSED || mayTry();
+    }
+
+    /**
+     * @return whether protections wait for the breaker to close, rather than fail
+     */
+    public boolean isWaitingWhileOpen() {
+        return waitWhileOpen.getAsBoolean();
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Records a protection that reached Appdome without a failure on its side, which closes the breaker.
+     */
+    public synchronized void succeeded() {
+        failuresInARow = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Records a protection that failed for a reason on Appdome's side, see {@link #isServiceFailure}.
+     */
+    public synchronized void failed() {
+        failuresInARow++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && failuresInARow >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    private boolean mayTry() {
+        return !trialRunning && (state == State.HALF_OPEN
+                || clock.getAsLong() - openedAt - TimeUnit.SECONDS.toNanos(OPEN_SECONDS) >= 0);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        notifyAll();
+    }
+
+    /**
+     * A protection that was let start.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final boolean trial;
+        private boolean closed;
+
+        private Permit(boolean trial) {
+            this.trial = trial;
+        }
+
+        /**
+         * @return whether the protection is the trial that decides whether the breaker closes
+         */
+        public boolean isTrial() {
+            return trial;
+        }
+
+        @Override
+        public void close() {
+            synchronized (AppdomeCircuitBreaker.this) {
+                if (trial && !closed) {
+                    // The next protection may try, if this one didn't get to reach Appdome
+                    trialRunning = false;
+                    AppdomeCircuitBreaker.this.notifyAll();
+                }
+                closed = true;
+            }
+        }
+    }
+}
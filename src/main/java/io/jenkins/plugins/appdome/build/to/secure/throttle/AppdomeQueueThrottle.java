@@ -0,0 +1,119 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueListener;
+import hudson.model.queue.QueueTaskDispatcher;
+import hudson.tasks.Builder;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeBatchBuilder;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeBuilder;
+
+import java.util.List;
+
+/**
+ * Keeps freestyle builds with an Appdome step in the build queue while {@link AppdomeThrottle}
+ * has no free slot for their team, so that waiting doesn't take an executor. The queue hands
+ * out slots in the order builds were queued. They're also kept there while
+ * {@link AppdomeCircuitBreaker} is open, if protections wait for it.
+ * <p>
+ * A build let go reserves its slot, see {@link AppdomeThrottle#reserve}, until its protection
+ * takes it over. The reservation is given back if the build is cancelled or completes without one.
+ * Only freestyle projects are held: pipeline builds leave the queue before their Appdome steps are
+ * known, and their protections wait for a slot on the executor of the step.
+ */
+@Extension
+public class AppdomeQueueThrottle extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canRun(Queue.Item item) {
+        if (!(item.task instanceof Project)) {
+            return null;
+        }
+        for (Builder builder : ((Project<?, ?>) item.task).getBuilders()) {
+            String teamId;
+            List<Secret> tokens;
+            if (builder instanceof AppdomeBuilder) {
+                teamId = ((AppdomeBuilder) builder).getTeamId();
+                tokens = ((AppdomeBuilder) builder).getTokenPool();
+            } else if (builder instanceof AppdomeBatchBuilder) {
+                teamId = ((AppdomeBatchBuilder) builder).getTeamId();
+                tokens = AppdomeTokenPool.tokens(((AppdomeBatchBuilder) builder).getToken(),
+                        ((AppdomeBatchBuilder) builder).getAdditionalTokens());
+            } else {
+                continue;
+            }
+            AppdomeCircuitBreaker breaker = AppdomeCircuitBreaker.get();
+            if (breaker.isWaitingWhileOpen() && !breaker.isAdmitting()) {
+                return new WaitingForAppdome();
+            }
+            // Without a team, any of the pooled keys with a free slot will do
+            String key = null;
+            for (Secret token : tokens) {
+                key = AppdomeThrottle.key(teamId, token);
+                if (AppdomeThrottle.get().reserve(item.getId(), key)) {
+                    key = null;
+                    break;
+                }
+            }
+            if (key != null) {
+                return new WaitingForSlot(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives back the slot reserved for a build that left the queue without starting.
+     */
+    @Extension
+    public static final class CancelledListener extends QueueListener {
+
+        @Override
+        public void onLeft(Queue.LeftItem item) {
+            if (item.isCancelled()) {
+                AppdomeThrottle.get().cancelReservation(item.getId());
+            }
+        }
+    }
+
+    /**
+     * Gives back the slot reserved for a build that completed without a protection taking it over.
+     */
+    @Extension
+    public static final class CompletedListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            AppdomeThrottle.get().cancelReservation(run.getQueueId());
+        }
+    }
+
+    private static final class WaitingForAppdome extends CauseOfBlockage {
+
+        @Override
+        public String getShortDescription() {
+            return "Waiting for Appdome to recover";
+        }
+    }
+
+    private static final class WaitingForSlot extends CauseOfBlockage {
+
+        private final String key;
+
+        WaitingForSlot(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Waiting for a concurrent Appdome protection of " + key + " to complete";
+        }
+    }
+}
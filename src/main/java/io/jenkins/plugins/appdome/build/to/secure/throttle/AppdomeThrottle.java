@@ -0,0 +1,208 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.Sha256;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Caps the protections that run at the same time for a team, or for an API key used without a
+ * team, at {@link AppdomeGlobalConfiguration#getMaxConcurrentProtections()}, so that a burst of
+ * builds doesn't get rate limited by Appdome. Protections past the cap wait for a slot in the
+ * order they asked for one.
+ * <p>
+ * Freestyle builds are held in the build queue by {@link AppdomeQueueThrottle} while their team
+ * has no free slot, so they only take an executor once they can go on. The queue reserves the slot
+ * for a build it lets go, see {@link #reserve}, so that builds let go together don't end up
+ * waiting for the same slot on their executors. Pipeline builds aren't held in the queue, their
+ * protections wait for a slot on the executor of the step.
+ */
+public final class AppdomeThrottle {
+
+    private static final AppdomeThrottle INSTANCE = new AppdomeThrottle(
+            () -> AppdomeGlobalConfiguration.get().getMaxConcurrentProtections());
+
+    private final IntSupplier limit;
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private final Map<String, Deque<Object>> waiting = new HashMap<>();
+    /**
+     * Keys of the slots reserved for queued builds, by the ID of their queue item.
+     */
+    private final Map<Long, String> reservations = new HashMap<>();
+
+    AppdomeThrottle(IntSupplier limit) {
+        this.limit = limit;
+    }
+
+    public static AppdomeThrottle get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return what protections are throttled by: the team if there is one, otherwise the API key
+     */
+    public static String key(String teamId, Secret token) {
+        if (Util.fixEmptyAndTrim(teamId) != null) {
+            return "team " + teamId.trim();
+        }
+        // Enough to tell keys apart in messages without revealing them
+        return "API key " + Sha256.hex(Secret.toString(token)).substring(0, 8);
+    }
+
+    /**
+     * @return whether a protection for the key would start right away
+     */
+    public synchronized boolean hasCapacity(String key) {
+        return !waiting.containsKey(key) && belowLimit(key);
+    }
+
+    synchronized boolean isWaiting(String key) {
+        return waiting.containsKey(key);
+    }
+
+    /**
+     * Reserves a slot of the key for a build leaving the build queue, which it takes over when its
+     * protection asks for one, see {@link #acquire(String, long, TaskListener)}.
+     *
+     * @param queueId the ID of the queue item of the build
+     * @return whether the build holds a reservation, made now or earlier, possibly for another of its keys
+     */
+    public synchronized boolean reserve(long queueId, String key) {
+        if (reservations.containsKey(queueId)) {
+            return true;
+        }
+        if (!hasCapacity(key)) {
+            return false;
+        }
+        reservations.put(queueId, key);
+        return true;
+    }
+
+    /**
+     * @param queueId the ID of the queue item of the build, see {@link Run#getQueueId()}
+     * @return the key the build holds a reserved slot of, if it holds one
+     */
+    @CheckForNull
+    public synchronized String getReservation(long queueId) {
+        return reservations.get(queueId);
+    }
+
+    /**
+     * Gives back the slot reserved for a build that was cancelled, or completed without taking it.
+     */
+    public synchronized void cancelReservation(long queueId) {
+        if (reservations.remove(queueId) != null) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a protection for the key may start, after those that asked before it.
+     *
+     * @param listener told when the protection has to wait
+     * @return the slot, to be closed once the protection completes
+     */
+    public Slot acquire(String key, TaskListener listener) throws InterruptedException {
+        return acquire(key, Run.QUEUE_ID_UNKNOWN, listener);
+    }
+
+    /**
+     * Waits until a protection for the key may start, after those that asked before it. A build
+     * that holds a reservation of the key goes first, its reserved slot is given to the protection.
+     * A reservation of another key is given back, the protection waits in line for the key.
+     *
+     * @param queueId  the ID of the queue item of the build, see {@link Run#getQueueId()}
+     * @param listener told when the protection has to wait
+     * @return the slot, to be closed once the protection completes
+     */
+    public Slot acquire(String key, long queueId, TaskListener listener) throws InterruptedException {
+        Object ticket = new Object();
+        synchronized (this) {
+            Deque<Object> queue = waiting.computeIfAbsent(key, k -> new ArrayDeque<>());
+            String reserved = reservations.remove(queueId);
+            if (key.equals(reserved)) {
+                queue.addFirst(ticket);
+            } else {
+                queue.add(ticket);
+                if (reserved != null) {
+                    notifyAll();
+                }
+            }
+            boolean waited = false;
+            try {
+                while (queue.peek() != ticket || !belowLimit(key)) {
+                    if (!waited) {
+                        listener.getLogger().println("Waiting for one of the " + limit.getAsInt()
+                                + " concurrent Appdome protections of " + key);
+                        waited = true;
+                    }
+                    wait();
+                }
+            } finally {
+                queue.remove(ticket);
+                if (queue.isEmpty()) {
+                    waiting.remove(key);
+                }
+                // The next in line may start too, or has to take over from an interrupted one
+                notifyAll();
+            }
+            inFlight.merge(key, 1, Integer::sum);
+            return new Slot(key, waited);
+        }
+    }
+
+    private synchronized void release(String key) {
+        if (inFlight.merge(key, -1, Integer::sum) <= 0) {
+            inFlight.remove(key);
+        }
+        notifyAll();
+    }
+
+    private boolean belowLimit(String key) {
+        int max = limit.getAsInt();
+        return max <= 0 || inFlight.getOrDefault(key, 0) + Collections.frequency(reservations.values(), key) < max;
+    }
+
+    /**
+     * A protection that is allowed to run. Closing it lets the next one start.
+     */
+    public final class Slot implements AutoCloseable {
+
+        private final String key;
+        private final boolean waited;
+        private boolean closed;
+
+        private Slot(String key, boolean waited) {
+            this.key = key;
+            this.waited = waited;
+        }
+
+        /**
+         * @return whether the protection had to wait for its slot
+         */
+        public boolean hasWaited() {
+            return waited;
+        }
+
+        @Override
+        public void close() {
+            synchronized (AppdomeThrottle.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(key);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Spreads protections over several API keys of a team, so that they don't all count against the
+ * quota of one key. A protection takes the key with the fewest protections in flight, keys that
+ * are tied take turns.
+ * <p>
+ * A key that Appdome throttled is set aside for {@link #SIDELINE_SECONDS}, twice as long each
+ * time it is throttled again in a row, and only used while it is set aside if all the keys are.
+ * Otherwise a key that {@link AppdomeThrottle} reserved a slot for is taken first.
+ */
+public final class AppdomeTokenPool {
+
+    static final long SIDELINE_SECONDS = Long.getLong(AppdomeTokenPool.class.getName() + ".sidelineSeconds", 300);
+
+    private static final int MAX_SIDELINE_DOUBLINGS = 4;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final AppdomeTokenPool INSTANCE = new AppdomeTokenPool(System::nanoTime);
+
+    private final LongSupplier clock;
+    private final Map<String, Health> health = new HashMap<>();
+    private int turn;
+
+    AppdomeTokenPool(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public static AppdomeTokenPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param token            the API key of the step
+     * @param additionalTokens more API keys of the same team, one per line, or null
+     * @return the keys protections of the step may use, the key of the step first
+     */
+    public static List<Secret> tokens(Secret token, @CheckForNull Secret additionalTokens) {
+        List<Secret> tokens = new ArrayList<>();
+        tokens.add(token);
+        for (String line : Secret.toString(additionalTokens).split("\\R")) {
+            if (!line.trim().isEmpty() && !line.trim().equals(Secret.toString(token))) {
+                tokens.add(Secret.fromString(line.trim()));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return whether the failure, or one of the failures it sums up, is Appdome throttling the key
+     */
+    public static boolean isThrottling(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof AppdomeApiException && ((AppdomeApiException) t).getStatusCode() == TOO_MANY_REQUESTS) {
+                return true;
+            }
+            for (Throwable suppressed : t.getSuppressed()) {
+                if (isThrottling(suppressed)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the key for a protection.
+     *
+     * @param tokens   the keys to pick from, see {@link #tokens}
+     * @param listener told which key was picked when there is more than one
+     * @return the lease of the key, to be closed once the protection completes
+     */
+    public Lease lease(List<Secret> tokens, TaskListener listener) {
+        return lease(tokens, token -> false, listener);
+    }
+
+    /**
+     * Picks the key for a protection, a reserved one unless it is set aside and another isn't.
+     *
+     * @param tokens   the keys to pick from, see {@link #tokens}
+     * @param reserved whether the build holds a throttle slot for a key
+     * @param listener told which key was picked when there is more than one
+     * @return the lease of the key, to be closed once the protection completes
+     */
+    public synchronized Lease lease(List<Secret> tokens, Predicate<Secret> reserved, TaskListener listener) {
+        long now = clock.getAsLong();
+        int first = Math.floorMod(turn++, tokens.size());
+        Secret picked = null;
+        Health pickedHealth = null;
+        boolean pickedReserved = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            Secret token = tokens.get((first + i) % tokens.size());
+            Health candidate = health.computeIfAbsent(AppdomeThrottle.key(null, token), Health::new);
+            boolean candidateReserved = reserved.test(token);
+            if (pickedHealth == null || candidate.isBetterThan(candidateReserved, pickedHealth, pickedReserved, now)) {
+                picked = token;
+                pickedHealth = candidate;
+                pickedReserved = candidateReserved;
+            }
+        }
+        pickedHealth.inFlight++;
+        if (tokens.size() == 1) {
+            // Nothing to tell, with no other key to use
+            return new Lease(picked, pickedHealth, TaskListener.NULL);
+        }
+        listener.getLogger().println("Using " + pickedHealth.key + " of " + tokens.size() + " pooled API keys"
+                + (pickedHealth.isSidelined(now) ? ", all of them were throttled recently" : ""));
+        return new Lease(picked, pickedHealth, listener);
+    }
+
+    synchronized int getInFlight(Secret token) {
+        Health h = health.get(AppdomeThrottle.key(null, token));
+        return h == null ? 0 : h.inFlight;
+    }
+
+    synchronized boolean isSidelined(Secret token) {
+        Health h = health.get(AppdomeThrottle.key(null, token));
+        return h != null && h.isSidelined(clock.getAsLong());
+    }
+
+    private static final class Health {
+
+        private final String key;
+        private int inFlight;
+        private int throttledInARow;
+        private long sidelinedUntil;
+
+        Health(String key) {
+            this.key = key;
+        }
+
+        boolean isSidelined(long now) {
+            return throttledInARow > 0 && now - sidelinedUntil < 0;
+        }
+
+        boolean isBetterThan(boolean reserved, Health other, boolean otherReserved, long now) {
+            if (isSidelined(now) != other.isSidelined(now)) {
+                return !isSidelined(now);
+            }
+            if (isSidelined(now)) {
+                return sidelinedUntil - other.sidelinedUntil < 0;
+            }
+            if (reserved != otherReserved) {
+                return reserved;
+            }
+            return inFlight < other.inFlight;
+        }
+    }
+
+    /**
+     * A key picked for a protection. The protection reports whether Appdome throttled it.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final Secret token;
+        private final Health health;
+        private final TaskListener listener;
+        private boolean closed;
+
+        private Lease(Secret token, Health health, TaskListener listener) {
+            this.token = token;
+            this.health = health;
+            this.listener = listener;
+        }
+
+        public Secret getToken() {
+            return token;
+        }
+
+        /**
+         * Sets the key aside, Appdome throttled it.
+         */
+        public void throttled() {
+            long sideline;
+            synchronized (AppdomeTokenPool.this) {
+                health.throttledInARow++;
+                sideline = TimeUnit.SECONDS.toNanos(SIDELINE_SECONDS)
+                        << Math.min(health.throttledInARow - 1, MAX_SIDELINE_DOUBLINGS);
+                health.sidelinedUntil = clock.getAsLong() + sideline;
+            }
+            listener.getLogger().println("Appdome throttled " + health.key + ", setting it aside for "
+                    + TimeUnit.NANOSECONDS.toSeconds(sideline) + " s");
+        }
+
+        /**
+         * Puts the key back in use, Appdome accepted it.
+         */
+        public void succeeded() {
+            synchronized (AppdomeTokenPool.this) {
+                health.throttledInARow = 0;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (AppdomeTokenPool.this) {
+                if (!closed) {
+                    closed = true;
+                    health.inFlight--;
+                }
+            }
+        }
+    }
+}
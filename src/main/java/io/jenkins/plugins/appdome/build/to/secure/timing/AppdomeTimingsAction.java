@@ -0,0 +1,155 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps how long each stage of the Appdome protections of a build took: engine setup, input
+ * downloads, upload, the builds on Appdome, signing and output download. Shown on the build page
+ * and exported by the remote API, e.g. {@code api/json?tree=actions[stages[*]]}.
+ * <p>
+ * Stages that run concurrently are recorded as they end, so they may overlap. The action also
+ * keeps the total time of the Appdome steps and the size of the apps before and after protection,
+ * which {@link AppdomeTrend} follows across builds.
+ */
+@ExportedBean
+public class AppdomeTimingsAction implements RunAction2, StageRecorder {
+
+    private final List<Stage> stages = new ArrayList<>();
+    private long totalMillis;
+    private long appSize;
+    private long protectedAppSize;
+
+    private transient Run<?, ?> run;
+
+    /**
+     * @return the action of the build, added if it has none yet
+     */
+    public static synchronized AppdomeTimingsAction of(Run<?, ?> run) {
+        AppdomeTimingsAction action = run.getAction(AppdomeTimingsAction.class);
+        if (action == null) {
+            action = new AppdomeTimingsAction();
+            run.addAction(action);
+        }
+        return action;
+    }
+
+    @Override
+    public synchronized void record(String stage, long durationMillis, boolean succeeded) {
+        stages.add(new Stage(stage, durationMillis, succeeded));
+    }
+
+    @Override
+    public synchronized void recordSizes(long appBytes, long protectedAppBytes) {
+        appSize += appBytes;
+        protectedAppSize += protectedAppBytes;
+    }
+
+    /**
+     * Adds the time an Appdome step took, from its start to its end.
+     */
+    public synchronized void addTotal(long durationMillis) {
+        totalMillis += durationMillis;
+    }
+
+    @Exported(visibility = 2)
+    public synchronized List<Stage> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    /**
+     * @return the time the Appdome steps took, or the sum of the stages when the steps weren't
+     * timed as a whole, as with the Pipeline steps
+     */
+    @Exported(visibility = 2)
+    public synchronized long getTotalMillis() {
+        return totalMillis > 0 ? totalMillis : stages.stream().mapToLong(Stage::getDurationMillis).sum();
+    }
+
+    /**
+     * @return the size of the apps that were protected, in bytes
+     */
+    @Exported(visibility = 2)
+    public synchronized long getAppSize() {
+        return appSize;
+    }
+
+    /**
+     * @return the size of the protected apps, in bytes
+     */
+    @Exported(visibility = 2)
+    public synchronized long getProtectedAppSize() {
+        return protectedAppSize;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Appdome stage timings";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class Stage {
+
+        private final String name;
+        private final long durationMillis;
+        private final boolean succeeded;
+
+        public Stage(String name, long durationMillis, boolean succeeded) {
+            this.name = name;
+            this.durationMillis = durationMillis;
+            this.succeeded = succeeded;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Exported
+        public boolean isSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * @return the duration in seconds, as the build log prints it
+         */
+        public String getDuration() {
+            return String.format(Locale.ROOT, "%.1f s", durationMillis / 1e3);
+        }
+    }
+}
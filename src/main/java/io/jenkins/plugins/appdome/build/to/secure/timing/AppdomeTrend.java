@@ -0,0 +1,145 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Protection metrics of the recent builds of a job, kept in {@code appdome-trend.xml} in the
+ * job's directory. Each completed build with an {@link AppdomeTimingsAction} is added when it
+ * completes and removed when it's deleted, so that the trend is drawn without loading the
+ * builds it covers.
+ */
+public class AppdomeTrend {
+
+    public static final String FILE_NAME = "appdome-trend.xml";
+
+    /**
+     * How many builds the trend covers.
+     */
+    static final int MAX_BUILDS = Integer.getInteger(AppdomeTrend.class.getName() + ".maxBuilds", 100);
+
+    private static final Object LOCK = new Object();
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @return the builds of the trend, oldest first
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the trend of the job, empty if none of its builds was protected yet
+     */
+    public static AppdomeTrend load(Job<?, ?> job) throws IOException {
+        XmlFile file = file(job);
+        synchronized (LOCK) {
+            if (!file.exists()) {
+                return new AppdomeTrend();
+            }
+            return (AppdomeTrend) file.read();
+        }
+    }
+
+    static boolean exists(Job<?, ?> job) {
+        return file(job).exists();
+    }
+
+    /**
+     * @return when a build was last added to or removed from the trend of the job
+     */
+    static long lastModified(Job<?, ?> job) {
+        return file(job).getFile().lastModified();
+    }
+
+    /**
+     * Adds a completed build to the trend of its job, dropping the oldest builds past {@link #MAX_BUILDS}.
+     */
+    static void add(Run<?, ?> run, AppdomeTimingsAction timings) throws IOException {
+        XmlFile file = file(run.getParent());
+        synchronized (LOCK) {
+            AppdomeTrend trend = file.exists() ? (AppdomeTrend) file.read() : new AppdomeTrend();
+            trend.entries.removeIf(entry -> entry.number == run.getNumber());
+            trend.entries.add(new Entry(run.getNumber(), timings));
+            trend.entries.sort((a, b) -> Integer.compare(a.number, b.number));
+            while (trend.entries.size() > MAX_BUILDS) {
+                trend.entries.remove(0);
+            }
+            file.write(trend);
+        }
+    }
+
+    /**
+     * Removes a deleted build from the trend of its job.
+     */
+    static void remove(Run<?, ?> run) throws IOException {
+        XmlFile file = file(run.getParent());
+        synchronized (LOCK) {
+            if (!file.exists()) {
+                return;
+            }
+            AppdomeTrend trend = (AppdomeTrend) file.read();
+            if (trend.entries.removeIf(entry -> entry.number == run.getNumber())) {
+                file.write(trend);
+            }
+        }
+    }
+
+    private static XmlFile file(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(job.getRootDir(), FILE_NAME));
+    }
+
+    /**
+     * Metrics of one build. Stages of the apps of a batch and of additional fusion sets are added
+     * up by stage, e.g. "free: Upload" and "paid: Upload" make "Upload".
+     */
+    public static final class Entry {
+
+        private final int number;
+        private final long totalMillis;
+        private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+        private final long appSize;
+        private final long protectedAppSize;
+
+        Entry(int number, AppdomeTimingsAction timings) {
+            this.number = number;
+            this.totalMillis = timings.getTotalMillis();
+            for (AppdomeTimingsAction.Stage stage : timings.getStages()) {
+                String name = stage.getName().substring(stage.getName().lastIndexOf(": ") + 1).trim();
+                stageMillis.merge(name, stage.getDurationMillis(), Long::sum);
+            }
+            this.appSize = timings.getAppSize();
+            this.protectedAppSize = timings.getProtectedAppSize();
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public Map<String, Long> getStageMillis() {
+            return stageMillis;
+        }
+
+        public long getAppSize() {
+            return appSize;
+        }
+
+        public long getProtectedAppSize() {
+            return protectedAppSize;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import jenkins.model.TransientActionFactory;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.CategoryDataset;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trend of the Appdome protections of a job, drawn on the job page from {@link AppdomeTrend}:
+ * how long protecting took, in total and by stage, and the size of the app before and after.
+ */
+public class AppdomeTrendAction implements Action {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final Job<?, ?> job;
+
+    public AppdomeTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * Draws the protection time of the recent builds, in seconds.
+     */
+    public void doDurationGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        DataSetBuilder<String, Integer> data = new DataSetBuilder<>();
+        for (AppdomeTrend.Entry entry : AppdomeTrend.load(job).getEntries()) {
+            data.add(entry.getTotalMillis() / 1e3, "Total", entry.getNumber());
+            for (Map.Entry<String, Long> stage : entry.getStageMillis().entrySet()) {
+                data.add(stage.getValue() / 1e3, stage.getKey(), entry.getNumber());
+            }
+        }
+        new TrendGraph(AppdomeTrend.lastModified(job), data.build(), "seconds").doPng(req, rsp);
+    }
+
+    /**
+     * Draws the size of the apps of the recent builds, before and after protection, in megabytes.
+     */
+    public void doSizeGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        DataSetBuilder<String, Integer> data = new DataSetBuilder<>();
+        for (AppdomeTrend.Entry entry : AppdomeTrend.load(job).getEntries()) {
+            if (entry.getAppSize() > 0) {
+                data.add(entry.getAppSize() / MEGABYTE, "App", entry.getNumber());
+                data.add(entry.getProtectedAppSize() / MEGABYTE, "Protected app", entry.getNumber());
+            }
+        }
+        new TrendGraph(AppdomeTrend.lastModified(job), data.build(), "MB").doPng(req, rsp);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Appdome protection trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "appdomeTrend";
+    }
+
+    private static final class TrendGraph extends Graph {
+
+        private final CategoryDataset dataset;
+        private final String unit;
+
+        TrendGraph(long timestamp, CategoryDataset dataset, String unit) {
+            super(timestamp, 500, 200);
+            this.dataset = dataset;
+            this.unit = unit;
+        }
+
+        @Override
+        protected JFreeChart createGraph() {
+            JFreeChart chart = ChartFactory.createLineChart(null, null, unit, dataset,
+                    PlotOrientation.VERTICAL, true, true, false);
+            chart.setBackgroundPaint(Color.WHITE);
+            CategoryPlot plot = chart.getCategoryPlot();
+            plot.setBackgroundPaint(Color.WHITE);
+            plot.setRangeGridlinePaint(Color.LIGHT_GRAY);
+            plot.getDomainAxis().setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+            return chart;
+        }
+    }
+
+    /**
+     * Adds the trend to the jobs that had a build protected.
+     */
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static final class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @NonNull
+        @Override
+        public Collection<? extends Action> createFor(@NonNull Job target) {
+            return AppdomeTrend.exists(target) ? List.of(new AppdomeTrendAction(target)) : List.of();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.io.IOException;
+
+/**
+ * Keeps {@link AppdomeTrend} up to date as builds complete and are deleted.
+ */
+@Extension
+public class AppdomeTrendListener extends RunListener<Run<?, ?>> {
+
+    @Override
+    public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+        AppdomeTimingsAction timings = run.getAction(AppdomeTimingsAction.class);
+        if (timings == null) {
+            return;
+        }
+        try {
+            AppdomeTrend.add(run, timings);
+        } catch (IOException e) {
+            listener.getLogger().println("Couldn't update the Appdome trend of " + run.getParent().getFullDisplayName()
+                    + " (" + e.getMessage() + ")");
+        }
+    }
+
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        try {
+            AppdomeTrend.remove(run);
+        } catch (IOException e) {
+            // Dropped with the oldest builds eventually
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+/**
+ * Receives how long each stage of a protection took. Stages are measured where they run, so an
+ * agent reports its stages to the controller through a proxy of the recorder, see
+ * {@link hudson.remoting.VirtualChannel#export}.
+ */
+public interface StageRecorder {
+
+    /**
+     * @param stage          what was done, e.g. "Upload"
+     * @param durationMillis how long it took
+     * @param succeeded      false if the stage failed or was interrupted
+     */
+    void record(String stage, long durationMillis, boolean succeeded);
+
+    /**
+     * Receives the size of a protected app and of the app it was protected from. Ignored by default.
+     */
+    default void recordSizes(long appBytes, long protectedAppBytes) {
+    }
+
+    /**
+     * @return a recorder that names the stages it records after the given scope, e.g. an app of a batch
+     */
+    static StageRecorder scoped(StageRecorder recorder, String scope) {
+        return new StageRecorder() {
+            @Override
+            public void record(String stage, long durationMillis, boolean succeeded) {
+                recorder.record(scope + ": " + stage, durationMillis, succeeded);
+            }
+
+            @Override
+            public void recordSizes(long appBytes, long protectedAppBytes) {
+                recorder.recordSizes(appBytes, protectedAppBytes);
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times stages with {@link System#nanoTime()}, which unlike the wall clock doesn't jump.
+ */
+public final class StageTimer {
+
+    private StageTimer() {
+    }
+
+    public interface TimedStage<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs a stage and records how long it took, whether it succeeds or not.
+     *
+     * @param recorder where to record the stage, or null not to
+     */
+    public static <T> T time(@CheckForNull StageRecorder recorder, String stage, TimedStage<T> body) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            T result = body.run();
+            succeeded = true;
+            return result;
+        } finally {
+            record(recorder, stage, start, succeeded);
+        }
+    }
+
+    /**
+     * Records a stage that started at the given {@link System#nanoTime()} and ends now.
+     *
+     * @param recorder where to record the stage, or null not to
+     */
+    public static void record(@CheckForNull StageRecorder recorder, String stage, long startNanos, boolean succeeded) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(stage, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), succeeded);
+        } catch (RuntimeException e) {
+            // Timings are informational, losing the connection to the controller mustn't fail the stage
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.jenkins.plugins.appdome.build.to.secure;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.platform.Platform;
+import io.jenkins.plugins.appdome.build.to.secure.platform.android.AndroidPlatform;
+import io.jenkins.plugins.appdome.build.to.secure.platform.android.certificate.method.PrivateSign;
+import io.jenkins.plugins.appdome.build.to.secure.timing.AppdomeTimingsAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppdomeBatchBuilderTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private MockAppdomeServer appdome;
+
+    @Before
+    public void setUp() throws Exception {
+        appdome = new MockAppdomeServer();
+        AppdomeGlobalConfiguration config = AppdomeGlobalConfiguration.get();
+        config.setNativeClientEnabled(true);
+        config.setServerUrl(appdome.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        appdome.stop();
+    }
+
+    @Test
+    public void testEachAppHasItsOwnResult() throws Exception {
+        appdome.failingFusionSets.add("fs-broken");
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        FilePath workspace = jenkins.jenkins.getWorkspaceFor(project);
+        for (String app : new String[]{"free.apk", "paid.apk", "beta.apk"}) {
+            workspace.child(app).write("app-content", "UTF-8");
+        }
+        AppdomeBatchBuilder batch = new AppdomeBatchBuilder(Secret.fromString("token"), "team",
+                List.of(app("free.apk", "fs-1"), app("paid.apk", "fs-broken"), app("beta.apk", "fs-2")));
+        batch.setConcurrency(2);
+        project.getBuildersList().add(batch);
+
+        FreeStyleBuild build = jenkins.buildAndAssertStatus(Result.FAILURE, project);
+
+        jenkins.assertLogContains("Appdome batch: 2 of 3 apps protected", build);
+        jenkins.assertLogContains("[paid] failed", build);
+        jenkins.assertLogContains("paid: io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiException: Build failed", build);
+        assertTrue(workspace.child("output/free/free.apk").exists());
+        assertTrue(workspace.child("output/beta/beta.apk").exists());
+        assertFalse(workspace.child("output/paid/paid.apk").exists());
+        assertEquals(3, appdome.uploads.get());
+        List<AppdomeTimingsAction.Stage> stages = build.getAction(AppdomeTimingsAction.class).getStages();
+        assertTrue(stages.stream().anyMatch(stage -> stage.getName().equals("free: Output download") && stage.isSucceeded()));
+        assertTrue(stages.stream().anyMatch(stage -> stage.getName().equals("paid: Build") && !stage.isSucceeded()));
+    }
+
+    private static Platform app(String appPath, String fusionSetId) {
+        PrivateSign privateSign = new PrivateSign("8DF593C1B6EAA6EADADCE36831FE82B08CAC8D74");
+        privateSign.setGoogleSigning(false);
+        AndroidPlatform platform = new AndroidPlatform(privateSign);
+        platform.setAppPath(appPath);
+        platform.setFusionSetId(fusionSetId);
+        return platform;
+    }
+}
@@ -0,0 +1,78 @@
+package io.jenkins.plugins.appdome.build.to.secure;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.platform.android.AndroidPlatform;
+import io.jenkins.plugins.appdome.build.to.secure.platform.android.certificate.method.PrivateSign;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class AppdomeNativeClientTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private MockAppdomeServer appdome;
+
+    @Before
+    public void setUp() throws Exception {
+        appdome = new MockAppdomeServer();
+        AppdomeGlobalConfiguration config = AppdomeGlobalConfiguration.get();
+        config.setNativeClientEnabled(true);
+        config.setServerUrl(appdome.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        appdome.stop();
+    }
+
+    @Test
+    public void testFreestyleProtectionRunsWithTheBuildersKey() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        FilePath workspace = jenkins.jenkins.getWorkspaceFor(project);
+        workspace.child("app.apk").write("app-content", "UTF-8");
+        project.getBuildersList().add(builder());
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+
+        jenkins.assertLogContains("Running Appdome build with the native client", build);
+        assertEquals("protected-app-content", workspace.child("output/Appdome_Protected_app.apk").readToString());
+        assertEquals(1, appdome.uploads.get());
+        assertEquals(Set.of("token"), appdome.apiKeys);
+    }
+
+    @Test
+    public void testIdenticalProtectionIsRestoredFromTheResultCache() throws Exception {
+        AppdomeGlobalConfiguration.get().setResultCacheEnabled(true);
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        FilePath workspace = jenkins.jenkins.getWorkspaceFor(project);
+        workspace.child("app.apk").write("app-content", "UTF-8");
+        project.getBuildersList().add(builder());
+
+        jenkins.buildAndAssertSuccess(project);
+        FreeStyleBuild second = jenkins.buildAndAssertSuccess(project);
+
+        jenkins.assertLogContains("Appdome result cache hit", second);
+        assertEquals("protected-app-content", workspace.child("output/Appdome_Protected_app.apk").readToString());
+        assertEquals(1, appdome.uploads.get());
+    }
+
+    private static AppdomeBuilder builder() {
+        PrivateSign privateSign = new PrivateSign("8DF593C1B6EAA6EADADCE36831FE82B08CAC8D74");
+        privateSign.setGoogleSigning(false);
+        AndroidPlatform platform = new AndroidPlatform(privateSign);
+        platform.setAppPath("app.apk");
+        platform.setFusionSetId("fs-1");
+        return new AppdomeBuilder(Secret.fromString("token"), "team", platform, null);
+    }
+}
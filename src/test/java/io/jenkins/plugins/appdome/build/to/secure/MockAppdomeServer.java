@@ -0,0 +1,106 @@
+package io.jenkins.plugins.appdome.build.to.secure;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for Appdome in the tests of the native client. Tasks are named after their action,
+ * e.g. "fuse-task", and are in progress on their first status poll.
+ */
+public class MockAppdomeServer {
+
+    private static final Pattern ACTION = Pattern.compile("name=\"action\"\r\n\r\n(\\w+)");
+
+    private final HttpServer server;
+    public final AtomicInteger uploads = new AtomicInteger();
+    /**
+     * The API keys requests were made with.
+     */
+    public final Set<String> apiKeys = ConcurrentHashMap.newKeySet();
+    public final Map<String, String> taskRequests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> statusPolls = new ConcurrentHashMap<>();
+    /**
+     * Tasks that stay in progress while they are in the set.
+     */
+    public final Set<String> heldTasks = ConcurrentHashMap.newKeySet();
+    public volatile String failingAction;
+    /**
+     * Fusion sets whose builds fail, as "failed-task".
+     */
+    public final Set<String> failingFusionSets = ConcurrentHashMap.newKeySet();
+
+    public MockAppdomeServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/upload", exchange -> {
+            apiKeys.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+            exchange.getRequestBody().readAllBytes();
+            uploads.incrementAndGet();
+            respond(exchange, 200, "{\"id\":\"app-1\"}");
+        });
+        server.createContext("/api/v1/tasks", this::handleTasks);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handleTasks(HttpExchange exchange) throws IOException {
+        apiKeys.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Matcher action = ACTION.matcher(body);
+            if (!action.find()) {
+                respond(exchange, 400, "{\"message\":\"missing action\"}");
+                return;
+            }
+            taskRequests.put(action.group(1), body);
+            if (failingFusionSets.stream().anyMatch(body::contains)) {
+                respond(exchange, 200, "{\"task_id\":\"failed-task\"}");
+                return;
+            }
+            respond(exchange, 200, "{\"task_id\":\"" + action.group(1) + "-task\"}");
+            return;
+        }
+        String taskId = path.split("/")[4];
+        if (path.endsWith("/status")) {
+            int polls = statusPolls.computeIfAbsent(taskId, k -> new AtomicInteger()).getAndIncrement();
+            if (taskId.equals(failingAction + "-task") || taskId.equals("failed-task")) {
+                respond(exchange, 200, "{\"status\":\"error\",\"message\":\"fusion set not found\"}");
+            } else if (polls == 0 || heldTasks.contains(taskId)) {
+                respond(exchange, 200, "{\"status\":\"progress\"}");
+            } else {
+                respond(exchange, 200, "{\"status\":\"completed\"}");
+            }
+        } else if (path.endsWith("/output")) {
+            respond(exchange, 200, "protected-app-content");
+        } else {
+            respond(exchange, 404, "");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
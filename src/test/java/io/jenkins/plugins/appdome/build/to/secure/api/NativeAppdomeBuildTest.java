@@ -0,0 +1,409 @@
+package io.jenkins.plugins.appdome.build.to.secure.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.download.ProxyEnvironment;
+import io.jenkins.plugins.appdome.build.to.secure.platform.SignType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NativeAppdomeBuildTest {
+
+    private static final byte[] APP = "app-content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEYSTORE = "keystore-content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PROTECTED_APP = "protected-app-content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CERTIFICATE = "certificate-content".getBytes(StandardCharsets.UTF_8);
+    private static final Pattern ACTION = Pattern.compile("name=\"action\"\r\n\r\n(\\w+)");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // Stands in for Appdome, and for the storage the protected app is downloaded from
+    private HttpServer appdome;
+    private HttpServer storage;
+    private String serverUrl;
+    private final Map<String, String> taskRequests = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> statusPolls = new ConcurrentHashMap<>();
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+    private final List<String> storageAuthorizations = new CopyOnWriteArrayList<>();
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicInteger storageFailures = new AtomicInteger();
+    private volatile String failingAction;
+    // Answers the first task-starting requests of an action with an error status
+    private volatile String rejectedAction;
+    private volatile int rejectedStatus;
+    private final AtomicInteger rejections = new AtomicInteger();
+    private final Map<String, AtomicInteger> taskStarts = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        storage = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        storage.createContext("/bucket/protected.apk", exchange -> {
+            storageAuthorizations.add(String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+            if (storageFailures.getAndDecrement() > 0) {
+                respond(exchange, 502, "{\"message\":\"bad gateway\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            respond(exchange, 200, PROTECTED_APP);
+        });
+        storage.start();
+
+        appdome = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        appdome.createContext("/api/v1/upload", exchange -> {
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization") + " " + exchange.getRequestURI().getQuery());
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (!body.contains(new String(APP, StandardCharsets.UTF_8))) {
+                respond(exchange, 400, "{\"message\":\"missing file\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            uploads.incrementAndGet();
+            respond(exchange, 200, "{\"id\":\"app-1\"}".getBytes(StandardCharsets.UTF_8));
+        });
+        appdome.createContext("/api/v1/tasks", this::handleTasks);
+        appdome.start();
+        serverUrl = "http://" + appdome.getAddress().getHostString() + ":" + appdome.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        appdome.stop(0);
+        storage.stop(0);
+    }
+
+    @Test
+    public void testRequestIsReadFromEngineArguments() {
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--team_id", "team", "--app", "/tmp/app.ipa", "--output", "/tmp/out.ipa", "--private_signing",
+                "--provisioning_profiles", "/tmp/a.mobileprovision, /tmp/b.mobileprovision", "--build_logs"));
+
+        assertEquals("token", request.getApiKey());
+        assertEquals("team", request.getTeamId());
+        assertEquals(SignType.PRIVATE, request.getSignType());
+        assertEquals(List.of("/tmp/a.mobileprovision", "/tmp/b.mobileprovision"), request.getProvisioningProfiles());
+        assertTrue(request.isBuildWithLogs());
+        assertNull(request.getSecondOutput());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownEngineArgumentIsRejected() {
+        AppdomeBuildRequest.parse(List.of("--api_key", "token", "--unknown"));
+    }
+
+    @Test
+    public void testRequestArgumentsKeepQuotesAndSpaces() {
+        AppdomeBuildRequest request = new AppdomeBuildRequest();
+        request.setFusionSetId("fs-1");
+        request.setAppPath("/tmp/my \"apps\"/app 1.ipa");
+        request.setOutput("/tmp/out dir/Appdome_Protected_app 1.ipa");
+        request.setSignType(SignType.AUTO);
+        request.setKeystorePath("/tmp/keys/cert.p12");
+        request.setKeystorePassword("pass \"word\"");
+        request.setProvisioningProfiles("/tmp/a b.mobileprovision,/tmp/c.mobileprovision");
+        request.setBuildWithLogs(true);
+
+        List<String> arguments = new ArrayList<>(List.of("--api_key", "token"));
+        arguments.addAll(request.toArguments());
+        assertFalse(request.toArguments().contains("token"));
+        AppdomeBuildRequest parsed = AppdomeBuildRequest.parse(arguments);
+
+        assertEquals("token", parsed.getApiKey());
+        assertEquals("/tmp/my \"apps\"/app 1.ipa", parsed.getAppPath());
+        assertEquals("/tmp/out dir/Appdome_Protected_app 1.ipa", parsed.getOutput());
+        assertEquals("pass \"word\"", parsed.getKeystorePassword());
+        assertEquals(List.of("/tmp/a b.mobileprovision", "/tmp/c.mobileprovision"), parsed.getProvisioningProfiles());
+        assertEquals(SignType.AUTO, parsed.getSignType());
+        assertTrue(parsed.isBuildWithLogs());
+    }
+
+    @Test
+    public void testRequestsGoThroughTheEnvironmentsProxy() throws Exception {
+        List<String> proxied = new CopyOnWriteArrayList<>();
+        HttpServer proxy = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        proxy.createContext("/", exchange -> {
+            proxied.add(exchange.getRequestURI().toString());
+            exchange.getRequestBody().readAllBytes();
+            respond(exchange, 200, "{\"id\":\"app-1\"}".getBytes(StandardCharsets.UTF_8));
+        });
+        proxy.start();
+        try {
+            File app = tmp.newFile("app.apk");
+            Files.write(app.toPath(), APP);
+            ProxyEnvironment proxies = ProxyEnvironment.of(Map.of("http_proxy",
+                    "http://" + proxy.getAddress().getHostString() + ":" + proxy.getAddress().getPort()));
+            AppdomeApiClient client = new AppdomeApiClient("http://fusion.appdome.invalid", "token", null, "Jenkins/test", proxies);
+
+            assertEquals("app-1", client.upload(app));
+            assertEquals(List.of("http://fusion.appdome.invalid/api/v1/upload"), proxied);
+        } finally {
+            proxy.stop(0);
+        }
+    }
+
+    @Test
+    public void testSocksProxyIsRejected() throws Exception {
+        File app = tmp.newFile("app.apk");
+        Files.write(app.toPath(), APP);
+        AppdomeApiClient client = new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test",
+                ProxyEnvironment.of(Map.of("all_proxy", "socks5h://proxy.invalid")));
+        try {
+            client.upload(app);
+            fail("Expected the SOCKS proxy to be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("only http proxies"));
+        }
+        assertEquals(0, uploads.get());
+    }
+
+    @Test
+    public void testBuildSignAndDownload() throws Exception {
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        Files.write(new File(workspace, "release.keystore").toPath(), KEYSTORE);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--team_id", "team", "--app", "app.apk", "--sign_on_appdome", "--keystore", "release.keystore",
+                "--keystore_pass", "secret", "--keystore_alias", "alias", "--key_pass", "key",
+                "--output", "output/app.apk", "--certificate_output", "output/Certified_Secure.pdf",
+                "--deobfuscation_script_output", "output/Deobfuscation_Mapping_Files.zip"));
+
+        int exitCode = new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", "team", "Jenkins/test"), request, TaskListener.NULL)
+                .invoke(workspace, null);
+
+        assertEquals(0, exitCode);
+        assertArrayEquals(PROTECTED_APP, Files.readAllBytes(new File(workspace, "output/app.apk").toPath()));
+        assertArrayEquals(CERTIFICATE, Files.readAllBytes(new File(workspace, "output/Certified_Secure.pdf").toPath()));
+        // The mock has no deobfuscation mapping files, which isn't an error
+        assertFalse(new File(workspace, "output/Deobfuscation_Mapping_Files.zip").exists());
+
+        assertTrue(taskRequests.get("fuse").contains("fs-1"));
+        assertTrue(taskRequests.get("context").contains("fuse-task"));
+        String sign = taskRequests.get("sign");
+        assertTrue(sign.contains("context-task"));
+        assertTrue(sign.contains("\"signing_keystore_alias\":\"alias\""));
+        assertTrue(sign.contains("name=\"signing_keystore\"; filename=\"release.keystore\""));
+        assertTrue(sign.contains(new String(KEYSTORE, StandardCharsets.UTF_8)));
+
+        assertTrue(authorizations.stream().allMatch("token team_id=team"::equals));
+        // The token isn't sent to the storage the output is redirected to
+        assertEquals(List.of("null"), storageAuthorizations);
+    }
+
+    @Test
+    public void testFusionSetsShareOneUpload() throws Exception {
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--app", "app.apk", "--output", "output/app.apk"));
+
+        List<String> stages = new CopyOnWriteArrayList<>();
+        new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test"),
+                List.of(request.forFusionSet("fs-1"), request.forFusionSet("fs-2")), TaskListener.NULL,
+                (stage, durationMillis, succeeded) -> stages.add(stage + (succeeded ? "" : " failed")), 0)
+                .invoke(workspace, null);
+
+        assertEquals(1, uploads.get());
+        assertEquals(Set.of("Upload", "fs-1: Build", "fs-1: Context", "fs-1: Output download",
+                "fs-2: Build", "fs-2: Context", "fs-2: Output download"), new HashSet<>(stages));
+        assertEquals(7, stages.size());
+        assertArrayEquals(PROTECTED_APP, Files.readAllBytes(new File(workspace, "output/fs-1/app.apk").toPath()));
+        assertArrayEquals(PROTECTED_APP, Files.readAllBytes(new File(workspace, "output/fs-2/app.apk").toPath()));
+        assertEquals("output/fs-2/app.apk", request.forFusionSet("fs-2").getOutput());
+        assertEquals("fs-1", request.getFusionSetId());
+    }
+
+    @Test
+    public void testTransientFailureResumesFromTheFailedStage() throws Exception {
+        storageFailures.set(1);
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--app", "app.apk", "--output", "out.apk"));
+
+        List<String> stages = new CopyOnWriteArrayList<>();
+        new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test"), List.of(request),
+                TaskListener.NULL, (stage, durationMillis, succeeded) -> stages.add(stage), 1)
+                .invoke(workspace, null);
+
+        assertArrayEquals(PROTECTED_APP, Files.readAllBytes(new File(workspace, "out.apk").toPath()));
+        assertEquals(1, uploads.get());
+        assertEquals(List.of("Upload", "Build", "Context", "Output download"), stages);
+        assertEquals(2, storageAuthorizations.size());
+    }
+
+    @Test
+    public void testRetriesAreLimited() throws Exception {
+        storageFailures.set(2);
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--app", "app.apk", "--output", "out.apk"));
+        try {
+            new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test"), List.of(request),
+                    TaskListener.NULL, null, 1).invoke(workspace, null);
+            fail("Expected the download to fail");
+        } catch (AppdomeApiException e) {
+            assertEquals(502, e.getStatusCode());
+        }
+        assertEquals(2, storageAuthorizations.size());
+    }
+
+    @Test
+    public void testTaskStartIsRetriedWhenAppdomeTurnedItAway() throws Exception {
+        rejectedAction = "context";
+        rejectedStatus = 503;
+        rejections.set(1);
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--app", "app.apk", "--output", "out.apk"));
+
+        new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test"), List.of(request),
+                TaskListener.NULL, null, 1).invoke(workspace, null);
+
+        assertArrayEquals(PROTECTED_APP, Files.readAllBytes(new File(workspace, "out.apk").toPath()));
+        assertEquals(2, taskStarts.get("context").get());
+        assertEquals(1, taskStarts.get("fuse").get());
+    }
+
+    @Test
+    public void testTaskStartIsNotRetriedWhenItMayHaveStarted() throws Exception {
+        rejectedAction = "fuse";
+        rejectedStatus = 502;
+        rejections.set(1);
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--app", "app.apk", "--output", "out.apk"));
+        try {
+            new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test"), List.of(request),
+                    TaskListener.NULL, null, 1).invoke(workspace, null);
+            fail("Expected the build to fail");
+        } catch (AppdomeApiException e) {
+            assertEquals(502, e.getStatusCode());
+        }
+        assertEquals(1, taskStarts.get("fuse").get());
+        assertFalse(taskStarts.containsKey("context"));
+    }
+
+    @Test
+    public void testRejectedTaskStartsAreTheOnlyNonIdempotentRetries() {
+        assertTrue(RetryBudget.isRejected(new AppdomeApiException(429, "HTTP 429")));
+        assertTrue(RetryBudget.isRejected(new AppdomeApiException(503, "HTTP 503")));
+        assertTrue(RetryBudget.isRejected(new ConnectException("Connection refused")));
+        assertFalse(RetryBudget.isRejected(new AppdomeApiException(502, "HTTP 502")));
+        assertFalse(RetryBudget.isRejected(new HttpTimeoutException("request timed out")));
+        assertFalse(RetryBudget.isRejected(new EOFException()));
+        assertTrue(RetryBudget.isTransient(new HttpTimeoutException("request timed out")));
+    }
+
+    @Test
+    public void testFailedTaskFailsTheBuild() throws Exception {
+        failingAction = "fuse";
+        File workspace = tmp.newFolder();
+        Files.write(new File(workspace, "app.apk").toPath(), APP);
+        AppdomeBuildRequest request = AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", "fs-1",
+                "--app", "app.apk", "--output", "out.apk"));
+        try {
+            new NativeAppdomeBuild(new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test"), request, TaskListener.NULL)
+                    .invoke(workspace, null);
+            fail("Expected the build to fail");
+        } catch (AppdomeApiException e) {
+            assertEquals("Build failed: fusion set not found", e.getMessage());
+        }
+        assertFalse(taskRequests.containsKey("context"));
+    }
+
+    @Test
+    public void testErrorStatusIsReported() throws Exception {
+        File workspace = tmp.newFolder();
+        AppdomeApiClient client = new AppdomeApiClient(serverUrl, "token", null, "Jenkins/test");
+        File missingContent = new File(workspace, "empty.apk");
+        Files.write(missingContent.toPath(), new byte[0]);
+        try {
+            client.upload(missingContent);
+            fail("Expected the upload to fail");
+        } catch (AppdomeApiException e) {
+            assertEquals(400, e.getStatusCode());
+            assertEquals("HTTP 400: missing file", e.getMessage());
+        }
+    }
+
+    private void handleTasks(HttpExchange exchange) throws IOException {
+        authorizations.add(exchange.getRequestHeaders().getFirst("Authorization") + " " + exchange.getRequestURI().getQuery());
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Matcher action = ACTION.matcher(body);
+            if (!action.find()) {
+                respond(exchange, 400, "{\"message\":\"missing action\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            taskStarts.computeIfAbsent(action.group(1), k -> new AtomicInteger()).incrementAndGet();
+            if (action.group(1).equals(rejectedAction) && rejections.getAndDecrement() > 0) {
+                respond(exchange, rejectedStatus, "{\"message\":\"try again\"}".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            taskRequests.put(action.group(1), body);
+            respond(exchange, 200, ("{\"task_id\":\"" + action.group(1) + "-task\"}").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String taskId = path.split("/")[4];
+        if (path.endsWith("/status")) {
+            // Each task is in progress on the first poll
+            int polls = statusPolls.computeIfAbsent(taskId, k -> new AtomicInteger()).getAndIncrement();
+            String status;
+            if (taskId.equals(failingAction + "-task")) {
+                status = "{\"status\":\"error\",\"message\":\"fusion set not found\"}";
+            } else {
+                status = polls == 0 ? "{\"status\":\"progress\"}" : "{\"status\":\"completed\"}";
+            }
+            respond(exchange, 200, status.getBytes(StandardCharsets.UTF_8));
+        } else if (path.endsWith("/output")) {
+            exchange.getResponseHeaders().add("Location", "http://" + storage.getAddress().getHostString() + ":"
+                    + storage.getAddress().getPort() + "/bucket/protected.apk");
+            respond(exchange, 302, new byte[0]);
+        } else if (path.endsWith("/certificate")) {
+            respond(exchange, 200, CERTIFICATE);
+        } else {
+            respond(exchange, 404, new byte[0]);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.jenkins.plugins.appdome.build.to.secure.cache;
+
+import hudson.FilePath;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import io.jenkins.plugins.appdome.build.to.secure.api.NativeAppdomeBuild;
+import io.jenkins.plugins.appdome.build.to.secure.api.TaskOutput;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProtectionResultCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File workspace;
+    private ProtectionResultCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        workspace = tmp.newFolder("workspace");
+        write("app.apk", "app-content");
+        write("release.keystore", "keystore-content");
+        cache = new ProtectionResultCache(tmp.newFolder("cache"), 1024 * 1024, TimeUnit.DAYS.toMillis(30));
+    }
+
+    @Test
+    public void testKeyCoversInputsAndConfiguration() throws Exception {
+        String key = cache.key(request("fs-1", "secret"), new FilePath(workspace));
+
+        assertEquals(key, cache.key(request("fs-1", "secret"), new FilePath(workspace)));
+        assertNotEquals(key, cache.key(request("fs-2", "secret"), new FilePath(workspace)));
+        assertNotEquals(key, cache.key(request("fs-1", "other"), new FilePath(workspace)));
+        write("release.keystore", "another-keystore");
+        assertNotEquals(key, cache.key(request("fs-1", "secret"), new FilePath(workspace)));
+        write("release.keystore", "keystore-content");
+        write("app.apk", "changed-app-content");
+        assertNotEquals(key, cache.key(request("fs-1", "secret"), new FilePath(workspace)));
+    }
+
+    @Test
+    public void testOutputsAreRestored() throws Exception {
+        AppdomeBuildRequest request = request("fs-1", "secret");
+        Map<TaskOutput, String> outputs = NativeAppdomeBuild.outputs(request);
+        String key = cache.key(request, new FilePath(workspace));
+        assertFalse(cache.restore(key, outputs, new FilePath(workspace)));
+
+        write("output/app.apk", "protected-app-content");
+        write("output/Certified_Secure.pdf", "certificate-content");
+        cache.store(key, outputs, new FilePath(workspace));
+        Files.delete(new File(workspace, "output/app.apk").toPath());
+        Files.delete(new File(workspace, "output/Certified_Secure.pdf").toPath());
+
+        assertTrue(cache.restore(key, outputs, new FilePath(workspace)));
+        assertEquals("protected-app-content", read("output/app.apk"));
+        assertEquals("certificate-content", read("output/Certified_Secure.pdf"));
+        // There were no mapping files to cache
+        assertFalse(new File(workspace, "output/Deobfuscation_Mapping_Files.zip").exists());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAndExpiredResultsAreEvicted() throws Exception {
+        File root = tmp.newFolder("small-cache");
+        cache = new ProtectionResultCache(root, 50, TimeUnit.DAYS.toMillis(30));
+        Map<TaskOutput, String> outputs = Map.of(TaskOutput.PROTECTED_APP, "output/app.apk");
+        write("output/app.apk", "protected-app-content-30-bytes");
+
+        cache.store("first", outputs, new FilePath(workspace));
+        new File(root, "first").setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        cache.store("expired", outputs, new FilePath(workspace));
+        new File(root, "expired").setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31));
+        cache.store("second", outputs, new FilePath(workspace));
+
+        assertFalse(new File(root, "expired").exists());
+        assertFalse(new File(root, "first").exists());
+        assertTrue(new File(root, "second").isDirectory());
+    }
+
+    private AppdomeBuildRequest request(String fusionSetId, String keystorePassword) {
+        return AppdomeBuildRequest.parse(List.of("--api_key", "token", "--fusion_set_id", fusionSetId,
+                "--app", "app.apk", "--sign_on_appdome", "--keystore", "release.keystore",
+                "--keystore_pass", keystorePassword, "--output", "output/app.apk",
+                "--certificate_output", "output/Certified_Secure.pdf",
+                "--deobfuscation_script_output", "output/Deobfuscation_Mapping_Files.zip"));
+    }
+
+    private void write(String path, String content) throws Exception {
+        File file = new File(workspace, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(workspace, path).toPath()), StandardCharsets.UTF_8);
+    }
+}
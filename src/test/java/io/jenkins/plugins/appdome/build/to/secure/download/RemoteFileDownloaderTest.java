@@ -0,0 +1,409 @@
+package io.jenkins.plugins.appdome.build.to.secure.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.Sha256;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteFileDownloaderTest {
+
+    private static final byte[] CONTENT = "appdome-test-content".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OTHER_CONTENT = "appdome-test-another".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LARGE_CONTENT = new byte[256 * 1024];
+
+    static {
+        new Random(42).nextBytes(LARGE_CONTENT);
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger connectionsToDrop = new AtomicInteger();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        // A local HTTP server stands in for the artifact repository
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/files/app.apk", exchange -> respond(exchange, 200, CONTENT));
+        server.createContext("/files/other.ipa", exchange -> respond(exchange, 200, OTHER_CONTENT));
+        server.createContext("/v2/app.apk", exchange -> respond(exchange, 200, OTHER_CONTENT));
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/files/app.apk");
+            respond(exchange, 302, new byte[0]);
+        });
+        server.createContext("/attachment", exchange -> {
+            exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"profile.mobileprovision\"");
+            respond(exchange, 200, CONTENT);
+        });
+        server.createContext("/missing", exchange -> respond(exchange, 404, new byte[0]));
+        server.createContext("/etag/keystore.p12", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 304, new byte[0]);
+            } else {
+                respond(exchange, 200, CONTENT);
+            }
+        });
+        server.createContext("/large/app.aab", this::respondWithRanges);
+        server.createContext("/growing/app.aab", this::respondWithGrowingFile);
+        server.start();
+        baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        RangedDownload.MAX_RESUMES = 5;
+        RangedDownload.SEGMENT_THRESHOLD = 64L * 1024 * 1024;
+    }
+
+    @Test
+    public void testDownloadFollowsRedirects() throws Exception {
+        File directory = tmp.newFolder();
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/redirect").invoke(directory, null);
+
+        assertEquals(new File(directory, "redirect").getAbsolutePath(), result.getPath());
+        assertEquals(CONTENT.length, result.getBytes());
+        assertArrayEquals(CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+    }
+
+    @Test
+    public void testDownloadUsesContentDispositionName() throws Exception {
+        File directory = tmp.newFolder();
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/attachment?token=1").invoke(directory, null);
+
+        assertEquals(new File(directory, "profile.mobileprovision").getAbsolutePath(), result.getPath());
+        assertArrayEquals(CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+    }
+
+    @Test
+    public void testDownloadFailsOnErrorStatus() throws Exception {
+        File directory = tmp.newFolder();
+        try {
+            new RemoteFileDownloader(baseUrl + "/missing").invoke(directory, null);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 404"));
+        }
+        assertFalse(new File(directory, "missing").exists());
+    }
+
+    @Test
+    public void testInputsWithTheSameNameDontCollide() throws Exception {
+        File userFiles = tmp.newFolder();
+        InputDownloader downloader = new InputDownloader(new FilePath(userFiles), TaskListener.NULL, null, 0, Map.of());
+
+        String[] paths = downloader.resolve(baseUrl + "/files/app.apk," + baseUrl + "/v2/app.apk").split(",");
+
+        assertEquals(2, paths.length);
+        assertArrayEquals(CONTENT, Files.readAllBytes(new File(paths[0]).toPath()));
+        assertArrayEquals(OTHER_CONTENT, Files.readAllBytes(new File(paths[1]).toPath()));
+        assertEquals("app.apk", new File(paths[1]).getName());
+    }
+
+    @Test
+    public void testCachedDownloadIsRevalidated() throws Exception {
+        File cache = tmp.newFolder();
+        String url = baseUrl + "/etag/keystore.p12";
+
+        DownloadResult miss = new RemoteFileDownloader(url, cache.getAbsolutePath(), 1024).invoke(tmp.newFolder(), null);
+        DownloadResult hit = new RemoteFileDownloader(url, cache.getAbsolutePath(), 1024).invoke(tmp.newFolder(), null);
+
+        assertEquals(Boolean.FALSE, miss.getCacheHit());
+        assertEquals(Boolean.TRUE, hit.getCacheHit());
+        assertEquals(2, requests.get());
+        assertArrayEquals(CONTENT, Files.readAllBytes(new File(hit.getPath()).toPath()));
+        assertTrue(hit.getPath().endsWith("keystore.p12"));
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsed() throws Exception {
+        File cache = tmp.newFolder();
+        File objects = new File(cache, "objects");
+        new RemoteFileDownloader(baseUrl + "/files/app.apk", cache.getAbsolutePath(), CONTENT.length).invoke(tmp.newFolder(), null);
+        new RemoteFileDownloader(baseUrl + "/attachment", cache.getAbsolutePath(), CONTENT.length).invoke(tmp.newFolder(), null);
+
+        // Both URLs serve the same content, which is stored once
+        assertEquals(1, objects.list().length);
+
+        DownloadResult other = new RemoteFileDownloader(baseUrl + "/files/other.ipa", cache.getAbsolutePath(), CONTENT.length)
+                .invoke(tmp.newFolder(), null);
+        assertEquals(1, objects.list().length);
+        assertArrayEquals(Files.readAllBytes(new File(other.getPath()).toPath()),
+                Files.readAllBytes(objects.listFiles()[0].toPath()));
+    }
+
+    @Test
+    public void testDroppedDownloadIsResumed() throws Exception {
+        connectionsToDrop.set(2);
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/large/app.aab").invoke(tmp.newFolder(), null);
+
+        assertArrayEquals(LARGE_CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+        assertEquals(2, ranges.size());
+        assertFalse(new File(result.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void testFileThatGrewIsDownloadedAgain() throws Exception {
+        connectionsToDrop.set(1);
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/growing/app.aab").invoke(tmp.newFolder(), null);
+
+        assertArrayEquals(grownContent(), Files.readAllBytes(new File(result.getPath()).toPath()));
+        assertEquals(grownContent().length, result.getBytes());
+        assertEquals(1, ranges.size());
+    }
+
+    @Test
+    public void testInterruptedCachedDownloadIsResumedLater() throws Exception {
+        File cache = tmp.newFolder();
+        String url = baseUrl + "/large/app.aab";
+        RangedDownload.MAX_RESUMES = 0;
+        connectionsToDrop.set(1);
+        try {
+            new RemoteFileDownloader(url, cache.getAbsolutePath(), LARGE_CONTENT.length).invoke(tmp.newFolder(), null);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            assertTrue(ranges.isEmpty());
+        }
+
+        DownloadResult result = new RemoteFileDownloader(url, cache.getAbsolutePath(), LARGE_CONTENT.length).invoke(tmp.newFolder(), null);
+
+        assertArrayEquals(LARGE_CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+        assertEquals(1, ranges.size());
+        assertEquals("bytes=" + LARGE_CONTENT.length / 2 + "-" + (LARGE_CONTENT.length - 1), ranges.get(0));
+        // The digest covers the resumed prefix, so the object is named after the whole content
+        assertTrue(new File(cache, "objects/" + Sha256.hex(LARGE_CONTENT)).isFile());
+    }
+
+    @Test
+    public void testLargeDownloadIsSegmented() throws Exception {
+        RangedDownload.SEGMENT_THRESHOLD = 1024;
+        // The initial request, which is abandoned for the segments, and one segment
+        connectionsToDrop.set(2);
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/large/app.aab").invoke(tmp.newFolder(), null);
+
+        assertArrayEquals(LARGE_CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+        // One segment per range request, plus resuming the dropped one
+        assertEquals(RangedDownload.SEGMENTS + 1, ranges.size());
+    }
+
+    @Test
+    public void testSegmentedDownloadIsVerified() throws Exception {
+        RangedDownload.SEGMENT_THRESHOLD = 1024;
+        connectionsToDrop.set(2);
+        File cache = tmp.newFolder();
+        String url = baseUrl + "/large/app.aab#sha256=" + Sha256.hex(LARGE_CONTENT);
+        DownloadResult result = new RemoteFileDownloader(url, cache.getAbsolutePath(), LARGE_CONTENT.length).invoke(tmp.newFolder(), null);
+
+        assertEquals("sha256", result.getVerifiedDigest());
+        assertArrayEquals(LARGE_CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+        assertEquals(RangedDownload.SEGMENTS + 1, ranges.size());
+        // The cache stores the file under the hash computed while it was downloaded
+        assertTrue(new File(new File(cache, "objects"), Sha256.hex(LARGE_CONTENT)).isFile());
+    }
+
+    @Test
+    public void testExpectedDigestIsVerified() throws Exception {
+        File directory = tmp.newFolder();
+        String sha256 = Sha256.hex(CONTENT);
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/files/app.apk#sha256=" + sha256).invoke(directory, null);
+
+        assertEquals(new File(directory, "app.apk").getAbsolutePath(), result.getPath());
+        assertEquals("sha256", result.getVerifiedDigest());
+        assertTrue(result.getSummary(), result.getSummary().endsWith("sha256 verified"));
+    }
+
+    @Test
+    public void testDigestMismatchFailsTheDownload() throws Exception {
+        File directory = tmp.newFolder();
+        String sha256 = Sha256.hex(OTHER_CONTENT);
+        try {
+            new RemoteFileDownloader(baseUrl + "/files/app.apk#sha256=" + sha256).invoke(directory, null);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("sha256 mismatch"));
+        }
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testMismatchingContentIsNotCached() throws Exception {
+        File cache = tmp.newFolder();
+        String sha512 = Util.toHexString(MessageDigest.getInstance("SHA-512").digest(OTHER_CONTENT));
+        try {
+            new RemoteFileDownloader(baseUrl + "/files/app.apk#sha512=" + sha512, cache.getAbsolutePath(), 1024)
+                    .invoke(tmp.newFolder(), null);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("sha512 mismatch"));
+        }
+        assertEquals(0, new File(cache, "objects").list().length);
+
+        sha512 = Util.toHexString(MessageDigest.getInstance("SHA-512").digest(CONTENT));
+        DownloadResult result = new RemoteFileDownloader(baseUrl + "/files/app.apk#sha512=" + sha512, cache.getAbsolutePath(), 1024)
+                .invoke(tmp.newFolder(), null);
+        assertEquals("sha512", result.getVerifiedDigest());
+    }
+
+    @Test
+    public void testDownloadGoesThroughTheEnvironmentsProxy() throws Exception {
+        List<String> proxied = new CopyOnWriteArrayList<>();
+        HttpServer proxy = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        proxy.createContext("/", exchange -> {
+            proxied.add(exchange.getRequestURI().toString());
+            respond(exchange, 200, OTHER_CONTENT);
+        });
+        proxy.start();
+        try {
+            String proxyUrl = "http://user:secret@" + proxy.getAddress().getHostString() + ":" + proxy.getAddress().getPort();
+            ProxyEnvironment proxies = ProxyEnvironment.of(Map.of("http_proxy", proxyUrl,
+                    "no_proxy", "localhost, .example.com," + server.getAddress().getHostString()));
+
+            DownloadResult result = new RemoteFileDownloader("http://files.appdome.invalid/app.apk", null, 0, proxies)
+                    .invoke(tmp.newFolder(), null);
+            assertArrayEquals(OTHER_CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+            assertEquals(List.of("http://files.appdome.invalid/app.apk"), proxied);
+
+            // Hosts in no_proxy are reached directly
+            result = new RemoteFileDownloader(baseUrl + "/files/app.apk", null, 0, proxies).invoke(tmp.newFolder(), null);
+            assertArrayEquals(CONTENT, Files.readAllBytes(new File(result.getPath()).toPath()));
+            assertEquals(1, proxied.size());
+        } finally {
+            proxy.stop(0);
+        }
+    }
+
+    @Test
+    public void testProxyVariablesAreReadAsCurlReadsThem() throws Exception {
+        URL http = new URL("http://files.example.org/app.apk");
+        URL https = new URL("https://files.example.org/app.apk");
+
+        // curl ignores the upper case HTTP_PROXY
+        assertNull(ProxyEnvironment.of(Map.of("HTTP_PROXY", "proxy:3128")).select(http));
+        InetSocketAddress address = (InetSocketAddress) ProxyEnvironment.of(Map.of("HTTPS_PROXY", "proxy:3128")).select(https).address();
+        assertEquals("proxy", address.getHostString());
+        assertEquals(3128, address.getPort());
+        Proxy socks = ProxyEnvironment.of(Map.of("all_proxy", "socks5h://proxy")).select(http);
+        assertEquals(Proxy.Type.SOCKS, socks.type());
+        assertEquals(1080, ((InetSocketAddress) socks.address()).getPort());
+        assertEquals(Proxy.NO_PROXY, ProxyEnvironment.of(Map.of("https_proxy", "proxy:3128", "NO_PROXY", "*")).select(https));
+        assertEquals(Proxy.NO_PROXY, ProxyEnvironment.of(Map.of("http_proxy", "proxy:3128", "no_proxy", "example.org")).select(http));
+        assertNull(ProxyEnvironment.NONE.select(https));
+    }
+
+    @Test
+    public void testMalformedDigestIsRejected() throws Exception {
+        try {
+            new RemoteFileDownloader(baseUrl + "/files/app.apk#sha256=abc").invoke(tmp.newFolder(), null);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid sha256 digest"));
+        }
+        assertEquals(0, requests.get());
+    }
+
+    /**
+     * Serves {@link #LARGE_CONTENT} with range support, dropping the connection half way through
+     * the body while {@link #connectionsToDrop} is positive.
+     */
+    private void respondWithRanges(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("ETag", "\"large\"");
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        int start = 0;
+        int end = LARGE_CONTENT.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && "\"large\"".equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+            ranges.add(range);
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            end = bounds[1].isEmpty() ? end : Integer.parseInt(bounds[1]);
+            status = 206;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + LARGE_CONTENT.length);
+        }
+        int length = end - start + 1;
+        exchange.sendResponseHeaders(status, length);
+        OutputStream out = exchange.getResponseBody();
+        if (connectionsToDrop.getAndDecrement() > 0) {
+            out.write(LARGE_CONTENT, start, length / 2);
+            out.flush();
+            // Closing before the announced length was written drops the connection
+            exchange.close();
+            return;
+        }
+        out.write(LARGE_CONTENT, start, length);
+        out.close();
+    }
+
+    /**
+     * Serves the first half of {@link #LARGE_CONTENT} before dropping the connection, and a longer
+     * version of the file with another ETag from then on, ignoring ranges of the first version.
+     */
+    private void respondWithGrowingFile(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            ranges.add(range);
+        }
+        if (connectionsToDrop.getAndDecrement() > 0) {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, LARGE_CONTENT.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(LARGE_CONTENT, 0, LARGE_CONTENT.length / 2);
+            out.flush();
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("ETag", "\"v2\"");
+        respond(exchange, 200, grownContent());
+    }
+
+    private static byte[] grownContent() {
+        byte[] content = Arrays.copyOf(LARGE_CONTENT, LARGE_CONTENT.length + 1000);
+        Arrays.fill(content, LARGE_CONTENT.length, content.length, (byte) 7);
+        return content;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
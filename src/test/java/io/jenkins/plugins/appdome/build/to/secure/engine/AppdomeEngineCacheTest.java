@@ -0,0 +1,102 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppdomeEngineCacheTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File upstream;
+    private String upstreamCommit;
+
+    @Before
+    public void setUp() throws Exception {
+        // A local repository stands in for appdome-api-bash on GitHub
+        upstream = tmp.newFolder("appdome-api-bash-upstream");
+        File script = new File(upstream, AppdomeEngineCache.ENGINE_SCRIPT);
+        Files.write(script.toPath(), "#!/bin/bash\necho engine\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(script.setExecutable(true));
+        git(upstream, "init", "--quiet");
+        git(upstream, "add", ".");
+        git(upstream, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", "engine");
+        upstreamCommit = git(upstream, "rev-parse", "HEAD");
+
+        AppdomeGlobalConfiguration.get().setEngineRepository(upstream.getAbsolutePath());
+    }
+
+    @Test
+    public void testAgentFetchesAndReusesEngine() throws Exception {
+        DumbSlave agent = jenkins.createOnlineSlave();
+        AppdomeEngineCache cache = AppdomeEngineCache.forComputer(agent.toComputer());
+
+        FilePath engine = cache.provision(agent.createLauncher(TaskListener.NULL), TaskListener.NULL);
+        assertTrue(engine.child(AppdomeEngineCache.ENGINE_SCRIPT).exists());
+        assertEquals(upstreamCommit, engine.getParent().getName());
+
+        assertEquals(engine, cache.provision(agent.createLauncher(TaskListener.NULL), TaskListener.NULL));
+    }
+
+    @Test
+    public void testBuildsRunFromTheirOwnCopy() throws Exception {
+        DumbSlave agent = jenkins.createOnlineSlave();
+        AppdomeEngineCache cache = AppdomeEngineCache.forComputer(agent.toComputer());
+        FilePath build = agent.getWorkspaceFor(jenkins.createFreeStyleProject()).child("AppdomeBuild").child(AppdomeEngineCache.ENGINE_DIRECTORY);
+
+        assertEquals(build, cache.provisionInto(agent.createLauncher(TaskListener.NULL), TaskListener.NULL, build));
+        FilePath script = build.child(AppdomeEngineCache.ENGINE_SCRIPT);
+        assertTrue(script.exists());
+        assertTrue((script.mode() & 0100) != 0);
+        // What the engine writes next to it stays out of the cache
+        build.child("upload.log").write("log", StandardCharsets.UTF_8.name());
+        FilePath engine = cache.provision(agent.createLauncher(TaskListener.NULL), TaskListener.NULL);
+        assertFalse(engine.child("upload.log").exists());
+    }
+
+    @Test
+    public void testControllerDistributesEngine() throws Exception {
+        AppdomeGlobalConfiguration.get().setDistributeEngineFromController(true);
+        DumbSlave agent = jenkins.createOnlineSlave();
+        AppdomeEngineCache cache = AppdomeEngineCache.forComputer(agent.toComputer());
+
+        FilePath engine = cache.provision(agent.createLauncher(TaskListener.NULL), TaskListener.NULL);
+        FilePath script = engine.child(AppdomeEngineCache.ENGINE_SCRIPT);
+        assertTrue(script.exists());
+        assertTrue((script.mode() & 0100) != 0);
+        assertEquals(upstreamCommit, engine.getParent().getName());
+        assertTrue(new File(jenkins.jenkins.getRootDir(),
+                AppdomeEngineBundle.BUNDLE_DIRECTORY + "/" + upstreamCommit + ".tar.gz").exists());
+    }
+
+    private static String git(File directory, String... args) throws IOException, InterruptedException {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process process = new ProcessBuilder(command).directory(directory).redirectErrorStream(true).start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        process.getInputStream().transferTo(out);
+        assertEquals(out.toString(StandardCharsets.UTF_8), 0, process.waitFor());
+        return out.toString(StandardCharsets.UTF_8).trim();
+    }
+}
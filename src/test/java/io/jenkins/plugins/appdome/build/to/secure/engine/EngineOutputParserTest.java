@@ -0,0 +1,71 @@
+package io.jenkins.plugins.appdome.build.to.secure.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EngineOutputParserTest {
+
+    @Test
+    public void testPhasesAreTimedAndOutputIsPassedThrough() throws Exception {
+        // Reconstructed from the messages of appdome_api.sh, not captured from a run of it
+        byte[] engineOutput;
+        try (InputStream in = EngineOutputParserTest.class.getResourceAsStream("appdome_api.log")) {
+            engineOutput = in.readAllBytes();
+        }
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        List<String> stages = new ArrayList<>();
+        EngineOutputParser parser = new EngineOutputParser(log,
+                (stage, durationMillis, succeeded) -> stages.add(stage + (succeeded ? "" : " failed")));
+
+        parser.write(engineOutput);
+        assertEquals(List.of("Upload", "Build", "Context", "Signing"), stages);
+        parser.finish(false);
+
+        assertEquals(List.of("Upload", "Build", "Context", "Signing", "Output download failed"), stages);
+        assertArrayEquals(engineOutput, log.toByteArray());
+        assertFalse(parser.isThrottled());
+        assertFalse(parser.isServiceFailed());
+    }
+
+    @Test
+    public void testOnlyStatusLinesStartPhases() throws Exception {
+        List<String> stages = new ArrayList<>();
+        EngineOutputParser parser = new EngineOutputParser(new ByteArrayOutputStream(),
+                (stage, durationMillis, succeeded) -> stages.add(stage));
+
+        parser.write(("Uploading app-build.apk to sign and download later\n"
+                + "Fusion set: build-release-sign\n"
+                + "2024-03-14 10:21:19 Upload done. App-ID: 65f2c0a1e4b0c91d2f8a7b31\n"
+                + "2024-03-14 10:24:52 Context request started\n").getBytes(StandardCharsets.UTF_8));
+        parser.finish(true);
+
+        assertEquals(List.of("Context"), stages);
+    }
+
+    @Test
+    public void testUnrecognizedOutputIsOneStage() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        List<String> stages = new ArrayList<>();
+        EngineOutputParser parser = new EngineOutputParser(log,
+                (stage, durationMillis, succeeded) -> stages.add(stage));
+
+        parser.write("Nothing to see here\n{\"status\": 429, \"message\": \"Slow down\"}\n".getBytes(StandardCharsets.UTF_8));
+        parser.finish(false);
+
+        assertEquals(List.of("Appdome engine"), stages);
+        assertTrue(log.toString(StandardCharsets.UTF_8).endsWith("None of the Appdome engine's phases were recognised "
+                + "in its output, the engine is timed as one stage\n"));
+        assertTrue(parser.isThrottled());
+        assertFalse(parser.isServiceFailed());
+    }
+}
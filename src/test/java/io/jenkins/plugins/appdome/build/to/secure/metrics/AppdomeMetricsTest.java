@@ -0,0 +1,86 @@
+package io.jenkins.plugins.appdome.build.to.secure.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AppdomeMetricsTest {
+
+    @Test
+    public void testPercentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long seconds = 1; seconds <= 100; seconds++) {
+            histogram.record(TimeUnit.SECONDS.toMillis(seconds));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050000, histogram.getSum());
+        assertWithinBucket(50000, histogram.getPercentile(50));
+        assertWithinBucket(95000, histogram.getPercentile(95));
+        assertWithinBucket(100000, histogram.getPercentile(100));
+        assertEquals(0, new LatencyHistogram().getPercentile(95));
+    }
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value + " is above its bucket", value <= LatencyHistogram.upperBound(index));
+            assertTrue(value + " is below its bucket", index == 0 || value > LatencyHistogram.upperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void testPrometheusHistogram() {
+        AppdomeMetrics metrics = new AppdomeMetrics();
+        AppdomeMetrics.Labels labels = new AppdomeMetrics.Labels("ANDROID", "PRIVATE", "fs-\"1\"", "built-in");
+        metrics.record(labels, TimeUnit.SECONDS.toMillis(45), true);
+        metrics.record(labels, TimeUnit.MINUTES.toMillis(4), true);
+        metrics.record(labels, TimeUnit.MINUTES.toMillis(20), false);
+        metrics.recordCacheHit(labels);
+
+        StringWriter out = new StringWriter();
+        AppdomeMetricsAction.writePrometheus(metrics, new PrintWriter(out));
+        String text = out.toString();
+
+        String series = "platform=\"ANDROID\",sign_type=\"PRIVATE\",fusion_set=\"fs-\\\"1\\\"\",agent=\"built-in\"";
+        assertTrue(text, text.contains("appdome_protections_total{" + series + ",result=\"success\"} 2\n"));
+        assertTrue(text, text.contains("appdome_protections_total{" + series + ",result=\"failure\"} 1\n"));
+        assertTrue(text, text.contains("appdome_result_cache_hits_total{" + series + "} 1\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"30\"} 0\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"300\"} 2\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_sum{" + series + "} 1485.000\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_count{" + series + "} 3\n"));
+    }
+
+    @Test
+    public void testPrometheusBucketsAreExact() {
+        AppdomeMetrics metrics = new AppdomeMetrics();
+        AppdomeMetrics.Labels labels = new AppdomeMetrics.Labels("IOS", "AUTO", "fs", "built-in");
+        // Shares an internal bucket with durations above 300 s
+        metrics.record(labels, TimeUnit.SECONDS.toMillis(295), true);
+        metrics.record(labels, TimeUnit.SECONDS.toMillis(300), true);
+        metrics.record(labels, TimeUnit.SECONDS.toMillis(300) + 1, true);
+
+        StringWriter out = new StringWriter();
+        AppdomeMetricsAction.writePrometheus(metrics, new PrintWriter(out));
+        String text = out.toString();
+
+        String series = "platform=\"IOS\",sign_type=\"AUTO\",fusion_set=\"fs\",agent=\"built-in\"";
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"120\"} 0\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"300\"} 2\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"600\"} 3\n"));
+        assertTrue(text, text.contains("appdome_protection_duration_seconds_bucket{" + series + ",le=\"+Inf\"} 3\n"));
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue(actual + " is not within a bucket of " + expected,
+                actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
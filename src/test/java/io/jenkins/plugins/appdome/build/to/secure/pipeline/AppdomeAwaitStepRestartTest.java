@@ -0,0 +1,60 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.MockAppdomeServer;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+
+public class AppdomeAwaitStepRestartTest {
+
+    @Rule
+    public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    // Outlives the restart, as Appdome would
+    private MockAppdomeServer appdome;
+
+    @Before
+    public void setUp() throws Exception {
+        appdome = new MockAppdomeServer();
+    }
+
+    @After
+    public void tearDown() {
+        appdome.stop();
+    }
+
+    @Test
+    public void testResumedAwaitReattachesToTheRemoteBuild() {
+        appdome.heldTasks.add("context-task");
+        story.then(r -> {
+            AppdomeGlobalConfiguration config = AppdomeGlobalConfiguration.get();
+            config.setNativeClientEnabled(true);
+            config.setServerUrl(appdome.getUrl());
+            WorkflowJob job = r.createProject(WorkflowJob.class, "protect");
+            job.setDefinition(new CpsFlowDefinition(AppdomePipelineStepsTest.PIPELINE, true));
+            WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+            r.waitForMessage("Context started (task context-task)", run);
+        });
+        story.then(r -> {
+            WorkflowRun run = r.jenkins.getItemByFullName("protect", WorkflowJob.class).getBuildByNumber(1);
+            RemoteProtection protection = run.getAction(AppdomeProtectionsAction.class).getProtections().get(0);
+            assertEquals(RemoteProtection.Stage.CONTEXT, protection.getStage());
+            appdome.heldTasks.clear();
+
+            r.assertBuildStatusSuccess(r.waitForCompletion(run));
+            r.assertLogContains("Resuming the wait for Appdome (Context, task context-task)", run);
+            r.assertLogContains("Protected: protected-app-content", run);
+            // Neither uploaded nor built again
+            assertEquals(1, appdome.uploads.get());
+            assertEquals(RemoteProtection.Stage.READY, protection.getStage());
+        });
+    }
+}
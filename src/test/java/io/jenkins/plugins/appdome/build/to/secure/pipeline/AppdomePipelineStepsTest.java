@@ -0,0 +1,128 @@
+package io.jenkins.plugins.appdome.build.to.secure.pipeline;
+
+import hudson.model.Result;
+import io.jenkins.plugins.appdome.build.to.secure.AppdomeGlobalConfiguration;
+import io.jenkins.plugins.appdome.build.to.secure.MockAppdomeServer;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppdomePipelineStepsTest {
+
+    static final String PIPELINE = "def id\n"
+            + "node {\n"
+            + "  writeFile file: 'app.apk', text: 'app-content'\n"
+            + "  writeFile file: 'release.keystore', text: 'keystore-content'\n"
+            + "  id = appdomeSubmit AppdomeBuilder(token: 'api-token-1', teamId: 'team', outputLocation: 'out/protected.apk',\n"
+            + "      platform: AndroidPlatform(appPath: 'app.apk', fusionSetId: 'fs-1',\n"
+            + "          certificateMethod: Android_AutoSign(keystorePath: 'release.keystore', keystorePassword: 'ks-password-1',\n"
+            + "              keystoreAlias: 'alias', keyPass: 'key-password-1', googleSignFingerPrint: null)))\n"
+            + "}\n"
+            + "appdomeAwait id\n"
+            + "node {\n"
+            + "  appdomeDownload id\n"
+            + "  echo 'Protected: ' + readFile('out/protected.apk')\n"
+            + "}\n";
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private MockAppdomeServer appdome;
+
+    @Before
+    public void setUp() throws Exception {
+        appdome = new MockAppdomeServer();
+        AppdomeGlobalConfiguration config = AppdomeGlobalConfiguration.get();
+        config.setNativeClientEnabled(true);
+        config.setServerUrl(appdome.getUrl());
+    }
+
+    @After
+    public void tearDown() {
+        appdome.stop();
+    }
+
+    @Test
+    public void testProtectionIsAwaitedOutsideOfNode() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+        WorkflowRun run = jenkins.buildAndAssertSuccess(job);
+
+        jenkins.assertLogContains("Protected: protected-app-content", run);
+        jenkins.assertLogContains("Signing completed (task sign-task)", run);
+        String sign = appdome.taskRequests.get("sign");
+        assertTrue(sign.contains("context-task"));
+        assertTrue(sign.contains("\"signing_keystore_password\":\"ks-password-1\""));
+        assertTrue(sign.contains("keystore-content"));
+
+        RemoteProtection protection = run.getAction(AppdomeProtectionsAction.class).getProtections().get(0);
+        assertEquals(RemoteProtection.Stage.READY, protection.getStage());
+        assertFalse(protection.getSignFilesDirectory(run).exists());
+        // The token and the signing passwords are only saved encrypted
+        String buildXml = new String(Files.readAllBytes(new File(run.getRootDir(), "build.xml").toPath()), StandardCharsets.UTF_8);
+        assertFalse(buildXml.contains("api-token-1"));
+        assertFalse(buildXml.contains("ks-password-1"));
+    }
+
+    @Test
+    public void testFailedBuildFailsAwait() throws Exception {
+        appdome.failingAction = "fuse";
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+        WorkflowRun run = jenkins.buildAndAssertStatus(Result.FAILURE, job);
+
+        jenkins.assertLogContains("Build failed: fusion set not found", run);
+        assertFalse(appdome.taskRequests.containsKey("context"));
+        RemoteProtection protection = run.getAction(AppdomeProtectionsAction.class).getProtections().get(0);
+        assertFalse(protection.getSignFilesDirectory(run).exists());
+    }
+
+    @Test
+    public void testCompletedBuildDeletesSignFilesItDidntWaitFor() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition(PIPELINE.substring(0, PIPELINE.indexOf("appdomeAwait")), true));
+        WorkflowRun run = jenkins.buildAndAssertSuccess(job);
+
+        RemoteProtection protection = run.getAction(AppdomeProtectionsAction.class).getProtections().get(0);
+        assertEquals(RemoteProtection.Stage.BUILDING, protection.getStage());
+        assertFalse(protection.getSignFilesDirectory(run).exists());
+    }
+
+    @Test
+    public void testAbortedAwaitDeletesSignFiles() throws Exception {
+        appdome.heldTasks.add("fuse-task");
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class);
+        job.setDefinition(new CpsFlowDefinition(PIPELINE, true));
+        WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+        jenkins.waitForMessage("Waiting for Appdome (Build, task fuse-task)", run);
+        RemoteProtection protection = run.getAction(AppdomeProtectionsAction.class).getProtections().get(0);
+        assertTrue(protection.getSignFilesDirectory(run).isDirectory());
+        // Kept encrypted until they are sent
+        try (Stream<Path> kept = Files.walk(protection.getSignFilesDirectory(run).toPath())) {
+            for (Path file : kept.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("keystore-content"));
+            }
+        }
+
+        run.doStop();
+        jenkins.assertBuildStatus(Result.ABORTED, jenkins.waitForCompletion(run));
+        assertFalse(protection.getSignFilesDirectory(run).exists());
+        assertFalse(appdome.taskRequests.containsKey("sign"));
+    }
+}
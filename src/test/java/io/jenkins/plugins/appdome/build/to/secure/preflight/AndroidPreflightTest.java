@@ -0,0 +1,288 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import hudson.AbortException;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AndroidPreflightTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testApkManifestIsRead() throws Exception {
+        File apk = zip("app.apk", Map.of(
+                "AndroidManifest.xml", binaryManifest("com.example.app", 42, "1.2.3", 24, false),
+                "classes.dex", new byte[1024],
+                "META-INF/MANIFEST.MF", new byte[16],
+                "META-INF/CERT.RSA", new byte[16]));
+        AndroidApp app = AndroidPreflight.inspect(apk);
+        assertEquals("APK", app.getFormat());
+        assertEquals("com.example.app", app.getPackageName());
+        assertEquals("42", app.getVersionCode());
+        assertEquals("1.2.3", app.getVersionName());
+        assertEquals("24", app.getMinSdkVersion());
+        assertFalse(app.isDebuggable());
+        assertEquals(List.of("v1"), app.getSignatures());
+
+        List<String> problems = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        AndroidPreflight.check(app, request("app.apk", false), problems, warnings);
+        assertEquals(List.of(), problems);
+        assertEquals(List.of(), warnings);
+    }
+
+    @Test
+    public void testBundleManifestIsRead() throws Exception {
+        File aab = zip("app.aab", Map.of(
+                "base/manifest/AndroidManifest.xml", protoManifest("com.example.bundle", 7, 26),
+                "BundleConfig.pb", new byte[8]));
+        AndroidApp app = AndroidPreflight.inspect(aab);
+        assertEquals("AAB", app.getFormat());
+        assertEquals("com.example.bundle", app.getPackageName());
+        assertEquals("7", app.getVersionCode());
+        assertEquals("26", app.getMinSdkVersion());
+        assertEquals(List.of(), app.getSignatures());
+
+        List<String> problems = new ArrayList<>();
+        AndroidPreflight.check(app, request("app.aab", true), problems, new ArrayList<>());
+        assertEquals(List.of(), problems);
+    }
+
+    @Test
+    public void testMismatchesAreFound() throws Exception {
+        File bundleNamedApk = zip("bundle.apk", Map.of(
+                "base/manifest/AndroidManifest.xml", protoManifest("com.example.bundle", 7, 26)));
+        List<String> problems = new ArrayList<>();
+        AndroidPreflight.check(AndroidPreflight.inspect(bundleNamedApk), request("bundle.apk", false), problems, new ArrayList<>());
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0), problems.get(0).contains("name it .aab"));
+
+        File debugApk = zip("debug.apk", Map.of(
+                "AndroidManifest.xml", binaryManifest("com.example.app", 1, "1.0", 21, true)));
+        AndroidApp debug = AndroidPreflight.inspect(debugApk);
+        assertTrue(debug.isDebuggable());
+        problems.clear();
+        List<String> warnings = new ArrayList<>();
+        AndroidPreflight.check(debug, request("debug.apk", true), problems, warnings);
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0), problems.get(0).contains("second output"));
+        assertEquals(1, warnings.size());
+    }
+
+    @Test
+    public void testOtherFilesFailRightAway() throws Exception {
+        File text = tmp.newFile("app.apk");
+        Files.write(text.toPath(), "not an app".getBytes(StandardCharsets.UTF_8));
+        assertAborted(text);
+        assertAborted(zip("archive.apk", Map.of("readme.txt", new byte[8])));
+    }
+
+    private void assertAborted(File file) throws IOException {
+        try {
+            AndroidPreflight.inspect(file);
+            fail("Expected " + file.getName() + " to be rejected");
+        } catch (AbortException e) {
+            // Expected
+        }
+    }
+
+    private static AppdomeBuildRequest request(String app, boolean secondOutput) {
+        List<String> arguments = new ArrayList<>(List.of("--api_key", "key", "--fusion_set_id", "fusion-set",
+                "--app", app, "--output", "protected-" + app));
+        if (secondOutput) {
+            arguments.addAll(List.of("--second_output", "universal.apk"));
+        }
+        return AppdomeBuildRequest.parse(arguments);
+    }
+
+    private File zip(String name, Map<String, byte[]> entries) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * A binary XML manifest as aapt writes it, with the names of the version attributes left
+     * empty so that they are known by their resource id only.
+     */
+    private static byte[] binaryManifest(String packageName, int versionCode, String versionName, int minSdk, boolean debuggable) {
+        String[] strings = {"", "", "", "", "package", "manifest", "uses-sdk", "application", packageName, versionName};
+        int[] resourceIds = {0x0101021b, 0x0101021c, 0x0101020c, 0x0101000f};
+
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        int[] offsets = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = pool.size();
+            byte[] chars = strings[i].getBytes(StandardCharsets.UTF_16LE);
+            pool.writeBytes(le(2, strings[i].length()));
+            pool.writeBytes(chars);
+            pool.writeBytes(le(2, 0));
+        }
+        while (pool.size() % 4 != 0) {
+            pool.write(0);
+        }
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        int poolHeader = 28;
+        int stringsStart = poolHeader + 4 * strings.length;
+        chunks.writeBytes(header(0x0001, poolHeader, stringsStart + pool.size()));
+        chunks.writeBytes(le(4, strings.length));
+        chunks.writeBytes(le(4, 0));
+        chunks.writeBytes(le(4, 0));
+        chunks.writeBytes(le(4, stringsStart));
+        chunks.writeBytes(le(4, 0));
+        for (int offset : offsets) {
+            chunks.writeBytes(le(4, offset));
+        }
+        chunks.writeBytes(pool.toByteArray());
+
+        chunks.writeBytes(header(0x0180, 8, 8 + 4 * resourceIds.length));
+        for (int id : resourceIds) {
+            chunks.writeBytes(le(4, id));
+        }
+
+        startElement(chunks, 5, new int[][]{{4, 8, 0x03, 8}, {0, -1, 0x10, versionCode}, {1, 9, 0x03, 9}});
+        startElement(chunks, 6, new int[][]{{2, -1, 0x10, minSdk}});
+        endElement(chunks, 6);
+        startElement(chunks, 7, debuggable ? new int[][]{{3, -1, 0x12, -1}} : new int[0][]);
+        endElement(chunks, 7);
+        endElement(chunks, 5);
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        xml.writeBytes(header(0x0003, 8, 8 + chunks.size()));
+        xml.writeBytes(chunks.toByteArray());
+        return xml.toByteArray();
+    }
+
+    /**
+     * @param attributes name, raw value, type and data of each attribute
+     */
+    private static void startElement(ByteArrayOutputStream out, int name, int[][] attributes) {
+        out.writeBytes(header(0x0102, 16, 36 + 20 * attributes.length));
+        out.writeBytes(le(4, 1));
+        out.writeBytes(le(4, -1));
+        out.writeBytes(le(4, -1));
+        out.writeBytes(le(4, name));
+        out.writeBytes(le(2, 20));
+        out.writeBytes(le(2, 20));
+        out.writeBytes(le(2, attributes.length));
+        out.writeBytes(le(2, 0));
+        out.writeBytes(le(2, 0));
+        out.writeBytes(le(2, 0));
+        for (int[] attribute : attributes) {
+            out.writeBytes(le(4, -1));
+            out.writeBytes(le(4, attribute[0]));
+            out.writeBytes(le(4, attribute[1]));
+            out.writeBytes(le(2, 8));
+            out.write(0);
+            out.write(attribute[2]);
+            out.writeBytes(le(4, attribute[3]));
+        }
+    }
+
+    private static void endElement(ByteArrayOutputStream out, int name) {
+        out.writeBytes(header(0x0103, 16, 24));
+        out.writeBytes(le(4, 1));
+        out.writeBytes(le(4, -1));
+        out.writeBytes(le(4, -1));
+        out.writeBytes(le(4, name));
+    }
+
+    private static byte[] header(int type, int headerSize, int size) {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putShort((short) type).putShort((short) headerSize).putInt(size);
+        return header.array();
+    }
+
+    private static byte[] le(int bytes, int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+        byte[] result = new byte[bytes];
+        System.arraycopy(buffer.array(), 0, result, 0, bytes);
+        return result;
+    }
+
+    /**
+     * A protocol buffer manifest as bundletool keeps it, with the version code compiled to an int.
+     */
+    private static byte[] protoManifest(String packageName, int versionCode, int minSdk) {
+        byte[] usesSdk = element("uses-sdk", List.of(attribute("minSdkVersion", "", 0x0101020c, minSdk)), List.of());
+        return element("manifest", List.of(
+                attribute("package", packageName, 0, null),
+                attribute("versionCode", "", 0x0101021b, versionCode)), List.of(usesSdk));
+    }
+
+    private static byte[] element(String name, List<byte[]> attributes, List<byte[]> children) {
+        ByteArrayOutputStream element = new ByteArrayOutputStream();
+        field(element, 3, name.getBytes(StandardCharsets.UTF_8));
+        for (byte[] attribute : attributes) {
+            field(element, 4, attribute);
+        }
+        for (byte[] child : children) {
+            field(element, 5, child);
+        }
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        field(node, 1, element.toByteArray());
+        return node.toByteArray();
+    }
+
+    private static byte[] attribute(String name, String value, int resourceId, Integer compiled) {
+        ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+        field(attribute, 1, "http://schemas.android.com/apk/res/android".getBytes(StandardCharsets.UTF_8));
+        field(attribute, 2, name.getBytes(StandardCharsets.UTF_8));
+        field(attribute, 3, value.getBytes(StandardCharsets.UTF_8));
+        if (resourceId != 0) {
+            varint(attribute, 5 << 3);
+            varint(attribute, resourceId);
+        }
+        if (compiled != null) {
+            ByteArrayOutputStream primitive = new ByteArrayOutputStream();
+            varint(primitive, 6 << 3);
+            varint(primitive, compiled);
+            ByteArrayOutputStream item = new ByteArrayOutputStream();
+            field(item, 7, primitive.toByteArray());
+            field(attribute, 6, item.toByteArray());
+        }
+        return attribute.toByteArray();
+    }
+
+    private static void field(ByteArrayOutputStream out, int number, byte[] value) {
+        varint(out, number << 3 | 2);
+        varint(out, value.length);
+        out.writeBytes(value);
+    }
+
+    private static void varint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,268 @@
+package io.jenkins.plugins.appdome.build.to.secure.preflight;
+
+import hudson.AbortException;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeBuildRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IosPreflightTest {
+
+    private static final long NOW = Instant.parse("2026-06-01T00:00:00Z").toEpochMilli();
+    private static final String FUTURE = "2027-06-01T00:00:00Z";
+    private static final String PAST = "2026-05-01T00:00:00Z";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testIpaIsCheckedAgainstItsProfiles() throws Exception {
+        File ipa = ipa();
+        List<File> profiles = List.of(
+                profile("app.mobileprovision", "com.example.app", FUTURE, "<key>aps-environment</key><string>production</string>"
+                        + "<key>keychain-access-groups</key><array><string>TEAM123456.*</string></array>"),
+                profile("widget.mobileprovision", "com.example.app.widget", FUTURE, ""));
+        File entitlements = entitlements("app.plist", "<key>application-identifier</key><string>TEAM123456.com.example.app</string>"
+                + "<key>aps-environment</key><string>production</string>"
+                + "<key>keychain-access-groups</key><array><string>$(AppIdentifierPrefix)com.example</string></array>"
+                + "<key>get-task-allow</key><false/>");
+        IosApp app = IosPreflight.inspect(ipa, profiles, List.of(entitlements));
+
+        assertEquals(2, app.getBundles().size());
+        assertEquals("com.example.app", app.getBundles().get(0).getBundleId());
+        assertEquals("2.1", app.getBundles().get(0).getShortVersion());
+        assertEquals("15.0", app.getBundles().get(0).getMinimumOsVersion());
+        assertEquals("Payload/Example.app/PlugIns/Widget.appex", app.getBundles().get(1).getPath());
+        assertEquals("com.example.app.widget", app.getBundles().get(1).getBundleId());
+        assertEquals("TEAM123456", app.getProfiles().get(0).getTeamId());
+
+        List<String> problems = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        IosPreflight.check(app, request(), NOW, problems, warnings);
+        assertEquals(List.of(), problems);
+        assertEquals(List.of(), warnings);
+    }
+
+    @Test
+    public void testUncoveredBundlesAndExpiredProfilesFail() throws Exception {
+        IosApp app = IosPreflight.inspect(ipa(),
+                List.of(profile("app.mobileprovision", "com.example.app", PAST, "")), List.of());
+        List<String> problems = new ArrayList<>();
+        IosPreflight.check(app, request(), NOW, problems, new ArrayList<>());
+        assertEquals(problems.toString(), 2, problems.size());
+        assertTrue(problems.get(0), problems.get(0).contains("expired on 2026-05-01"));
+        assertTrue(problems.get(1), problems.get(1).contains("no provisioning profile covers com.example.app.widget"));
+    }
+
+    @Test
+    public void testEntitlementsMustBeGranted() throws Exception {
+        List<File> profiles = List.of(profile("team.mobileprovision", "com.example.*", FUTURE,
+                "<key>aps-environment</key><string>production</string>"));
+        File entitlements = entitlements("app.plist", "<key>application-identifier</key><string>TEAM123456.com.example.app</string>"
+                + "<key>aps-environment</key><string>development</string>"
+                + "<key>com.apple.developer.icloud-services</key><array><string>CloudKit</string></array>");
+        IosApp app = IosPreflight.inspect(ipa(), profiles, List.of(entitlements));
+        List<String> problems = new ArrayList<>();
+        IosPreflight.check(app, request(), NOW, problems, new ArrayList<>());
+        assertEquals(problems.toString(), 2, problems.size());
+        assertTrue(problems.get(0), problems.get(0).startsWith("app.plist: aps-environment"));
+        assertTrue(problems.get(1), problems.get(1).startsWith("app.plist: com.apple.developer.icloud-services"));
+    }
+
+    @Test
+    public void testProfilesAreParsedOncePerContent() throws Exception {
+        File first = profile("first.mobileprovision", "com.example.cached", FUTURE, "");
+        File second = new File(tmp.getRoot(), "second.mobileprovision");
+        Files.copy(first.toPath(), second.toPath());
+
+        ProvisioningProfile read = ProvisioningProfile.read(first);
+        int cached = ProvisioningProfile.cached();
+        ProvisioningProfile copy = ProvisioningProfile.read(second);
+        assertEquals(cached, ProvisioningProfile.cached());
+        assertNotSame(read, copy);
+        assertEquals("second.mobileprovision", copy.getFile());
+        assertEquals("TEAM123456.com.example.cached", copy.getApplicationIdentifier());
+    }
+
+    @Test
+    public void testOtherFilesFailRightAway() throws Exception {
+        File notIpa = new File(tmp.getRoot(), "app.ipa");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(notIpa))) {
+            out.putNextEntry(new ZipEntry("Example.app/Info.plist"));
+            out.write(infoPlist("com.example.app"));
+        }
+        try {
+            IosPreflight.inspect(notIpa, List.of(), List.of());
+            fail("Expected the file to be rejected");
+        } catch (AbortException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("isn't an IPA"));
+        }
+    }
+
+    private static AppdomeBuildRequest request() {
+        return AppdomeBuildRequest.parse(List.of("--api_key", "key", "--fusion_set_id", "fusion-set",
+                "--app", "app.ipa", "--output", "protected.ipa", "--private_signing"));
+    }
+
+    /**
+     * An IPA with an app and a widget extension, whose Info.plist is binary as Xcode writes it,
+     * and a framework whose Info.plist isn't a bundle that needs a profile.
+     */
+    private File ipa() throws IOException {
+        File file = new File(tmp.getRoot(), "Example.ipa");
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("Payload/Example.app/Info.plist", infoPlist("com.example.app"));
+        entries.put("Payload/Example.app/Example", new byte[256]);
+        entries.put("Payload/Example.app/PlugIns/Widget.appex/Info.plist", binaryPlist(Map.of(
+                "CFBundleIdentifier", "com.example.app.widget", "CFBundleVersion", "7")));
+        entries.put("Payload/Example.app/Frameworks/Lib.framework/Info.plist", infoPlist("com.vendor.lib"));
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+            }
+        }
+        return file;
+    }
+
+    private static byte[] infoPlist(String bundleId) {
+        return plist("<dict><key>CFBundleIdentifier</key><string>" + bundleId + "</string>"
+                + "<key>CFBundleShortVersionString</key><string>2.1</string>"
+                + "<key>CFBundleVersion</key><string>7</string>"
+                + "<key>MinimumOSVersion</key><string>15.0</string></dict>");
+    }
+
+    private File entitlements(String name, String dictionary) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        Files.write(file.toPath(), plist("<dict>" + dictionary + "</dict>"));
+        return file;
+    }
+
+    /**
+     * A provisioning profile: its property list as the content of BER encoded CMS signed data,
+     * with indefinite lengths and the content split into two octet strings, as Apple signs them.
+     */
+    private File profile(String name, String appId, String expiration, String entitlements) throws IOException {
+        byte[] plist = plist("<dict><key>Name</key><string>" + appId + " profile</string>"
+                + "<key>TeamIdentifier</key><array><string>TEAM123456</string></array>"
+                + "<key>ExpirationDate</key><date>" + expiration + "</date>"
+                + "<key>Entitlements</key><dict><key>application-identifier</key><string>TEAM123456." + appId + "</string>"
+                + entitlements + "</dict></dict>");
+        int half = plist.length / 2;
+        byte[] content = indefinite(0x24, concat(der(0x04, slice(plist, 0, half)), der(0x04, slice(plist, half, plist.length))));
+        byte[] encapsulated = der(0x30, concat(der(0x06, new byte[]{0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x01}),
+                indefinite(0xA0, content)));
+        byte[] signedData = indefinite(0x30, concat(der(0x02, new byte[]{1}), der(0x31, new byte[0]), encapsulated,
+                der(0x31, new byte[0])));
+        byte[] contentInfo = indefinite(0x30, concat(der(0x06, new byte[]{0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x02}),
+                indefinite(0xA0, signedData)));
+        File file = new File(tmp.getRoot(), name);
+        Files.write(file.toPath(), contentInfo);
+        return file;
+    }
+
+    private static byte[] plist(String value) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+                + "<plist version=\"1.0\">" + value + "</plist>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A binary property list of a dictionary of ASCII strings shorter than 256 characters.
+     */
+    private static byte[] binaryPlist(Map<String, String> dictionary) {
+        List<String> strings = new ArrayList<>(dictionary.keySet());
+        strings.addAll(dictionary.values());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("bplist00".getBytes(StandardCharsets.US_ASCII));
+        List<Integer> offsets = new ArrayList<>();
+        offsets.add(out.size());
+        out.write(0xD0 | dictionary.size());
+        for (int i = 0; i < strings.size(); i++) {
+            out.write(i + 1);
+        }
+        for (String string : strings) {
+            offsets.add(out.size());
+            if (string.length() < 0x0F) {
+                out.write(0x50 | string.length());
+            } else {
+                // Longer lengths follow the marker as an integer
+                out.write(0x5F);
+                out.write(0x10);
+                out.write(string.length());
+            }
+            out.writeBytes(string.getBytes(StandardCharsets.US_ASCII));
+        }
+        int offsetTable = out.size();
+        for (int offset : offsets) {
+            out.write(offset);
+        }
+        out.writeBytes(new byte[6]);
+        out.write(1);
+        out.write(1);
+        out.writeBytes(long8(offsets.size()));
+        out.writeBytes(long8(0));
+        out.writeBytes(long8(offsetTable));
+        return out.toByteArray();
+    }
+
+    private static byte[] long8(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>= 8;
+        }
+        return bytes;
+    }
+
+    private static byte[] der(int tag, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (content.length < 0x80) {
+            out.write(content.length);
+        } else {
+            out.write(0x82);
+            out.write(content.length >> 8);
+            out.write(content.length);
+        }
+        out.writeBytes(content);
+        return out.toByteArray();
+    }
+
+    private static byte[] indefinite(int tag, byte[] content) {
+        return concat(new byte[]{(byte) tag, (byte) 0x80}, content, new byte[2]);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        byte[] slice = new byte[to - from];
+        System.arraycopy(data, from, slice, 0, slice.length);
+        return slice;
+    }
+}
@@ -0,0 +1,106 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AppdomeCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicBoolean available = new AtomicBoolean();
+    private final AtomicInteger probes = new AtomicInteger();
+    private final AppdomeCircuitBreaker breaker = new AppdomeCircuitBreaker(now::get, () -> true, () -> false, () -> {
+        probes.incrementAndGet();
+        return available.get();
+    });
+
+    @Test
+    public void testOpensAfterFailuresInARow() throws Exception {
+        for (int i = 1; i < AppdomeCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.failed();
+        }
+        breaker.succeeded();
+        for (int i = 1; i < AppdomeCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.failed();
+        }
+        assertFalse(breaker.admit(TaskListener.NULL).isTrial());
+
+        breaker.failed();
+        assertEquals(AppdomeCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isAdmitting());
+        assertRefused();
+        assertEquals(0, probes.get());
+    }
+
+    @Test
+    public void testSingleTrialOnceServerAnswers() throws Exception {
+        for (int i = 0; i < AppdomeCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.failed();
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(AppdomeCircuitBreaker.OPEN_SECONDS));
+        assertTrue(breaker.isAdmitting());
+        // The server doesn't answer, no protection is spent on it
+        assertRefused();
+        assertEquals(1, probes.get());
+        assertEquals(AppdomeCircuitBreaker.State.OPEN, breaker.getState());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(AppdomeCircuitBreaker.OPEN_SECONDS));
+        available.set(true);
+        AppdomeCircuitBreaker.Permit trial = breaker.admit(TaskListener.NULL);
+        assertTrue(trial.isTrial());
+        assertRefused();
+        // The trial didn't reach Appdome, the next one tries
+        trial.close();
+        try (AppdomeCircuitBreaker.Permit next = breaker.admit(TaskListener.NULL)) {
+            assertTrue(next.isTrial());
+            breaker.succeeded();
+        }
+        assertEquals(AppdomeCircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(breaker.admit(TaskListener.NULL).isTrial());
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() throws Exception {
+        for (int i = 0; i < AppdomeCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.failed();
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(AppdomeCircuitBreaker.OPEN_SECONDS));
+        available.set(true);
+        try (AppdomeCircuitBreaker.Permit trial = breaker.admit(TaskListener.NULL)) {
+            assertTrue(trial.isTrial());
+            breaker.failed();
+        }
+        assertEquals(AppdomeCircuitBreaker.State.OPEN, breaker.getState());
+        assertRefused();
+    }
+
+    @Test
+    public void testServiceFailuresAreToldApart() {
+        assertTrue(AppdomeCircuitBreaker.isServiceFailure(new IOException("remote call failed", new ConnectException())));
+        assertTrue(AppdomeCircuitBreaker.isServiceFailure(new AppdomeApiException(503, "HTTP 503")));
+        assertFalse(AppdomeCircuitBreaker.isServiceFailure(new AppdomeApiException(429, "HTTP 429")));
+        assertFalse(AppdomeCircuitBreaker.isServiceFailure(new AppdomeApiException(0, "Build failed: fusion set not found")));
+    }
+
+    private void assertRefused() throws InterruptedException {
+        try {
+            breaker.admit(TaskListener.NULL).close();
+            fail("Expected the protection to be refused");
+        } catch (AbortException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import hudson.model.TaskListener;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AppdomeThrottleTest {
+
+    @Test
+    public void testWaitingProtectionsStartInOrder() throws Exception {
+        AppdomeThrottle throttle = new AppdomeThrottle(() -> 1);
+        List<String> started = new CopyOnWriteArrayList<>();
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            AppdomeThrottle.Slot first = throttle.acquire("team a", TaskListener.NULL);
+            assertFalse(first.hasWaited());
+            assertFalse(throttle.hasCapacity("team a"));
+            // Other teams aren't affected
+            assertTrue(throttle.hasCapacity("team b"));
+
+            Future<?> second = pool.submit(() -> protect(throttle, "second", started));
+            waitForQueue(throttle, "team a");
+            Future<?> third = pool.submit(() -> protect(throttle, "third", started));
+            Thread.sleep(100);
+            assertTrue(started.isEmpty());
+
+            first.close();
+            second.get(10, TimeUnit.SECONDS);
+            third.get(10, TimeUnit.SECONDS);
+            assertEquals(List.of("second", "third"), started);
+            assertTrue(throttle.hasCapacity("team a"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInterruptedWaitGivesUpItsTurn() throws Exception {
+        AppdomeThrottle throttle = new AppdomeThrottle(() -> 1);
+        AppdomeThrottle.Slot first = throttle.acquire("team a", TaskListener.NULL);
+        Thread waiting = new Thread(() -> {
+            try {
+                throttle.acquire("team a", TaskListener.NULL);
+            } catch (InterruptedException e) {
+                // Expected
+            }
+        });
+        waiting.start();
+        waitForQueue(throttle, "team a");
+        waiting.interrupt();
+        waiting.join(10000);
+
+        first.close();
+        assertTrue(throttle.hasCapacity("team a"));
+        assertFalse(throttle.acquire("team a", TaskListener.NULL).hasWaited());
+    }
+
+    @Test
+    public void testReservedSlotIsHandedOverToTheBuild() throws Exception {
+        AppdomeThrottle throttle = new AppdomeThrottle(() -> 1);
+        assertTrue(throttle.reserve(1, "team a"));
+        // Asking again for the same queue item keeps its reservation
+        assertTrue(throttle.reserve(1, "team a"));
+        // Another build let go at the same time stays in the queue
+        assertFalse(throttle.reserve(2, "team a"));
+        assertFalse(throttle.hasCapacity("team a"));
+
+        AppdomeThrottle.Slot slot = throttle.acquire("team a", 1, TaskListener.NULL);
+        assertFalse(slot.hasWaited());
+        assertFalse(throttle.reserve(2, "team a"));
+        slot.close();
+        assertTrue(throttle.reserve(2, "team a"));
+
+        throttle.cancelReservation(2);
+        assertTrue(throttle.hasCapacity("team a"));
+    }
+
+    @Test
+    public void testReservationOfAnotherKeyIsGivenBack() throws Exception {
+        AppdomeThrottle throttle = new AppdomeThrottle(() -> 1);
+        assertTrue(throttle.reserve(1, "API key a"));
+        assertEquals("API key a", throttle.getReservation(1));
+        assertFalse(throttle.hasCapacity("API key a"));
+
+        try (AppdomeThrottle.Slot slot = throttle.acquire("API key b", 1, TaskListener.NULL)) {
+            assertFalse(slot.hasWaited());
+            assertNull(throttle.getReservation(1));
+            assertTrue(throttle.hasCapacity("API key a"));
+        }
+    }
+
+    @Test
+    public void testTeamOrApiKey() {
+        assertEquals("team t1", AppdomeThrottle.key(" t1 ", null));
+        assertTrue(AppdomeThrottle.key(null, null).startsWith("API key "));
+    }
+
+    private static Object protect(AppdomeThrottle throttle, String name, List<String> started) throws InterruptedException {
+        try (AppdomeThrottle.Slot slot = throttle.acquire("team a", TaskListener.NULL)) {
+            assertTrue(slot.hasWaited());
+            started.add(name);
+        }
+        return null;
+    }
+
+    private static void waitForQueue(AppdomeThrottle throttle, String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline && !throttle.isWaiting(key)) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.jenkins.plugins.appdome.build.to.secure.throttle;
+
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import io.jenkins.plugins.appdome.build.to.secure.api.AppdomeApiException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AppdomeTokenPoolTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AppdomeTokenPool pool = new AppdomeTokenPool(now::get);
+    private final List<Secret> tokens = AppdomeTokenPool.tokens(Secret.fromString("key-a"),
+            Secret.fromString("key-b\n\nkey-a\n key-c \n"));
+
+    @Test
+    public void testProtectionsTakeTheLeastBusyKey() {
+        assertEquals(3, tokens.size());
+        AppdomeTokenPool.Lease first = pool.lease(tokens, TaskListener.NULL);
+        AppdomeTokenPool.Lease second = pool.lease(tokens, TaskListener.NULL);
+        AppdomeTokenPool.Lease third = pool.lease(tokens, TaskListener.NULL);
+        for (Secret token : tokens) {
+            assertEquals(1, pool.getInFlight(token));
+        }
+
+        second.close();
+        assertSame(second.getToken(), pool.lease(tokens, TaskListener.NULL).getToken());
+        first.close();
+        third.close();
+    }
+
+    @Test
+    public void testReservedKeyIsTakenUnlessItIsSetAside() {
+        Secret reserved = tokens.get(2);
+        try (AppdomeTokenPool.Lease busy = pool.lease(tokens, reserved::equals, TaskListener.NULL)) {
+            assertSame(reserved, busy.getToken());
+            // Taken even though other keys have fewer protections in flight
+            try (AppdomeTokenPool.Lease lease = pool.lease(tokens, reserved::equals, TaskListener.NULL)) {
+                assertSame(reserved, lease.getToken());
+                lease.throttled();
+            }
+        }
+        try (AppdomeTokenPool.Lease lease = pool.lease(tokens, reserved::equals, TaskListener.NULL)) {
+            assertFalse(lease.getToken() == reserved);
+        }
+    }
+
+    @Test
+    public void testThrottledKeyIsSetAside() {
+        Secret throttled;
+        try (AppdomeTokenPool.Lease lease = pool.lease(tokens, TaskListener.NULL)) {
+            throttled = lease.getToken();
+            lease.throttled();
+        }
+        for (int i = 0; i < 10; i++) {
+            try (AppdomeTokenPool.Lease lease = pool.lease(tokens, TaskListener.NULL)) {
+                assertFalse(lease.getToken() == throttled);
+            }
+        }
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(AppdomeTokenPool.SIDELINE_SECONDS));
+        assertFalse(pool.isSidelined(throttled));
+        // Throttled again in a row, for twice as long
+        try (AppdomeTokenPool.Lease lease = leaseOf(throttled)) {
+            lease.throttled();
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(AppdomeTokenPool.SIDELINE_SECONDS));
+        assertTrue(pool.isSidelined(throttled));
+    }
+
+    @Test
+    public void testSingleKeyIsUsedEvenIfThrottled() {
+        List<Secret> single = AppdomeTokenPool.tokens(Secret.fromString("key-a"), null);
+        try (AppdomeTokenPool.Lease lease = pool.lease(single, TaskListener.NULL)) {
+            lease.throttled();
+        }
+        try (AppdomeTokenPool.Lease lease = pool.lease(single, TaskListener.NULL)) {
+            assertSame(single.get(0), lease.getToken());
+            lease.succeeded();
+        }
+        assertFalse(pool.isSidelined(single.get(0)));
+    }
+
+    @Test
+    public void testThrottlingIsToldApart() {
+        IOException fusionSets = new AppdomeApiException(0, "Building with 1 of 2 fusion sets failed");
+        fusionSets.addSuppressed(new AppdomeApiException(429, "HTTP 429"));
+        assertTrue(AppdomeTokenPool.isThrottling(new IOException("remote call failed", fusionSets)));
+        assertFalse(AppdomeTokenPool.isThrottling(new AppdomeApiException(500, "HTTP 500")));
+    }
+
+    private AppdomeTokenPool.Lease leaseOf(Secret token) {
+        while (true) {
+            AppdomeTokenPool.Lease lease = pool.lease(tokens, TaskListener.NULL);
+            if (lease.getToken() == token) {
+                return lease;
+            }
+            lease.close();
+        }
+    }
+}
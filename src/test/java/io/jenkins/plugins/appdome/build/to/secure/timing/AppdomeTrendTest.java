@@ -0,0 +1,61 @@
+package io.jenkins.plugins.appdome.build.to.secure.timing;
+
+import com.gargoylesoftware.htmlunit.Page;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AppdomeTrendTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testTrendFollowsCompletedAndDeletedBuilds() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        assertNull(project.getAction(AppdomeTrendAction.class));
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                AppdomeTimingsAction timings = AppdomeTimingsAction.of(build);
+                timings.record("free: Upload", 1000, true);
+                timings.record("paid: Upload", 2000, true);
+                timings.record("free: Build", 60000, true);
+                timings.recordSizes(10 * 1024 * 1024, 12 * 1024 * 1024);
+                timings.addTotal(70000);
+                return true;
+            }
+        });
+
+        FreeStyleBuild first = jenkins.buildAndAssertSuccess(project);
+        jenkins.buildAndAssertSuccess(project);
+
+        List<AppdomeTrend.Entry> entries = AppdomeTrend.load(project).getEntries();
+        assertEquals(2, entries.size());
+        assertEquals(Long.valueOf(3000), entries.get(0).getStageMillis().get("Upload"));
+        assertEquals(Long.valueOf(60000), entries.get(0).getStageMillis().get("Build"));
+        assertEquals(70000, entries.get(0).getTotalMillis());
+        assertEquals(12 * 1024 * 1024, entries.get(1).getProtectedAppSize());
+
+        first.delete();
+        entries = AppdomeTrend.load(project).getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).getNumber());
+
+        assertNotNull(project.getAction(AppdomeTrendAction.class));
+        Page graph = jenkins.createWebClient().goTo(project.getUrl() + "appdomeTrend/durationGraph", "image/png");
+        assertEquals(200, graph.getWebResponse().getStatusCode());
+    }
+}